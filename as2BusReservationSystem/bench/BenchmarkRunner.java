@@ -0,0 +1,198 @@
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal benchmark harness for the booking system, reporting throughput and allocation rate like JMH with its gc profiler.
+ * JMH itself cannot be used here: it refuses benchmarks in the default package, and benchmarks in a named package could not
+ * access the classes of the booking system, which live in the default package.
+ * <p>
+ * Every benchmark is run for a number of warmup iterations followed by measured iterations of a fixed duration, the operation
+ * being invoked repeatedly within an iteration. It can be configured with the system properties {@code bench.warmup},
+ * {@code bench.iterations} (number of iterations) and {@code bench.time} (iteration duration in milliseconds), and the
+ * benchmarks to run can be selected with a regular expression matched against their names. A benchmark that throws, for
+ * example because it verifies its result, is reported as failed, see {@link #exitOnFailure()}.
+ * <p>
+ * The allocation rate counts the allocations of all threads, not just of the thread that invokes the operation. The JVM only
+ * reports the allocations of live threads, so an operation that starts threads which terminate before the iteration ends
+ * must create them through {@link #threadFactory()} or {@link #forkJoinThreadFactory()}, whose threads report their
+ * allocations when they terminate.
+ */
+public class BenchmarkRunner {
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final int warmupIterations = Integer.getInteger("bench.warmup", 2);
+    private final int measurementIterations = Integer.getInteger("bench.iterations", 3);
+    private final long iterationNanos = Long.getLong("bench.time", 300) * 1_000_000L;
+    private final Pattern filter;
+    private boolean headerPrinted = false;
+    private int failures = 0;
+    private final Set<Long> reportingThreads = ConcurrentHashMap.newKeySet(); // Counted when they terminate, not while alive
+    private final Set<Long> terminatedThreads = ConcurrentHashMap.newKeySet(); // Reporting threads that have reported
+    private final LongAdder terminatedBytes = new LongAdder(); // Allocated by reporting threads over their lifetime
+
+    /**
+     * Constructor for BenchmarkRunner.
+     *
+     * @param args Command line arguments of the benchmark program, the first one is an optional name filter.
+     */
+    public BenchmarkRunner(String[] args) {
+        this.filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+    }
+
+    /**
+     * Operation that is measured, which may perform several operations per invocation.
+     */
+    public interface Operation {
+        /**
+         * @return Number of operations performed by the invocation.
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * Checks whether a benchmark is selected, so that expensive setups of unselected benchmarks can be skipped.
+     *
+     * @param name Name of the benchmark.
+     * @return true if the name matches the filter, false otherwise.
+     */
+    public boolean isSelected(String name) {
+        return filter.matcher(name).find();
+    }
+
+    /**
+     * Runs a benchmark if it is selected and prints its results.
+     *
+     * @param name      Name of the benchmark.
+     * @param operation Operation to measure.
+     */
+    public void run(String name, Operation operation) {
+        if (!isSelected(name)) {
+            return;
+        }
+        if (!headerPrinted) {
+            System.out.println(String.format(Locale.US, "%-48s %16s %10s %14s %12s", "Benchmark", "ops/s", "error %", "B/op", "MB/s alloc"));
+            headerPrinted = true;
+        }
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                iteration(operation);
+            }
+            double[] throughput = new double[measurementIterations];
+            long totalOperations = 0;
+            long totalBytes = 0;
+            long totalNanos = 0;
+            for (int i = 0; i < measurementIterations; i++) {
+                long[] result = iteration(operation);
+                throughput[i] = result[0] * 1e9 / result[2];
+                totalOperations += result[0];
+                totalBytes += result[1];
+                totalNanos += result[2];
+            }
+            double mean = 0;
+            for (double value : throughput) {
+                mean += value / throughput.length;
+            }
+            double deviation = 0;
+            for (double value : throughput) {
+                deviation += (value - mean) * (value - mean) / throughput.length;
+            }
+            System.out.println(String.format(Locale.US, "%-48s %16.1f %10.1f %14.1f %12.1f", name, mean, 100 * Math.sqrt(deviation) / mean,
+                    (double) totalBytes / totalOperations, totalBytes / 1e6 / (totalNanos / 1e9)));
+        } catch (Exception | AssertionError e) {
+            failures++;
+            System.out.println(name + " failed: " + e);
+        }
+    }
+
+    /**
+     * Exits with status 1 if any benchmark has failed, so that a failed benchmark fails the build that runs it. It must be
+     * called after the last benchmark.
+     */
+    public void exitOnFailure() {
+        if (failures > 0) {
+            System.out.println(failures + " benchmarks failed");
+            System.exit(1);
+        }
+    }
+
+    private long[] iteration(Operation operation) throws Exception {
+        long operations = 0;
+        HashMap<Long, Long> bytesBefore = new HashMap<>();
+        long terminatedBytesBefore = terminatedBytes.sum();
+        long[] threadIds = THREADS.getAllThreadIds();
+        long[] threadBytes = THREADS.getThreadAllocatedBytes(threadIds);
+        for (int i = 0; i < threadIds.length; i++) {
+            bytesBefore.put(threadIds[i], threadBytes[i]);
+        }
+        for (Long threadId : terminatedThreads) { // Forgotten once gone, thread IDs are never reused
+            if (!bytesBefore.containsKey(threadId)) {
+                terminatedThreads.remove(threadId);
+                reportingThreads.remove(threadId);
+            }
+        }
+        long start = System.nanoTime();
+        long now;
+        do {
+            operations += operation.run();
+            now = System.nanoTime();
+        } while (now - start < iterationNanos);
+        long bytes = terminatedBytes.sum() - terminatedBytesBefore;
+        threadIds = THREADS.getAllThreadIds();
+        threadBytes = THREADS.getThreadAllocatedBytes(threadIds);
+        for (int i = 0; i < threadIds.length; i++) {
+            if (threadBytes[i] >= 0 && !reportingThreads.contains(threadIds[i])) { // -1 if the thread has terminated meanwhile
+                bytes += threadBytes[i] - bytesBefore.getOrDefault(threadIds[i], 0L); // Started during the iteration if absent
+            }
+        }
+        return new long[]{operations, bytes, now - start};
+    }
+
+    /**
+     * @return Factory of threads that report their allocations to the runner when they terminate, for operations that start
+     * threads of their own.
+     */
+    public ThreadFactory threadFactory() {
+        return task -> {
+            Thread thread = new Thread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    terminated();
+                }
+            });
+            reportingThreads.add(thread.getId());
+            return thread;
+        };
+    }
+
+    /**
+     * @return Factory of pool threads that report their allocations to the runner when they terminate, for operations that
+     * start pools of their own. The pool must be shut down and terminated before the operation returns.
+     */
+    public ForkJoinPool.ForkJoinWorkerThreadFactory forkJoinThreadFactory() {
+        return pool -> {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                @Override
+                protected void onTermination(Throwable exception) {
+                    terminated();
+                    super.onTermination(exception);
+                }
+            };
+            reportingThreads.add(thread.getId());
+            return thread;
+        };
+    }
+
+    private void terminated() {
+        terminatedBytes.add(THREADS.getCurrentThreadAllocatedBytes());
+        terminatedThreads.add(Thread.currentThread().getId()); // Still listed for a moment, but no longer counted while alive
+    }
+}
@@ -0,0 +1,1104 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks of the booking commands across all bus types and voyage sizes, plus full replays of generated command files.
+ * Commands are executed through {@link BookingSystem#executeCommand(String)} into a log that discards its output, so parsing,
+ * the state change and the formatting of the result are all measured.
+ * <p>
+ * Usage: {@code java -cp out BookingBenchmarks [name filter]}, for example {@code java -cp out BookingBenchmarks "^print/Premium"}.
+ */
+public class BookingBenchmarks {
+    private static final String[] TYPES = {"Standard", "Premium", "Minibus"};
+    private static final int[] ROWS = {1, 10, 100, 1000, 10000};
+    private static final int[] REPORT_VOYAGES = {1, 100, 10000};
+    private static final int[] REPLAY_LINES = {10_000, 1_000_000};
+    private static final int MONEY_OPERATIONS = 10_000_000;
+    private static final int[] JOURNAL_SYNC_BATCH_SIZES = {1, 16, 256, 0};
+    private static final int JOURNAL_THREADS = 8;
+    private static final int RECOVERY_RECORDS = 10_000_000;
+    private static final int COLD_START_LINES = 1_000_000;
+    private static final int SEARCH_VOYAGES = 1_000_000;
+    private static final int SEARCH_CITIES = 100;
+    private static final int BATCH_LINES = 1_000_000;
+    private static final int[] BATCH_PARALLELISM = {0, 1, 2, 4, 8};
+    private static final int METRICS_LINES = 1_000_000;
+    private static final int[] METRICS_SAMPLE_INTERVALS = {0, 1, 16};
+    private static final int HOLD_EXPIRY_HOLDS = 1_000_000;
+    private static final int HOLD_RACE_OPERATIONS = 200_000;
+    private static final int[] HOLD_RACE_THREADS = {1, 4, 16, 64};
+    private static final int CLAIM_RACE_OPERATIONS = 1_000_000;
+    private static final int[] CLAIM_RACE_THREADS = {1, 4, 16, 64};
+    private static final int PIPELINE_LINES = 1_000_000;
+    private static final int[] PIPELINE_WORKERS = {0, 1, 2, 4};
+    private static final int REGISTRY_VOYAGES = 1_000_000;
+    private static final int STORE_VOYAGES = 1_000_000;
+    private static final long INVENTORY_SEATS = 50_000_000L;
+
+    private static boolean processorsPrinted = false;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(args);
+        for (String type : TYPES) {
+            for (int rows : ROWS) {
+                sell(runner, type, rows);
+                refund(runner, type, rows);
+                print(runner, type, rows);
+                cancel(runner, type, rows);
+                sellBest(runner, type, rows);
+            }
+        }
+        for (int voyages : REPORT_VOYAGES) {
+            zReport(runner, voyages);
+            zReportAfterChanges(runner, voyages);
+        }
+        for (int lines : REPLAY_LINES) {
+            replay(runner, lines);
+            replayBinary(runner, lines);
+        }
+        moneyReplay(runner);
+        for (int syncBatchSize : JOURNAL_SYNC_BATCH_SIZES) {
+            journalAppend(runner, syncBatchSize, 1);
+            journalAppend(runner, syncBatchSize, JOURNAL_THREADS);
+        }
+        journalRecover(runner);
+        coldStart(runner);
+        search(runner);
+        for (int parallelism : BATCH_PARALLELISM) {
+            batch(runner, parallelism);
+        }
+        for (int sampleInterval : METRICS_SAMPLE_INTERVALS) {
+            metrics(runner, sampleInterval);
+        }
+        holdExpiry(runner);
+        for (int threads : HOLD_RACE_THREADS) {
+            holdRace(runner, threads);
+        }
+        for (int threads : CLAIM_RACE_THREADS) {
+            claimRace(runner, false, threads);
+            claimRace(runner, true, threads);
+        }
+        for (int workers : PIPELINE_WORKERS) {
+            pipeline(runner, workers);
+        }
+        registry(runner);
+        store(runner, false);
+        store(runner, true);
+        seatInventory(runner, false);
+        seatInventory(runner, true);
+        runner.exitOnFailure();
+    }
+
+    /**
+     * Creates a booking system whose log discards everything written to it.
+     *
+     * @param service Booking service of the booking system.
+     * @return The booking system.
+     */
+    static BookingSystem newBookingSystem(BookingService service) {
+        return new BookingSystem(service, new LogWriter(Writer.nullWriter(), false));
+    }
+
+    /**
+     * Builds the command that initializes a voyage.
+     *
+     * @param type Type of the bus.
+     * @param id   ID of the voyage.
+     * @param rows Number of seat rows.
+     * @return The INIT_VOYAGE command.
+     */
+    static String initCommand(String type, int id, int rows) {
+        switch (type) {
+            case "Standard":
+                return "INIT_VOYAGE\tStandard\t" + id + "\tAnkara\tIstanbul\t" + rows + "\t25.5\t10";
+            case "Premium":
+                return "INIT_VOYAGE\tPremium\t" + id + "\tAnkara\tIstanbul\t" + rows + "\t25.5\t10\t15";
+            default:
+                return "INIT_VOYAGE\tMinibus\t" + id + "\tAnkara\tIstanbul\t" + rows + "\t25.5";
+        }
+    }
+
+    private static int[] everyOtherSeat(int totalSeats) {
+        int[] seats = new int[(totalSeats + 1) / 2];
+        for (int i = 0; i < seats.length; i++) {
+            seats[i] = 2 * i + 1;
+        }
+        return seats;
+    }
+
+    private static String[] commands(String prefix, int totalSeats) {
+        String[] commands = new String[totalSeats];
+        for (int i = 0; i < totalSeats; i++) {
+            commands[i] = prefix + (i + 1);
+        }
+        return commands;
+    }
+
+    /**
+     * SELL_TICKET of one seat after another. When the voyage is full, it is cancelled and initialized again within the measurement.
+     */
+    private static void sell(BenchmarkRunner runner, String type, int rows) {
+        String name = "sell/" + type + "/" + rows;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        BookingService service = new BookingService();
+        BookingSystem bookingSystem = newBookingSystem(service);
+        String init = initCommand(type, 1, rows);
+        bookingSystem.executeCommand(init);
+        String[] sells = commands("SELL_TICKET\t1\t", service.getVoyage(1).getTotalSeats());
+        int[] next = {0};
+        runner.run(name, () -> {
+            if (next[0] == sells.length) {
+                bookingSystem.executeCommand("CANCEL_VOYAGE\t1");
+                bookingSystem.executeCommand(init);
+                next[0] = 0;
+            }
+            bookingSystem.executeCommand(sells[next[0]++]);
+            return 1;
+        });
+    }
+
+    /**
+     * SELL_BEST of two seats on a voyage whose rows all have a single empty seat, except the last row whose last two seats are
+     * empty, so the search checks every row and the adjacent pair is only found at the end. The pair is refunded after every sale.
+     */
+    private static void sellBest(BenchmarkRunner runner, String type, int rows) {
+        String name = "sellbest/" + type + "/" + rows;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        BookingService service = new BookingService();
+        BookingSystem bookingSystem = newBookingSystem(service);
+        bookingSystem.executeCommand(initCommand(type, 1, rows));
+        Bus voyage = service.getVoyage(1);
+        int totalSeats = voyage.getTotalSeats();
+        int seatsPerRow = voyage.getLayout().getSeatsPerRow();
+        for (int seat = 1; seat <= totalSeats - 2; seat++) {
+            if ((seat - 1) % seatsPerRow != 0 || seat > totalSeats - seatsPerRow) {
+                voyage.sellSeats(seat);
+            }
+        }
+        int[] pair = {totalSeats - 1, totalSeats};
+        runner.run(name, () -> {
+            bookingSystem.executeCommand("SELL_BEST\t1\t2");
+            voyage.refundSeats(pair);
+            return 1;
+        });
+    }
+
+    /**
+     * REFUND_TICKET on a voyage whose seats are all sold, every refunded seat is sold again so both commands are counted.
+     * Minibus tickets are not refundable, so for minibuses only the rejected refund is measured.
+     */
+    private static void refund(BenchmarkRunner runner, String type, int rows) {
+        String name = "refund/" + type + "/" + rows;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        BookingService service = new BookingService();
+        BookingSystem bookingSystem = newBookingSystem(service);
+        bookingSystem.executeCommand(initCommand(type, 1, rows));
+        int totalSeats = service.getVoyage(1).getTotalSeats();
+        for (int seat = 1; seat <= totalSeats; seat++) {
+            service.sellSeats(1, seat);
+        }
+        String[] refunds = commands("REFUND_TICKET\t1\t", totalSeats);
+        String[] sells = commands("SELL_TICKET\t1\t", totalSeats);
+        boolean refundable = !"Minibus".equals(type);
+        int[] next = {0};
+        runner.run(name, () -> {
+            int seat = next[0];
+            next[0] = (seat + 1) % totalSeats;
+            bookingSystem.executeCommand(refunds[seat]);
+            if (!refundable) {
+                return 1;
+            }
+            bookingSystem.executeCommand(sells[seat]);
+            return 2;
+        });
+    }
+
+    /**
+     * PRINT_VOYAGE of a voyage whose every other seat is sold.
+     */
+    private static void print(BenchmarkRunner runner, String type, int rows) {
+        String name = "print/" + type + "/" + rows;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        BookingService service = new BookingService();
+        BookingSystem bookingSystem = newBookingSystem(service);
+        bookingSystem.executeCommand(initCommand(type, 1, rows));
+        service.sellSeats(1, everyOtherSeat(service.getVoyage(1).getTotalSeats()));
+        runner.run(name, () -> {
+            bookingSystem.executeCommand("PRINT_VOYAGE\t1");
+            return 1;
+        });
+    }
+
+    /**
+     * CANCEL_VOYAGE of a voyage whose every other seat is sold. Initializing the voyage and selling its seats again is part of the measurement.
+     */
+    private static void cancel(BenchmarkRunner runner, String type, int rows) {
+        String name = "cancel/" + type + "/" + rows;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        BookingService service = new BookingService();
+        BookingSystem bookingSystem = newBookingSystem(service);
+        String init = initCommand(type, 1, rows);
+        bookingSystem.executeCommand(init);
+        int[] seats = everyOtherSeat(service.getVoyage(1).getTotalSeats());
+        runner.run(name, () -> {
+            service.sellSeats(1, seats);
+            bookingSystem.executeCommand("CANCEL_VOYAGE\t1");
+            bookingSystem.executeCommand(init);
+            return 1;
+        });
+    }
+
+    /**
+     * Z_REPORT of voyages of all types with 10 rows, every other seat sold.
+     */
+    private static void zReport(BenchmarkRunner runner, int voyages) {
+        String name = "zreport/" + voyages;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        BookingService service = new BookingService();
+        BookingSystem bookingSystem = newBookingSystem(service);
+        for (int id = 1; id <= voyages; id++) {
+            bookingSystem.executeCommand(initCommand(TYPES[id % TYPES.length], id, 10));
+            service.sellSeats(id, everyOtherSeat(service.getVoyage(id).getTotalSeats()));
+        }
+        runner.run(name, () -> {
+            bookingSystem.printZReport();
+            return 1;
+        });
+    }
+
+    /**
+     * Z_REPORT of voyages of all types with 10 rows, where 1% of the voyages (at least one) get a sale or a refund before every report.
+     */
+    private static void zReportAfterChanges(BenchmarkRunner runner, int voyages) {
+        String name = "zreport/changed/" + voyages;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        BookingService service = new BookingService();
+        BookingSystem bookingSystem = newBookingSystem(service);
+        for (int id = 1; id <= voyages; id++) {
+            bookingSystem.executeCommand(initCommand(TYPES[id % TYPES.length], id, 10));
+            service.sellSeats(id, everyOtherSeat(service.getVoyage(id).getTotalSeats()));
+        }
+        int changesPerReport = Math.max(1, voyages / 100);
+        long[] next = {0};
+        runner.run(name, () -> {
+            for (int i = 0; i < changesPerReport; i++) {
+                long change = next[0]++;
+                int id = 1 + (int) ((change * 7919) % voyages);
+                if (!service.refundSeats(id, 1)) {
+                    service.sellSeats(id, 1);
+                }
+            }
+            bookingSystem.printZReport();
+            return 1;
+        });
+    }
+
+    /**
+     * Replay of a generated command file through the same path as {@link BookingSystem#main(String[])}, reported per command.
+     */
+    private static void replay(BenchmarkRunner runner, int lines) throws Exception {
+        String name = "replay/" + lines;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        File input = File.createTempFile("replay", ".txt");
+        input.deleteOnExit();
+        new CommandFileGenerator(1, 1000, 20).write(input.getPath(), lines);
+        runner.run(name, () -> {
+            BookingSystem bookingSystem = newBookingSystem(new BookingService());
+            FileInput.readLines(input.getPath(), true, false, bookingSystem::executeCommand);
+            return lines;
+        });
+    }
+
+    /**
+     * Replay of the same generated command file as {@link #replay(BenchmarkRunner, int)} after converting it to a
+     * {@link BinaryCommandFile}, reported per command. Before the runs, the logs of both replays are compared, and the
+     * benchmark fails if they differ.
+     */
+    private static void replayBinary(BenchmarkRunner runner, int lines) throws Exception {
+        String name = "replay/binary/" + lines;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        File text = File.createTempFile("replay", ".txt");
+        text.deleteOnExit();
+        new CommandFileGenerator(1, 1000, 20).write(text.getPath(), lines);
+        File binary = File.createTempFile("replay", ".bin");
+        binary.deleteOnExit();
+        try (BinaryCommandFile file = BinaryCommandFile.create(binary.toPath())) {
+            BinaryCommand command = new BinaryCommand();
+            FileInput.readLines(text.getPath(), true, false, line -> {
+                command.parse(line);
+                try {
+                    file.write(command);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        StringWriter textLog = new StringWriter();
+        LogWriter textWriter = new LogWriter(textLog, false);
+        BookingSystem textSystem = new BookingSystem(new BookingService(), textWriter);
+        FileInput.readLines(text.getPath(), true, false, textSystem::executeCommand);
+        textWriter.flush();
+        StringWriter binaryLog = new StringWriter();
+        LogWriter binaryWriter = new LogWriter(binaryLog, false);
+        BookingSystem binarySystem = new BookingSystem(new BookingService(), binaryWriter);
+        BinaryCommandFile.readCommands(binary.getPath(), true, binarySystem::executeCommand);
+        binaryWriter.flush();
+        if (!textLog.toString().equals(binaryLog.toString())) {
+            throw new IllegalStateException("Binary replay of " + binary + " does not log the same as the text replay");
+        }
+        System.out.println("# " + text.length() + " bytes of text, " + binary.length() + " bytes of binary");
+        runner.run(name, () -> {
+            BookingSystem bookingSystem = newBookingSystem(new BookingService());
+            BinaryCommandFile.readCommands(binary.getPath(), true, bookingSystem::executeCommand);
+            return lines;
+        });
+    }
+
+    /**
+     * Replay of a generated command file through a {@link BatchExecutor} on a pool of the given parallelism, reported per
+     * command. Parallelism 0 is the serial replay of {@link #replay(BenchmarkRunner, int)}, the baseline of the speedup.
+     * The speedup is bounded by the number of available processors, which is printed before the first batch benchmark.
+     */
+    private static void batch(BenchmarkRunner runner, int parallelism) throws Exception {
+        String name = "batch/" + (parallelism == 0 ? "serial" : parallelism) + "/" + BATCH_LINES;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        if (!processorsPrinted) {
+            processorsPrinted = true;
+            System.out.println("# " + Runtime.getRuntime().availableProcessors() + " available processors");
+        }
+        File input = File.createTempFile("batch", ".txt");
+        input.deleteOnExit();
+        new CommandFileGenerator(1, 1000, 20).write(input.getPath(), BATCH_LINES);
+        ForkJoinPool pool = parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+        try {
+            runner.run(name, () -> {
+                BookingService service = new BookingService();
+                if (pool == null) {
+                    BookingSystem bookingSystem = newBookingSystem(service);
+                    FileInput.readLines(input.getPath(), true, false, bookingSystem::executeCommand);
+                } else {
+                    LogWriter log = new LogWriter(Writer.nullWriter(), false);
+                    BatchExecutor executor = new BatchExecutor(service, log, pool, 4096);
+                    FileInput.readLines(input.getPath(), true, false, executor::executeCommand);
+                    executor.flush();
+                }
+                return BATCH_LINES;
+            });
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Replay of a generated command file through a {@link CommandPipeline}, reported per command, with the serial loop of
+     * {@link BookingSystem#main(String[])} as the baseline (0 workers). Both encode their log in the platform default charset
+     * into a stream that discards it. Before the runs, the logs of both are compared, and the benchmark fails if they differ.
+     * The summary of the stages of the last run is printed, it shows which stage is the bottleneck.
+     */
+    private static void pipeline(BenchmarkRunner runner, int workers) throws Exception {
+        String name = "pipeline/" + (workers == 0 ? "serial" : workers) + "/" + PIPELINE_LINES;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        if (!processorsPrinted) {
+            processorsPrinted = true;
+            System.out.println("# " + Runtime.getRuntime().availableProcessors() + " available processors");
+        }
+        File input = File.createTempFile("pipeline", ".txt");
+        input.deleteOnExit();
+        new CommandFileGenerator(1, 1000, 20).write(input.getPath(), PIPELINE_LINES);
+        if (workers > 0) {
+            ByteArrayOutputStream serial = new ByteArrayOutputStream();
+            executeSerially(input, serial);
+            ByteArrayOutputStream pipelined = new ByteArrayOutputStream();
+            executePipelined(runner, input, pipelined, workers);
+            if (!Arrays.equals(serial.toByteArray(), pipelined.toByteArray())) {
+                throw new IllegalStateException("Logs of the pipeline and of the serial loop differ");
+            }
+        }
+        CommandPipeline[] last = new CommandPipeline[1];
+        runner.run(name, () -> {
+            if (workers == 0) {
+                executeSerially(input, OutputStream.nullOutputStream());
+            } else {
+                last[0] = executePipelined(runner, input, OutputStream.nullOutputStream(), workers);
+            }
+            return PIPELINE_LINES;
+        });
+        if (last[0] != null) {
+            for (String line : last[0].getSummary().split("\n")) {
+                System.out.println("# " + line);
+            }
+        }
+    }
+
+    private static void executeSerially(File input, OutputStream out) {
+        LogWriter log = new LogWriter(new OutputStreamWriter(out), true);
+        BookingSystem bookingSystem = new BookingSystem(new BookingService(), log);
+        FileInput.readLines(input.getPath(), true, false, bookingSystem::executeCommand);
+        bookingSystem.printZReport(); // The generated files do not end with a Z report
+        log.close();
+    }
+
+    private static CommandPipeline executePipelined(BenchmarkRunner runner, File input, OutputStream out, int workers) {
+        CommandPipeline pipeline = new CommandPipeline(new BookingService(), out, workers, 1024, 16,
+                runner.forkJoinThreadFactory(), runner.threadFactory());
+        FileInput.readLines(input.getPath(), true, false, pipeline::executeCommand);
+        pipeline.finish(true);
+        return pipeline;
+    }
+
+    /**
+     * Replay of a generated command file with and without {@link BookingMetrics}, reported per command. The difference to the
+     * replay without metrics (sample interval 0) is the overhead of the instrumentation.
+     */
+    private static void metrics(BenchmarkRunner runner, int sampleInterval) throws Exception {
+        String name = "metrics/" + (sampleInterval > 0 ? sampleInterval : "off") + "/" + METRICS_LINES;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        File input = File.createTempFile("metrics", ".txt");
+        input.deleteOnExit();
+        new CommandFileGenerator(1, 1000, 20).write(input.getPath(), METRICS_LINES);
+        runner.run(name, () -> {
+            BookingService service = new BookingService();
+            if (sampleInterval > 0) {
+                service.setMetrics(new BookingMetrics(sampleInterval));
+            }
+            BookingSystem bookingSystem = newBookingSystem(service);
+            FileInput.readLines(input.getPath(), true, false, bookingSystem::executeCommand);
+            return METRICS_LINES;
+        });
+    }
+
+    /**
+     * 1M holds with random times to live of up to 10 minutes on 1000 voyages, followed by their expiry while a manual clock
+     * moves forward a second at a time, reported per hold. The run fails unless every hold expires and frees its seat.
+     */
+    private static void holdExpiry(BenchmarkRunner runner) {
+        String name = "hold/expire/" + HOLD_EXPIRY_HOLDS;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        int voyages = 1000;
+        runner.run(name, () -> {
+            long[] now = {0};
+            BookingService service = new BookingService();
+            service.setClock(() -> now[0]);
+            for (int id = 1; id <= voyages; id++) {
+                service.addVoyage(new ObjectBus(SeatLayout.STANDARD, id, "Ankara", "Istanbul", 250, 25.5, 10, 0));
+            }
+            Random random = new Random(1);
+            for (int i = 0; i < HOLD_EXPIRY_HOLDS; i++) {
+                Bus voyage = service.getVoyage(1 + i % voyages);
+                service.holdSeats(voyage, new int[]{1 + i / voyages}, (1 + random.nextInt(600)) * 1_000_000_000L);
+            }
+            for (int second = 1; second <= 601; second++) {
+                now[0] = second * 1_000_000_000L;
+                service.expireHolds();
+            }
+            if (service.getHoldCount() != 0 || service.getVoyage(1).getFreeSeatCount() != 1000) {
+                throw new IllegalStateException(service.getHoldCount() + " holds have not expired");
+            }
+            return HOLD_EXPIRY_HOLDS;
+        });
+    }
+
+    /**
+     * Threads that hold, confirm, release and refund random seats of one voyage at the same time, reported per operation, see
+     * {@link BookingChecks#holdRace(int, int, ThreadFactory)}, which fails the benchmark if a hold is resolved twice or the
+     * seats or the revenue do not match.
+     */
+    private static void holdRace(BenchmarkRunner runner, int threads) {
+        String name = "hold/race/" + threads;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        runner.run(name, () -> BookingChecks.holdRace(threads, HOLD_RACE_OPERATIONS, runner.threadFactory()));
+    }
+
+    /**
+     * Sales of seat pairs and refunds of single seats by many threads on a single voyage, with one sale of the best seats in
+     * every hundred operations, which takes the voyage's monitor. The voyage either guards its seats with its monitor only, or
+     * keeps them in a {@link ConcurrentSeatMap}, whose sales and refunds claim the seats lock-free, except for the pairs that
+     * straddle two seat words, which take the monitor as well. After every run, the sold seats and the revenue are checked
+     * against the totals of the successful operations.
+     *
+     * @param runner   Runner of the benchmark.
+     * @param lockFree true for lock-free seats, false for the synchronized baseline.
+     * @param threads  Number of threads.
+     */
+    private static void claimRace(BenchmarkRunner runner, boolean lockFree, int threads) {
+        String name = "claim/" + (lockFree ? "cas" : "synchronized") + "/" + threads;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        int rows = 250;
+        int operationsPerThread = CLAIM_RACE_OPERATIONS / threads;
+        runner.run(name, () -> {
+            BookingService service = new BookingService();
+            service.setLockFreeSeats(lockFree);
+            Bus voyage = service.newVoyage(SeatLayout.STANDARD, 1, "Ankara", "Istanbul", rows, 25.5, 10, 0);
+            service.addVoyage(voyage);
+            FareTable fares = voyage.getFareTable();
+            AtomicLong soldSeats = new AtomicLong();
+            AtomicLong revenue = new AtomicLong();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = runner.threadFactory().newThread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long sold = 0;
+                    long total = 0;
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        int operation = random.nextInt(100);
+                        if (operation < 60) {
+                            int seat = 1 + random.nextInt(voyage.getTotalSeats() - 1);
+                            int[] seatNumbers = {seat, seat + 1};
+                            if (service.sellSeats(voyage, seatNumbers)) {
+                                sold += 2;
+                                total += fares.saleTotal(seatNumbers);
+                            }
+                        } else if (operation < 99) {
+                            int seat = 1 + random.nextInt(voyage.getTotalSeats());
+                            if (service.refundSeats(voyage, seat)) {
+                                sold--;
+                                total -= fares.getRefundAmount(seat);
+                            }
+                        } else {
+                            int[] seatNumbers = service.sellBestSeats(voyage, 2, -1);
+                            if (seatNumbers != null) {
+                                sold += 2;
+                                total += fares.saleTotal(seatNumbers);
+                            }
+                        }
+                    }
+                    soldSeats.addAndGet(sold);
+                    revenue.addAndGet(total);
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            if (voyage.getSoldSeatCount() != soldSeats.get() || countSold(voyage) != soldSeats.get()
+                    || voyage.getRevenueUnits() != revenue.get()) {
+                throw new IllegalStateException("Voyage has " + voyage.getSoldSeatCount() + " sold seats and revenue of "
+                        + voyage.getRevenueUnits() + ", expected " + soldSeats.get() + " sold seats and " + revenue.get());
+            }
+            return (long) operationsPerThread * threads;
+        });
+    }
+
+    private static int countSold(Bus voyage) {
+        int count = 0;
+        for (int seat = voyage.nextSoldSeat(1); seat != -1; seat = voyage.nextSoldSeat(seat + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Sales and refunds of single seats on a premium voyage with fares that are not whole kurus, see
+     * {@link BookingChecks#moneyReplay(int)}, which fails the benchmark if the revenue drifts.
+     */
+    private static void moneyReplay(BenchmarkRunner runner) {
+        String name = "money/replay/" + MONEY_OPERATIONS;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        runner.run(name, () -> BookingChecks.moneyReplay(MONEY_OPERATIONS));
+    }
+
+    /**
+     * Sales and refunds of single seats through a journaled service, by one or more threads that work on voyages of their own.
+     * With a sync batch size of 1, concurrent threads share their fsyncs through group commit.
+     */
+    private static void journalAppend(BenchmarkRunner runner, int syncBatchSize, int threads) throws IOException {
+        String name = "journal/append/" + syncBatchSize + "/" + threads;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        Path path = Files.createTempFile("journal", ".bin");
+        Files.delete(path);
+        BookingService service = new BookingService();
+        service.setJournal(BookingJournal.open(path, syncBatchSize, service));
+        int operationsPerThread = syncBatchSize == 1 ? 100 : 10_000;
+        for (int id = 1; id <= threads; id++) {
+            service.addVoyage(new ObjectBus(SeatLayout.STANDARD, id, "Ankara", "Istanbul", 10, 25.5, 10, 0));
+        }
+        try {
+            runner.run(name, () -> {
+                List<Thread> workers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int id = t + 1;
+                    Thread worker = runner.threadFactory().newThread(() -> {
+                        for (int i = 0; i < operationsPerThread; i++) {
+                            int seat = 1 + (i / 2) % 40;
+                            if (i % 2 == 0) {
+                                service.sellSeats(id, seat);
+                            } else {
+                                service.refundSeats(id, seat);
+                            }
+                        }
+                    });
+                    worker.start();
+                    workers.add(worker);
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                return (long) operationsPerThread * threads;
+            });
+        } finally {
+            service.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Recovery of a registry from a journal of 10M records: 1000 voyage initializations followed by sales and refunds.
+     * The journal is written once, every run opens it into a new service.
+     */
+    private static void journalRecover(BenchmarkRunner runner) throws IOException {
+        String name = "journal/recover/" + RECOVERY_RECORDS;
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        Path path = Files.createTempFile("journal", ".bin");
+        Files.delete(path);
+        try {
+            BookingService writer = new BookingService();
+            writer.setJournal(BookingJournal.open(path, 0, writer));
+            int voyages = 1000;
+            for (int id = 1; id <= voyages; id++) {
+                writer.addVoyage(new ObjectBus(SeatLayout.PREMIUM, id, "Ankara", "Istanbul", 20, 25.5, 10, 15));
+            }
+            for (int i = voyages; i < RECOVERY_RECORDS; i++) {
+                int id = 1 + i % voyages;
+                int seat = 1 + (i / voyages) % 60;
+                if (writer.getVoyage(id).isSeatSold(seat)) {
+                    writer.refundSeats(id, seat);
+                } else {
+                    writer.sellSeats(id, seat);
+                }
+            }
+            writer.close();
+            System.out.println("# journal of " + RECOVERY_RECORDS + " records, " + Files.size(path) / (1024 * 1024) + " MB");
+            runner.run(name, () -> {
+                BookingService service = new BookingService();
+                BookingJournal journal = BookingJournal.open(path, 0, service);
+                journal.close();
+                if (journal.getRecoveredRecords() != RECOVERY_RECORDS || service.size() != voyages) {
+                    throw new IllegalStateException("Recovered " + journal.getRecoveredRecords() + " records");
+                }
+                return RECOVERY_RECORDS;
+            });
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Cold start of a registry that is the result of a generated command file: replaying the command file as text, replaying
+     * the whole journal of it, and loading a snapshot taken before the last 1% of the commands plus replaying the journal tail.
+     * The heap that the recovered registry retains is printed once per variant.
+     */
+    private static void coldStart(BenchmarkRunner runner) throws IOException {
+        String prefix = "coldstart/";
+        if (!runner.isSelected(prefix + "text/" + COLD_START_LINES) && !runner.isSelected(prefix + "journal/" + COLD_START_LINES)
+                && !runner.isSelected(prefix + "snapshot/" + COLD_START_LINES)) {
+            return;
+        }
+        Path directory = Files.createTempDirectory("coldstart");
+        Path input = directory.resolve("commands.txt");
+        Path fullJournal = directory.resolve("full.bin");
+        Path compactedJournal = directory.resolve("compacted.bin");
+        try {
+            new CommandFileGenerator(1, 1000, 20).write(input.toString(), COLD_START_LINES);
+            BookingService full = new BookingService();
+            full.setJournal(BookingJournal.open(fullJournal, 0, full));
+            BookingService compacted = new BookingService();
+            compacted.setJournal(BookingJournal.open(compactedJournal, 0, compacted));
+            BookingSystem fullSystem = newBookingSystem(full);
+            BookingSystem compactedSystem = newBookingSystem(compacted);
+            long[] lines = {0};
+            FileInput.readLines(input.toString(), true, false, line -> {
+                fullSystem.executeCommand(line);
+                compactedSystem.executeCommand(line);
+                if (++lines[0] == COLD_START_LINES * 99L / 100) {
+                    try {
+                        compacted.getJournal().checkpoint(compacted);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            full.close();
+            compacted.close();
+            System.out.println("# " + COLD_START_LINES + " commands: text " + Files.size(input) / 1024 + " KB, journal "
+                    + Files.size(fullJournal) / 1024 + " KB, snapshot " + Files.size(BookingJournal.snapshotPath(compactedJournal)) / 1024
+                    + " KB + journal tail " + Files.size(compactedJournal) / 1024 + " KB");
+
+            coldStartVariant(runner, prefix + "text/" + COLD_START_LINES, () -> {
+                BookingService service = new BookingService();
+                FileInput.readLines(input.toString(), true, false, newBookingSystem(service)::executeCommand);
+                return service;
+            });
+            coldStartVariant(runner, prefix + "journal/" + COLD_START_LINES, () -> {
+                BookingService service = new BookingService();
+                BookingJournal.open(fullJournal, 0, service).close();
+                return service;
+            });
+            coldStartVariant(runner, prefix + "snapshot/" + COLD_START_LINES, () -> {
+                BookingService service = new BookingService();
+                BookingJournal.open(compactedJournal, 0, service).close();
+                return service;
+            });
+        } finally {
+            for (Path path : new Path[]{input, fullJournal, compactedJournal, BookingJournal.snapshotPath(fullJournal), BookingJournal.snapshotPath(compactedJournal)}) {
+                Files.deleteIfExists(path);
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private interface Recovery {
+        BookingService recover() throws IOException;
+    }
+
+    private static void coldStartVariant(BenchmarkRunner runner, String name, Recovery recovery) throws IOException {
+        if (!runner.isSelected(name)) {
+            return;
+        }
+        runner.run(name, () -> {
+            recovery.recover();
+            return 1;
+        });
+        BookingService service = recovery.recover();
+        int voyages = service.size();
+        long withService = usedHeapAfterGc();
+        Reference.reachabilityFence(service);
+        service = null;
+        long retained = withService - usedHeapAfterGc();
+        System.out.println("# " + name + ": " + voyages + " voyages, about " + retained / 1024 + " KB retained");
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Searches for the voyages of a random route with at least 20 empty seats among 1M voyages on the routes between 100 cities,
+     * about 100 voyages per route. The route index is compared with a scan of all voyages, which is how it used to be done,
+     * and the SEARCH command measures the index together with parsing and formatting.
+     */
+    private static void search(BenchmarkRunner runner) {
+        String prefix = "search/";
+        if (!runner.isSelected(prefix + "index/" + SEARCH_VOYAGES) && !runner.isSelected(prefix + "scan/" + SEARCH_VOYAGES)
+                && !runner.isSelected(prefix + "command/" + SEARCH_VOYAGES)) {
+            return;
+        }
+        String[] cities = new String[SEARCH_CITIES];
+        for (int i = 0; i < SEARCH_CITIES; i++) {
+            cities[i] = "City" + i;
+        }
+        BookingService service = new BookingService();
+        Random random = new Random(1);
+        int[][] soldSeats = new int[41][];
+        for (int count = 0; count <= 40; count++) {
+            soldSeats[count] = new int[count];
+            for (int i = 0; i < count; i++) {
+                soldSeats[count][i] = i + 1;
+            }
+        }
+        for (int id = 1; id <= SEARCH_VOYAGES; id++) {
+            int from = random.nextInt(SEARCH_CITIES);
+            int to = (from + 1 + random.nextInt(SEARCH_CITIES - 1)) % SEARCH_CITIES;
+            service.addVoyage(new ObjectBus(SeatLayout.STANDARD, id, cities[from], cities[to], 10, 25.5, 10, 0));
+            service.sellSeats(id, soldSeats[random.nextInt(41)]);
+        }
+        int minFreeSeats = 20;
+        int[] next = {0};
+        runner.run(prefix + "index/" + SEARCH_VOYAGES, () -> {
+            int route = next[0]++;
+            service.searchVoyages(cities[route % SEARCH_CITIES], cities[(route / SEARCH_CITIES + 1 + route) % SEARCH_CITIES], minFreeSeats);
+            return 1;
+        });
+        runner.run(prefix + "scan/" + SEARCH_VOYAGES, () -> {
+            int route = next[0]++;
+            String from = cities[route % SEARCH_CITIES];
+            String to = cities[(route / SEARCH_CITIES + 1 + route) % SEARCH_CITIES];
+            List<Bus> found = new ArrayList<>();
+            for (int id = 1; id <= SEARCH_VOYAGES; id++) {
+                Bus bus = service.getVoyage(id);
+                if (bus != null && bus.getFrom().equals(from) && bus.getTo().equals(to) && bus.getFreeSeatCount() >= minFreeSeats) {
+                    found.add(bus);
+                }
+            }
+            return 1;
+        });
+        BookingSystem bookingSystem = newBookingSystem(service);
+        String[] commands = new String[SEARCH_CITIES * SEARCH_CITIES];
+        for (int route = 0; route < commands.length; route++) {
+            commands[route] = "SEARCH\t" + cities[route % SEARCH_CITIES] + "\t" + cities[(route / SEARCH_CITIES + 1 + route) % SEARCH_CITIES] + "\t" + minFreeSeats;
+        }
+        runner.run(prefix + "command/" + SEARCH_VOYAGES, () -> {
+            bookingSystem.executeCommand(commands[next[0]++ % commands.length]);
+            return 1;
+        });
+    }
+
+    /**
+     * Looks up random voyages among 1M in the voyage registry, once with the IDs 1 to 1M, which are kept in its pages, and once
+     * with random IDs, which are kept in its hash table, and in the concurrent hash map with a skip list for the ID order that
+     * the booking service used before. The lookups of the misses use IDs that are not registered, the visits go through all
+     * voyages in ID order. The heap that every variant retains on top of the voyages themselves is printed as well.
+     */
+    private static void registry(BenchmarkRunner runner) {
+        String prefix = "registry/";
+        String[] variants = {"dense", "sparse", "map"};
+        boolean selected = false;
+        for (String variant : variants) {
+            for (String operation : new String[]{"lookup/", "miss/", "visit/"}) {
+                selected |= runner.isSelected(prefix + operation + variant + "/" + REGISTRY_VOYAGES);
+            }
+        }
+        if (!selected) {
+            return;
+        }
+        Random random = new Random(1);
+        Bus[] buses = new Bus[REGISTRY_VOYAGES];
+        for (int i = 0; i < REGISTRY_VOYAGES; i++) {
+            buses[i] = new ObjectBus(SeatLayout.STANDARD, i + 1, "Ankara", "Istanbul", 1, 25.5, 10, 0);
+        }
+        int[] sparseIds = new int[REGISTRY_VOYAGES];
+        for (int i = 0; i < REGISTRY_VOYAGES; i++) {
+            sparseIds[i] = random.nextInt(Integer.MAX_VALUE - 1) + 1; // Rarely twice the same, putIfAbsent keeps the first
+        }
+        int[] order = new int[1 << 20]; // Indexes of the voyages in the order they are looked up
+        for (int i = 0; i < order.length; i++) {
+            order[i] = random.nextInt(REGISTRY_VOYAGES);
+        }
+        for (String variant : variants) {
+            boolean sparse = variant.equals("sparse");
+            long before = usedHeapAfterGc();
+            VoyageRegistry registry = variant.equals("map") ? null : new VoyageRegistry();
+            ConcurrentHashMap<Integer, Bus> map = registry == null ? new ConcurrentHashMap<>() : null;
+            ConcurrentSkipListMap<Integer, Bus> mapById = registry == null ? new ConcurrentSkipListMap<>() : null;
+            for (int i = 0; i < REGISTRY_VOYAGES; i++) {
+                int id = sparse ? sparseIds[i] : i + 1;
+                if (registry != null) {
+                    registry.putIfAbsent(id, buses[i]);
+                } else if (map.putIfAbsent(id, buses[i]) == null) {
+                    mapById.put(id, buses[i]);
+                }
+            }
+            long retained = usedHeapAfterGc() - before;
+            System.out.println("# " + prefix + variant + "/" + REGISTRY_VOYAGES + ": about " + retained / REGISTRY_VOYAGES
+                    + " bytes per voyage retained by the registry");
+            int[] ids = new int[order.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = sparse ? sparseIds[order[i]] : order[i] + 1;
+            }
+            int[] next = {0};
+            long[] found = {0};
+            runner.run(prefix + "lookup/" + variant + "/" + REGISTRY_VOYAGES, () -> {
+                int id = ids[next[0]++ & (ids.length - 1)];
+                found[0] += (registry != null ? registry.get(id) : map.get(id)) != null ? 1 : 0;
+                return 1;
+            });
+            runner.run(prefix + "miss/" + variant + "/" + REGISTRY_VOYAGES, () -> {
+                int id = -ids[next[0]++ & (ids.length - 1)]; // Negative IDs are never registered
+                found[0] += (registry != null ? registry.get(id) : map.get(id)) != null ? 1 : 0;
+                return 1;
+            });
+            runner.run(prefix + "visit/" + variant + "/" + REGISTRY_VOYAGES, () -> {
+                int[] count = {0};
+                if (registry != null) {
+                    registry.forEach(bus -> count[0]++);
+                } else {
+                    for (Bus bus : mapById.values()) {
+                        count[0]++;
+                    }
+                }
+                return count[0];
+            });
+            if (found[0] < 0) {
+                System.out.println(found[0]);
+            }
+            Reference.reachabilityFence(registry);
+            Reference.reachabilityFence(mapById);
+        }
+    }
+
+    /**
+     * Builds 1M voyages of mixed types and sizes with some sold seats, once as objects and once in a {@link VoyageColumns}
+     * store, and compares the heap that the voyages retain, the pause of a full collection of that heap, and the time spent
+     * in the garbage collector while seats are sold and refunded on random voyages and while Z reports are rendered.
+     */
+    private static void store(BenchmarkRunner runner, boolean columnar) {
+        String prefix = "store/" + (columnar ? "columnar" : "objects") + "/";
+        String sellName = prefix + "sell/" + STORE_VOYAGES;
+        String reportName = prefix + "zreport/" + STORE_VOYAGES;
+        if (!runner.isSelected(sellName) && !runner.isSelected(reportName)) {
+            return;
+        }
+        long before = usedHeapAfterGc();
+        BookingService service = new BookingService();
+        if (columnar) {
+            service.setVoyageColumns(new VoyageColumns());
+        }
+        Random random = new Random(1);
+        for (int id = 1; id <= STORE_VOYAGES; id++) {
+            SeatLayout layout = SeatLayout.forName(TYPES[random.nextInt(TYPES.length)]);
+            Bus bus = service.newVoyage(layout, id, "City" + random.nextInt(100), "City" + random.nextInt(100),
+                    1 + random.nextInt(20), 20 + random.nextInt(4) * 2.5, 10, 15);
+            service.addVoyage(bus);
+            for (int seat = 1; seat <= bus.getTotalSeats(); seat += 1 + random.nextInt(4)) {
+                bus.sellSeats(seat);
+            }
+        }
+        long retained = usedHeapAfterGc() - before;
+        long pauseStart = System.nanoTime();
+        System.gc();
+        long fullGcMillis = (System.nanoTime() - pauseStart) / 1_000_000;
+        System.out.println("# " + prefix + STORE_VOYAGES + ": about " + retained / STORE_VOYAGES + " bytes per voyage retained, "
+                + "full GC " + fullGcMillis + " ms");
+
+        long gcStart = gcMillis();
+        int[] seat = {0};
+        runner.run(sellName, () -> {
+            Bus bus = service.getVoyage(1 + ThreadLocalRandom.current().nextInt(STORE_VOYAGES));
+            int seatNumber = 1 + (seat[0]++ % bus.getTotalSeats());
+            if (!bus.sellSeats(seatNumber)) {
+                bus.refundSeats(seatNumber);
+            }
+            return 1;
+        });
+        System.out.println("# " + sellName + ": " + (gcMillis() - gcStart) + " ms in GC");
+
+        BookingSystem bookingSystem = newBookingSystem(service);
+        gcStart = gcMillis();
+        runner.run(reportName, () -> {
+            bookingSystem.printZReport();
+            return STORE_VOYAGES;
+        });
+        System.out.println("# " + reportName + ": " + (gcMillis() - gcStart) + " ms in GC");
+    }
+
+    /**
+     * @return Total time that the garbage collectors have spent collecting so far, in milliseconds.
+     */
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Builds an inventory of 50M seats, 125000 voyages of 100 rows with every other seat sold, once with the seats on the heap
+     * and once in an {@link OffHeapSeatInventory}, and compares the heap that the voyages retain, the pause of a full
+     * collection, the speed of sales and refunds on random seats, and cancelling voyages and initializing them again, which
+     * releases and reuses their off-heap seats.
+     */
+    private static void seatInventory(BenchmarkRunner runner, boolean offHeap) {
+        String prefix = "seats/" + (offHeap ? "offheap" : "heap") + "/";
+        String sellName = prefix + "sell/" + INVENTORY_SEATS;
+        String cancelName = prefix + "cancel/" + INVENTORY_SEATS;
+        if (!runner.isSelected(sellName) && !runner.isSelected(cancelName)) {
+            return;
+        }
+        int rows = 100;
+        int voyages = (int) (INVENTORY_SEATS / (rows * SeatLayout.STANDARD.getSeatsPerRow()));
+        long before = usedHeapAfterGc();
+        BookingService service = new BookingService();
+        OffHeapSeatInventory inventory = offHeap ? new OffHeapSeatInventory() : null;
+        service.setSeatInventory(inventory);
+        int[] soldSeats = everyOtherSeat(rows * SeatLayout.STANDARD.getSeatsPerRow());
+        for (int id = 1; id <= voyages; id++) {
+            Bus bus = service.newVoyage(SeatLayout.STANDARD, id, "Ankara", "Istanbul", rows, 25.5, 10, 0);
+            service.addVoyage(bus);
+            bus.sellSeats(soldSeats);
+        }
+        long retained = usedHeapAfterGc() - before;
+        long pauseNanos = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            System.gc();
+            pauseNanos = Math.min(pauseNanos, System.nanoTime() - start);
+        }
+        System.out.println("# " + prefix + INVENTORY_SEATS + ": " + voyages + " voyages, about " + retained / 1024 + " KB of heap retained, "
+                + "full GC " + pauseNanos / 1_000_000 + " ms" + (offHeap ? ", " + inventory.getAllocatedBytes() / 1024 + " KB off heap" : ""));
+
+        int seatCount = rows * SeatLayout.STANDARD.getSeatsPerRow();
+        runner.run(sellName, () -> {
+            Bus bus = service.getVoyage(1 + ThreadLocalRandom.current().nextInt(voyages));
+            int seatNumber = 1 + ThreadLocalRandom.current().nextInt(seatCount);
+            if (!bus.sellSeats(seatNumber)) {
+                bus.refundSeats(seatNumber);
+            }
+            return 1;
+        });
+        runner.run(cancelName, () -> {
+            int id = 1 + ThreadLocalRandom.current().nextInt(voyages);
+            service.cancelVoyage(id);
+            Bus bus = service.newVoyage(SeatLayout.STANDARD, id, "Ankara", "Istanbul", rows, 25.5, 10, 0);
+            service.addVoyage(bus);
+            bus.sellSeats(soldSeats);
+            return 1;
+        });
+        if (offHeap) {
+            System.out.println("# " + cancelName + ": " + inventory.getAllocatedBytes() / 1024 + " KB off heap after the churn, "
+                    + inventory.getUsedBytes() / 1024 + " KB in use");
+        }
+    }
+}
@@ -0,0 +1,539 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/**
+ * Consistency checks of the booking system, for the guarantees that the benchmarks can only exercise but not enforce. Every
+ * check throws if it finds an inconsistency, the program prints the outcome of every check and exits with status 1 if any of
+ * them has failed, so it can gate a build.
+ * <p>
+ * Usage: {@code java -cp out BookingChecks [name filter]}, for example {@code java -cp out BookingChecks "^voyage/"}.
+ */
+public class BookingChecks {
+    private static final int[] VOYAGE_RACE_THREADS = {2, 16};
+    private static final int VOYAGE_RACE_OPERATIONS = 2_000_000;
+    private static final int CHURN_VOYAGES = 64;
+    private static final int CHURN_OPERATIONS = 2_000_000;
+    private static final SeatLayout[] LAYOUTS = {SeatLayout.STANDARD, SeatLayout.PREMIUM, SeatLayout.MINIBUS};
+    private static final String[] CITIES = {"Ankara", "Istanbul", "Izmir", "Bursa", "Antalya", "Konya", "Adana", "Trabzon"};
+    private static final int MONEY_OPERATIONS = 10_000_000;
+    private static final int[] HOLD_RACE_THREADS = {2, 16};
+    private static final int HOLD_RACE_OPERATIONS = 1_000_000;
+    private static final int HOLD_REPLAY_LINES = 200_000;
+
+    private final Pattern filter;
+    private int failures = 0;
+
+    /**
+     * Constructor for BookingChecks.
+     *
+     * @param args Command line arguments of the check program, the first one is an optional name filter.
+     */
+    public BookingChecks(String[] args) {
+        this.filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+    }
+
+    /**
+     * Check that is run, which throws if it finds an inconsistency.
+     */
+    public interface Check {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) {
+        BookingChecks checks = new BookingChecks(args);
+        for (int threads : VOYAGE_RACE_THREADS) {
+            checks.run("voyage/race/" + threads, () -> voyageRace(threads, VOYAGE_RACE_OPERATIONS, false));
+        }
+        for (int threads : VOYAGE_RACE_THREADS) {
+            checks.run("voyage/race/lockFree/" + threads, () -> voyageRace(threads, VOYAGE_RACE_OPERATIONS, true));
+        }
+        for (int threads : VOYAGE_RACE_THREADS) {
+            checks.run("voyage/race/best/" + threads, () -> bestSeatsRace(threads, VOYAGE_RACE_OPERATIONS));
+        }
+        checks.run("voyage/columns/churn/" + CHURN_OPERATIONS, () -> columnsChurn(CHURN_VOYAGES, CHURN_OPERATIONS));
+        checks.run("money/replay/" + MONEY_OPERATIONS, () -> moneyReplay(MONEY_OPERATIONS));
+        for (int threads : HOLD_RACE_THREADS) {
+            checks.run("hold/race/" + threads, () -> holdRace(threads, HOLD_RACE_OPERATIONS, Thread::new));
+        }
+        checks.run("hold/replay/" + HOLD_REPLAY_LINES, () -> holdReplay(HOLD_REPLAY_LINES));
+        if (checks.failures > 0) {
+            System.out.println(checks.failures + " checks failed");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs a check if it is selected and prints its outcome.
+     *
+     * @param name  Name of the check.
+     * @param check Check to run.
+     */
+    public void run(String name, Check check) {
+        if (!filter.matcher(name).find()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            check.run();
+            System.out.println(String.format(Locale.US, "%-48s passed in %.3f s", name, (System.nanoTime() - start) / 1e9));
+        } catch (Exception | AssertionError e) {
+            failures++;
+            System.out.println(name + " failed: " + e);
+        }
+    }
+
+    /**
+     * Sales and refunds of one to four seats at a time by many threads on a single voyage. The seats of a request are spread
+     * over the whole voyage, so requests overlap and span several seat words, and refunds mostly pick sold seats, so that
+     * both succeed and fail often. Every thread counts, per seat, its successful sales minus its successful refunds. After the
+     * threads are done, the sum of the counts of every seat must be 1 if the seat is sold and 0 otherwise: 2 means the seat
+     * has been sold twice, -1 that a seat has been refunded that was not sold. The sold count and the revenue of the voyage
+     * must match the successful operations as well. With lock-free seats, the requests within one seat word are claimed
+     * without the monitor while the others close the gate, so both paths race with each other.
+     *
+     * @param threads    Number of threads.
+     * @param operations Total number of operations, split among the threads.
+     * @param lockFree   true to sell and refund the seats without the voyage's monitor, see {@link BookingService#setLockFreeSeats(boolean)}.
+     * @return Number of operations.
+     */
+    static long voyageRace(int threads, int operations, boolean lockFree) throws InterruptedException {
+        BookingService service = new BookingService();
+        service.setLockFreeSeats(lockFree);
+        Bus voyage = service.newVoyage(SeatLayout.PREMIUM, 1, "Ankara", "Istanbul", 64, 19.99, 10, 25); // 3 seat words
+        service.addVoyage(voyage);
+        FareTable fares = voyage.getFareTable();
+        int totalSeats = voyage.getTotalSeats();
+        int operationsPerThread = operations / threads;
+        int[][] netSales = new int[threads][totalSeats + 1];
+        AtomicLong revenue = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int[] sales = netSales[t];
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long total = 0;
+                for (int i = 0; i < operationsPerThread; i++) {
+                    boolean sale = random.nextBoolean();
+                    int[] seatNumbers = new int[1 + random.nextInt(4)];
+                    for (int j = 0; j < seatNumbers.length; j++) {
+                        int seat;
+                        do {
+                            seat = 1 + random.nextInt(totalSeats);
+                            if (!sale && random.nextInt(4) != 0) { // Mostly a sold seat, with a chance to fail on an empty one
+                                int sold = voyage.nextSoldSeat(seat);
+                                seat = sold != -1 ? sold : seat;
+                            }
+                        } while (contains(seatNumbers, j, seat));
+                        seatNumbers[j] = seat;
+                    }
+                    if (sale && service.sellSeats(voyage, seatNumbers)) {
+                        total += fares.saleTotal(seatNumbers);
+                        for (int seat : seatNumbers) {
+                            sales[seat]++;
+                        }
+                    } else if (!sale && service.refundSeats(voyage, seatNumbers)) {
+                        total -= fares.refundTotal(seatNumbers);
+                        for (int seat : seatNumbers) {
+                            sales[seat]--;
+                        }
+                    }
+                }
+                revenue.addAndGet(total);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        int soldSeats = 0;
+        for (int seat = 1; seat <= totalSeats; seat++) {
+            int net = 0;
+            for (int[] sales : netSales) {
+                net += sales[seat];
+            }
+            if (net != (voyage.isSeatSold(seat) ? 1 : 0)) {
+                throw new IllegalStateException("Seat " + seat + " has been sold " + net + " times more than refunded, but it is "
+                        + (voyage.isSeatSold(seat) ? "sold" : "empty"));
+            }
+            soldSeats += net;
+        }
+        if (voyage.getSoldSeatCount() != soldSeats || voyage.getRevenueUnits() != revenue.get()) {
+            throw new IllegalStateException("Voyage has " + voyage.getSoldSeatCount() + " sold seats and revenue of "
+                    + voyage.getRevenueUnits() + ", expected " + soldSeats + " sold seats and " + revenue.get());
+        }
+        return (long) operationsPerThread * threads;
+    }
+
+    /**
+     * Sales of the best seats by many threads on a small minibus voyage, while the same threads sell and refund single seats
+     * without the monitor. The voyage is full most of the time, so the lock-free sales often take the last empty seats while
+     * the best seats are searched. The best seats must not throw, and the sold seats and the revenue must match the
+     * successful operations as in {@link #voyageRace(int, int, boolean)}.
+     *
+     * @param threads    Number of threads.
+     * @param operations Total number of operations, split among the threads.
+     * @return Number of operations.
+     */
+    static long bestSeatsRace(int threads, int operations) throws InterruptedException {
+        BookingService service = new BookingService();
+        service.setLockFreeSeats(true);
+        Bus voyage = service.newVoyage(SeatLayout.MINIBUS, 1, "Ankara", "Istanbul", 4, 19.99, 0, 0); // 8 seats
+        service.addVoyage(voyage);
+        FareTable fares = voyage.getFareTable();
+        int totalSeats = voyage.getTotalSeats();
+        int operationsPerThread = operations / threads;
+        int[][] netSales = new int[threads][totalSeats + 1];
+        AtomicLong revenue = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int[] sales = netSales[t];
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long total = 0;
+                for (int i = 0; i < operationsPerThread; i++) {
+                    int[] seatNumbers = {1 + random.nextInt(totalSeats)};
+                    int operation = random.nextInt(4);
+                    if (operation == 0) {
+                        int[] best = service.sellBestSeats(voyage, 1 + random.nextInt(2), -1);
+                        if (best != null) {
+                            total += fares.saleTotal(best);
+                            for (int seat : best) {
+                                sales[seat]++;
+                            }
+                        }
+                    } else if (operation == 1 && service.sellSeats(voyage, seatNumbers)) {
+                        total += fares.saleTotal(seatNumbers);
+                        sales[seatNumbers[0]]++;
+                    } else if (operation >= 2 && random.nextInt(4) == 0 && service.refundSeats(voyage, seatNumbers)) {
+                        total -= fares.refundTotal(seatNumbers);
+                        sales[seatNumbers[0]]--;
+                    }
+                }
+                revenue.addAndGet(total);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        int soldSeats = 0;
+        for (int seat = 1; seat <= totalSeats; seat++) {
+            int net = 0;
+            for (int[] sales : netSales) {
+                net += sales[seat];
+            }
+            if (net != (voyage.isSeatSold(seat) ? 1 : 0)) {
+                throw new IllegalStateException("Seat " + seat + " has been sold " + net + " times more than refunded, but it is "
+                        + (voyage.isSeatSold(seat) ? "sold" : "empty"));
+            }
+            soldSeats += net;
+        }
+        if (voyage.getSoldSeatCount() != soldSeats || voyage.getRevenueUnits() != revenue.get()) {
+            throw new IllegalStateException("Voyage has " + voyage.getSoldSeatCount() + " sold seats and revenue of "
+                    + voyage.getRevenueUnits() + ", expected " + soldSeats + " sold seats and " + revenue.get());
+        }
+        return (long) operationsPerThread * threads;
+    }
+
+    /**
+     * A voyage that has been cancelled, as it was at the time.
+     */
+    private static final class CancelledVoyage {
+        private final Bus voyage;
+        private final int id;
+        private final String from;
+        private final String to;
+        private final int soldSeats;
+        private final long revenue;
+
+        private CancelledVoyage(Bus voyage) {
+            this.voyage = voyage;
+            this.id = voyage.getId();
+            this.from = voyage.getFrom();
+            this.to = voyage.getTo();
+            this.soldSeats = voyage.getSoldSeatCount();
+            this.revenue = voyage.getRevenueUnits();
+        }
+
+        private void check() {
+            if (voyage.getId() != id || !voyage.getFrom().equals(from) || !voyage.getTo().equals(to)
+                    || voyage.getSoldSeatCount() != soldSeats || voyage.getRevenueUnits() != revenue) {
+                throw new IllegalStateException("Cancelled voyage " + id + " from " + from + " to " + to + " with " + soldSeats
+                        + " sold seats and revenue of " + revenue + " has become voyage " + voyage.getId() + " from "
+                        + voyage.getFrom() + " to " + voyage.getTo() + " with " + voyage.getSoldSeatCount()
+                        + " sold seats and revenue of " + voyage.getRevenueUnits());
+            }
+        }
+    }
+
+    /**
+     * Initializes, sells seats of and cancels the voyages of a columnar store over and over, so that the slots and the seat
+     * words of the cancelled voyages are reused all the time, while another thread keeps reading the views of the recently
+     * cancelled voyages. The check fails if a new voyage starts with sold seats or revenue, if the view of a cancelled voyage
+     * changes, or if the store grows beyond the voyages that exist at the same time.
+     *
+     * @param voyages    Number of voyage IDs used.
+     * @param operations Number of operations.
+     * @return Number of operations.
+     */
+    static long columnsChurn(int voyages, int operations) throws InterruptedException {
+        BookingService service = new BookingService();
+        VoyageColumns columns = new VoyageColumns();
+        service.setVoyageColumns(columns);
+        AtomicReferenceArray<CancelledVoyage> cancelled = new AtomicReferenceArray<>(16);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                while (!done.get()) {
+                    CancelledVoyage voyage = cancelled.get(random.nextInt(cancelled.length()));
+                    if (voyage != null) {
+                        voyage.check();
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        reader.start();
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < operations && failure.get() == null; i++) {
+                int id = 1 + random.nextInt(voyages);
+                Bus voyage = service.getVoyage(id);
+                if (voyage == null) {
+                    SeatLayout layout = LAYOUTS[random.nextInt(LAYOUTS.length)];
+                    voyage = service.newVoyage(layout, id, CITIES[random.nextInt(CITIES.length)],
+                            CITIES[random.nextInt(CITIES.length)], 1 + random.nextInt(40), 10 + random.nextInt(90), 10, 25);
+                    if (voyage.getSoldSeatCount() != 0 || voyage.getRevenueUnits() != 0) {
+                        throw new IllegalStateException("New voyage " + id + " starts with " + voyage.getSoldSeatCount()
+                                + " sold seats and revenue of " + voyage.getRevenueUnits());
+                    }
+                    service.addVoyage(voyage);
+                } else if (random.nextInt(8) == 0) {
+                    CancelledVoyage before = new CancelledVoyage(voyage);
+                    service.cancelVoyage(id);
+                    before.check();
+                    cancelled.set(random.nextInt(cancelled.length()), before);
+                } else {
+                    service.sellSeats(voyage, 1 + random.nextInt(voyage.getTotalSeats()));
+                }
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        if (columns.getSlotCount() > voyages || columns.getWordPageCount() > 1 || columns.size() != service.size()) {
+            throw new IllegalStateException("Store of " + service.size() + " voyages has " + columns.size() + " voyages in "
+                    + columns.getSlotCount() + " slots and " + columns.getWordPageCount() + " word pages");
+        }
+        return operations;
+    }
+
+    /**
+     * Threads that hold, confirm, release and refund random seats of one voyage at the same time, while a manual clock moves
+     * forward so that some holds expire in between. Every hold is offered to two threads, which race to confirm or release
+     * it. The check fails if a hold is resolved twice, or if after the last expiry a seat is still held, the sold seats are not
+     * the confirmed minus the refunded seats, or the revenue does not match them.
+     *
+     * @param threads       Number of threads.
+     * @param operations    Total number of operations, split among the threads.
+     * @param threadFactory Factory of the threads.
+     * @return Number of operations.
+     */
+    static long holdRace(int threads, int operations, ThreadFactory threadFactory) throws InterruptedException {
+        int rows = 250;
+        int operationsPerThread = operations / threads;
+        AtomicLong now = new AtomicLong();
+        BookingService service = new BookingService();
+        service.setClock(now::get);
+        Bus voyage = new ObjectBus(SeatLayout.STANDARD, 1, "Ankara", "Istanbul", rows, 25.5, 10, 0);
+        service.addVoyage(voyage);
+        FareTable fares = voyage.getFareTable();
+        AtomicReferenceArray<SeatHold> offered = new AtomicReferenceArray<>(16);
+        ConcurrentHashMap<Long, Boolean> resolved = new ConcurrentHashMap<>();
+        AtomicLong soldSeats = new AtomicLong();
+        AtomicLong revenue = new AtomicLong();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = threadFactory.newThread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < operationsPerThread; i++) {
+                    now.addAndGet(1_000_000L); // 1 ms per operation, holds live for up to 200 ms
+                    int operation = random.nextInt(10);
+                    if (operation < 4) {
+                        int seat = 1 + random.nextInt(voyage.getTotalSeats() - 1);
+                        SeatHold hold = service.holdSeats(voyage, new int[]{seat, seat + 1}, (1 + random.nextInt(200)) * 1_000_000L);
+                        if (hold != null) {
+                            offered.set(random.nextInt(offered.length()), hold); // Read by up to two racing threads
+                            offered.set(random.nextInt(offered.length()), hold);
+                        }
+                    } else if (operation < 9) {
+                        SeatHold hold = offered.getAndSet(random.nextInt(offered.length()), null);
+                        if (hold != null && (operation < 7 ? service.confirmHold(hold) : service.releaseHold(hold))) {
+                            if (resolved.putIfAbsent(hold.getId(), Boolean.TRUE) != null) {
+                                failure.compareAndSet(null, new IllegalStateException("Hold " + hold.getId() + " is resolved twice"));
+                            }
+                            if (operation < 7) {
+                                soldSeats.addAndGet(hold.getSeatNumbers().length);
+                                revenue.addAndGet(fares.saleTotal(hold.getSeatNumbers()));
+                            }
+                        }
+                    } else {
+                        int seat = 1 + random.nextInt(voyage.getTotalSeats());
+                        if (service.refundSeats(voyage, seat)) {
+                            soldSeats.decrementAndGet();
+                            revenue.addAndGet(-fares.getRefundAmount(seat));
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        now.addAndGet(1_000_000_000L);
+        service.expireHolds();
+        if (service.getHoldCount() != 0 || voyage.getHeldSeatCount() != 0 || voyage.getSoldSeatCount() != soldSeats.get()
+                || voyage.getFreeSeatCount() != voyage.getTotalSeats() - soldSeats.get() || voyage.getRevenueUnits() != revenue.get()) {
+            throw new IllegalStateException("Voyage has " + voyage.getHeldSeatCount() + " held and " + voyage.getSoldSeatCount()
+                    + " sold seats and revenue of " + voyage.getRevenueUnits() + ", expected " + soldSeats.get() + " sold seats and " + revenue.get());
+        }
+        return (long) operationsPerThread * threads;
+    }
+
+    /**
+     * Replays a generated command file with many holds through {@link BookingSystem#main(String[])} in every way that it can
+     * be executed: one command at a time, in parallel batches, in a pipeline, and converted to binary. Holds expire by the
+     * commands, so the logs must all be the same, and some holds must have been confirmed and some must have expired.
+     *
+     * @param lines Number of commands.
+     */
+    static void holdReplay(int lines) throws IOException {
+        Path directory = Files.createTempDirectory("holds");
+        try {
+            Path input = directory.resolve("holds.txt");
+            CommandFileGenerator generator = new CommandFileGenerator(1, 200, 20);
+            generator.setHoldPercent(30);
+            generator.write(input.toString(), lines);
+            Path binary = directory.resolve("holds.bin");
+            BinaryCommandFile.main(new String[]{input.toString(), binary.toString()});
+
+            String serial = replay(input, directory.resolve("serial.log"), null);
+            if (!serial.contains(" held for ") || !serial.contains(" has expired!") || !serial.contains(" released.")) {
+                throw new IllegalStateException("The replay has no holds that have been held, released and expired");
+            }
+            String[][] variants = {{"batch", "booking.parallelism", "4"}, {"pipeline", "booking.pipeline", "2"}, {"binary", null, null}};
+            for (String[] variant : variants) {
+                String log = replay(variant[1] != null ? input : binary, directory.resolve(variant[0] + ".log"), variant);
+                if (!log.equals(serial)) {
+                    throw new IllegalStateException("The " + variant[0] + " log differs from the serial log");
+                }
+            }
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Replays a command file through {@link BookingSystem#main(String[])}.
+     *
+     * @param input   Path of the command file.
+     * @param output  Path of the log.
+     * @param variant Name, system property and value of the way of executing the file, null to execute it one command at a time.
+     * @return The log.
+     */
+    private static String replay(Path input, Path output, String[] variant) throws IOException {
+        if (variant != null && variant[1] != null) {
+            System.setProperty(variant[1], variant[2]);
+        }
+        try {
+            BookingSystem.main(new String[]{input.toString(), output.toString()});
+        } finally {
+            if (variant != null && variant[1] != null) {
+                System.clearProperty(variant[1]);
+            }
+        }
+        return Files.readString(output);
+    }
+
+    /**
+     * Sales and refunds of single seats on a premium voyage with fares that are not whole kurus. The revenue is checked
+     * against the total computed independently in {@link BigDecimal} from the number of sales and refunds per seat class,
+     * both in fixed point and as printed, so that any drift fails the check.
+     *
+     * @param operations Number of sales and refunds.
+     * @return Number of operations.
+     */
+    static long moneyReplay(int operations) {
+        Bus bus = new ObjectBus(SeatLayout.PREMIUM, 1, "Ankara", "Istanbul", 100, 19.99, 10, 25);
+        FareTable fares = bus.getFareTable();
+        long[] sales = new long[2];
+        long[] refunds = new long[2];
+        for (int i = 0; i < operations; i++) {
+            int seat = 1 + (int) ((i * 7919L) % bus.getTotalSeats());
+            int seatClass = fares.getSeatClass(seat);
+            if (bus.isSeatSold(seat)) {
+                bus.refundSeats(seat);
+                refunds[seatClass]++;
+            } else {
+                bus.sellSeats(seat);
+                sales[seatClass]++;
+            }
+        }
+        BigDecimal expected = BigDecimal.ZERO;
+        for (int seatClass = 0; seatClass < SeatLayout.PREMIUM.getSeatClassCount(); seatClass++) {
+            boolean premium = SeatLayout.PREMIUM.getSeatClass(seatClass) == SeatLayout.PREMIUM_SEAT;
+            BigDecimal sale = new BigDecimal("19.99").multiply(BigDecimal.valueOf(premium ? 125 : 100)).movePointLeft(2);
+            BigDecimal refund = sale.multiply(BigDecimal.valueOf(90)).movePointLeft(2);
+            expected = expected.add(sale.multiply(BigDecimal.valueOf(sales[seatClass]))).subtract(refund.multiply(BigDecimal.valueOf(refunds[seatClass])));
+        }
+        StringBuilder printed = new StringBuilder();
+        Money.append(printed, bus.getRevenueUnits());
+        if (expected.movePointRight(6).longValueExact() != bus.getRevenueUnits()
+                || !expected.setScale(2, RoundingMode.HALF_UP).toPlainString().equals(printed.toString())) {
+            throw new IllegalStateException("Revenue " + printed + " does not match the exact total " + expected);
+        }
+        return operations;
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates command files for benchmarks and replay tests. The files start by initializing voyages of all three types and
+ * continue with a random mix of sales, refunds, prints, cancellations and re-initializations, with a Z report every few
+ * thousand commands. All commands are well-formed, but some of them fail, for example because a seat is already sold.
+ * Optionally, some of the commands hold seats and confirm or release recent holds, see {@link #setHoldPercent(int)}.
+ */
+public class CommandFileGenerator {
+    private static final String[] CITIES = {"Ankara", "Istanbul", "Izmir", "Bursa", "Antalya", "Konya", "Adana", "Trabzon"};
+    private static final String[] PRICES = {"50", "25.5", "12.75", "100", "33.33", "19.99"};
+
+    private final Random random;
+    private final int voyages;
+    private final int rows;
+    private int holdPercent = 0;
+    private int holdCommands = 0; // HOLD commands so far, an upper bound of the hold IDs
+    private int[] voyageRows; // Rows of every voyage as last initialized, for hold commands only
+
+    /**
+     * Constructor for CommandFileGenerator.
+     *
+     * @param seed    Seed of the random generator, the same seed generates the same commands.
+     * @param voyages Number of voyage IDs used, IDs are in range of [1, voyages].
+     * @param rows    Maximum number of seat rows of a voyage.
+     */
+    public CommandFileGenerator(long seed, int voyages, int rows) {
+        this.random = new Random(seed);
+        this.voyages = voyages;
+        this.rows = rows;
+    }
+
+    /**
+     * Sets the share of the hold commands, which is 0 by default. Half of them hold a seat of a voyage for 1 to 100 seconds, the
+     * others confirm or release a hold of one of the last 50 HOLD commands, many of which have failed, expired or been
+     * resolved by then.
+     *
+     * @param holdPercent Percentage of the commands after the initializations that are HOLD, CONFIRM or RELEASE.
+     */
+    public void setHoldPercent(int holdPercent) {
+        this.holdPercent = holdPercent;
+        this.voyageRows = new int[voyages + 1];
+    }
+
+    /**
+     * Generates a command.
+     *
+     * @param index Index of the command, the first {@code voyages} commands initialize the voyages.
+     * @return The command without a newline.
+     */
+    public String next(long index) {
+        if (index < voyages) {
+            return initVoyage((int) index + 1);
+        }
+        if (index % 5000 == 4999) {
+            return "Z_REPORT";
+        }
+        int id = 1 + random.nextInt(voyages);
+        if (holdPercent > 0 && random.nextInt(100) < holdPercent) {
+            return hold(id);
+        }
+        int choice = random.nextInt(100);
+        if (choice < 50) {
+            return "SELL_TICKET\t" + id + "\t" + seats();
+        } else if (choice < 80) {
+            return "REFUND_TICKET\t" + id + "\t" + seats();
+        } else if (choice < 95) {
+            return "PRINT_VOYAGE\t" + id;
+        } else if (choice < 98) {
+            return "CANCEL_VOYAGE\t" + id;
+        }
+        return initVoyage(id);
+    }
+
+    /**
+     * Writes a command file.
+     *
+     * @param path  Path of the file.
+     * @param lines Number of commands.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(String path, long lines) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(path))) {
+            for (long i = 0; i < lines; i++) {
+                writer.write(next(i));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private String initVoyage(int id) {
+        String route = CITIES[random.nextInt(CITIES.length)] + "\t" + CITIES[random.nextInt(CITIES.length)];
+        int voyageRows = 1 + random.nextInt(rows);
+        if (this.voyageRows != null) {
+            this.voyageRows[id] = voyageRows;
+        }
+        String price = PRICES[random.nextInt(PRICES.length)];
+        switch (random.nextInt(3)) {
+            case 0:
+                return "INIT_VOYAGE\tStandard\t" + id + "\t" + route + "\t" + voyageRows + "\t" + price + "\t" + 10 * random.nextInt(5);
+            case 1:
+                return "INIT_VOYAGE\tPremium\t" + id + "\t" + route + "\t" + voyageRows + "\t" + price + "\t" + 10 * random.nextInt(5) + "\t" + 5 * random.nextInt(10);
+            default:
+                return "INIT_VOYAGE\tMinibus\t" + id + "\t" + route + "\t" + voyageRows + "\t" + price;
+        }
+    }
+
+    private String hold(int id) {
+        if (holdCommands == 0 || random.nextBoolean()) {
+            holdCommands++;
+            int seat = 1 + random.nextInt(Math.max(voyageRows[id], 1) * 2); // Every layout has at least two seats per row
+            return "HOLD\t" + id + "\t" + seat + "\t" + (1 + random.nextInt(100));
+        }
+        int holdId = holdCommands - random.nextInt(Math.min(holdCommands, 50));
+        return (random.nextBoolean() ? "CONFIRM\t" : "RELEASE\t") + holdId;
+    }
+
+    private String seats() {
+        int count = 1 + random.nextInt(3);
+        StringBuilder seats = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                seats.append('_');
+            }
+            seats.append(1 + random.nextInt(rows * 2)); // Some of the seats do not exist on smaller voyages
+        }
+        return seats.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 5) {
+            System.out.println("Usage: java CommandFileGenerator <output file> <number of commands> [voyages = 1000] [rows = 20] [seed = 1]");
+            return;
+        }
+        int voyages = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        new CommandFileGenerator(seed, voyages, rows).write(args[0], Long.parseLong(args[1]));
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Executes the lines of a command file in batches, applying the commands of different voyages in parallel.
+ * <p>
+ * Commands that work on a single voyage (INIT_VOYAGE, SELL_TICKET, SELL_BEST, REFUND_TICKET, PRINT_VOYAGE and CANCEL_VOYAGE) are grouped
+ * by their voyage ID. Each group is executed in its original order on a {@link ForkJoinPool}, so an initialization, the sales
+ * and the cancellation of a voyage still happen in file order. Commands that read more than one voyage (Z_REPORT, SEARCH),
+ * the hold commands (HOLD, CONFIRM, RELEASE), whose hold IDs are numbered across all voyages in file order, and every line
+ * that is not a valid command in canonical form, see {@link BinaryCommand}, are barriers: everything before them is finished
+ * first, and then they are executed alone. While any hold is pending, the commands between the barriers are executed one at a time
+ * as well, since every command may expire holds of any voyage, and it has to expire exactly the holds that it would expire in
+ * file order. Every command writes to a private buffer, and the buffers are appended to the log in
+ * the original order, so the log is the same as the log of executing the commands one at a time.
+ * <p>
+ * If a command throws, the commands before it are logged, the output it produced before it threw is logged, and the exception
+ * is rethrown, same as in serial execution. The lines that throw in serial execution, because they do not parse or their
+ * arguments do not pass the checks, are barriers, so when one of them throws, no later command has been applied or
+ * journaled. A command that is executed in parallel can only throw on a bug, and then the other groups stop before their
+ * next command, and the commands before it that have not been started are executed in file order before it is rethrown.
+ */
+public class BatchExecutor {
+    private static final int NO_VOYAGE = -1;
+
+    private final BookingService service;
+    private final LogWriter log;
+    private final BookingSystem serialSystem;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final BinaryCommand command = new BinaryCommand();
+    private final List<String> batch = new ArrayList<>();
+
+    /**
+     * Constructor for BatchExecutor.
+     *
+     * @param service   Registry of the voyages that the commands are executed on.
+     * @param log       Log that the echoed commands and their results are appended to, in the original order.
+     * @param pool      Pool that the groups of commands are executed on.
+     * @param batchSize Number of lines that are collected before they are executed.
+     */
+    public BatchExecutor(BookingService service, LogWriter log, ForkJoinPool pool, int batchSize) {
+        this.service = service;
+        this.log = log;
+        this.serialSystem = new BookingSystem(service, log);
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Adds a line of the command file to the current batch, the batch is executed when it is full.
+     *
+     * @param line Line of the command file.
+     */
+    public void executeCommand(String line) {
+        batch.add(line);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Executes the lines that have been collected so far. It must be called after the last line.
+     */
+    public void flush() {
+        try {
+            int[] voyages = new int[batch.size()];
+            int segmentStart = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                voyages[i] = voyageOf(batch.get(i));
+                if (voyages[i] == NO_VOYAGE) {
+                    executeSegment(segmentStart, i, voyages);
+                    serialSystem.executeCommand(batch.get(i));
+                    segmentStart = i + 1;
+                }
+            }
+            executeSegment(segmentStart, batch.size(), voyages);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Finds the voyage that a command works on, parsing the command the same way a binary command file does.
+     *
+     * @param line Line of the command file.
+     * @return The voyage ID, or {@link #NO_VOYAGE} if the command has to be executed alone.
+     */
+    private int voyageOf(String line) {
+        command.parse(line.trim()); // Executing the line trims it as well
+        switch (command.opcode) {
+            case BinaryCommand.INIT_VOYAGE:
+            case BinaryCommand.SELL_TICKET:
+            case BinaryCommand.SELL_BEST:
+            case BinaryCommand.REFUND_TICKET:
+            case BinaryCommand.PRINT_VOYAGE:
+            case BinaryCommand.PRINT_VOYAGE_HOLDS:
+            case BinaryCommand.CANCEL_VOYAGE:
+                return command.voyageId >= 0 ? command.voyageId : NO_VOYAGE; // Negative IDs only produce errors, they are rare enough to run alone
+            default:
+                return NO_VOYAGE; // Reads several voyages, works on holds, or may log a syntax error or throw
+        }
+    }
+
+    /**
+     * Executes the commands in [from, to) of the batch, none of which is a barrier, and logs their results in order.
+     *
+     * @param voyages Voyage ID of every command of the batch.
+     */
+    private void executeSegment(int from, int to, int[] voyages) {
+        int count = to - from;
+        if (count <= 1 || pool.getParallelism() <= 1 || service.getHoldCount() > 0) {
+            for (int i = from; i < to; i++) {
+                serialSystem.executeCommand(batch.get(i));
+            }
+            return;
+        }
+
+        // Groups the commands by voyage, keeping the file order within every group
+        HashMap<Integer, Integer> groupOfVoyage = new HashMap<>();
+        int[] groupOfCommand = new int[count];
+        int[] groupSizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            Integer group = groupOfVoyage.putIfAbsent(voyages[from + i], groupOfVoyage.size());
+            groupOfCommand[i] = group != null ? group : groupOfVoyage.size() - 1;
+            groupSizes[groupOfCommand[i]]++;
+        }
+        int groupCount = groupOfVoyage.size();
+        int[] groupStarts = new int[groupCount + 1];
+        for (int group = 0; group < groupCount; group++) {
+            groupStarts[group + 1] = groupStarts[group] + groupSizes[group];
+        }
+        int[] commandsByGroup = new int[count];
+        int[] fill = groupStarts.clone();
+        for (int i = 0; i < count; i++) {
+            commandsByGroup[fill[groupOfCommand[i]]++] = from + i;
+        }
+
+        Results results = new Results(batch.size());
+        int leafGroups = Math.max(1, groupCount / (pool.getParallelism() * 4));
+        pool.invoke(new GroupTask(results, groupStarts, commandsByGroup, 0, groupCount, leafGroups));
+
+        for (int i = from; i < to; i++) {
+            if (results.owner[i] == null) { // Not started because another command has thrown, which is rethrown after it
+                serialSystem.executeCommand(batch.get(i));
+                continue;
+            }
+            log.append(results.owner[i].text, results.start[i], results.end[i]);
+            Throwable failure = results.failure[i];
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+    }
+
+    /**
+     * Output of every command of a batch: the buffer it was written to and where it is in that buffer.
+     */
+    private static final class Results {
+        private final TextBuffer[] owner;
+        private final int[] start;
+        private final int[] end;
+        private final Throwable[] failure;
+        private volatile boolean failed = false; // Set when any command has thrown, the tasks do not start further commands
+
+        private Results(int size) {
+            owner = new TextBuffer[size];
+            start = new int[size];
+            end = new int[size];
+            failure = new Throwable[size];
+        }
+    }
+
+    /**
+     * Executes a range of groups, splitting it among the pool's threads.
+     */
+    private final class GroupTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Results results;
+        private final int[] groupStarts;
+        private final int[] commandsByGroup;
+        private final int fromGroup;
+        private final int toGroup;
+        private final int leafGroups;
+
+        private GroupTask(Results results, int[] groupStarts, int[] commandsByGroup, int fromGroup, int toGroup, int leafGroups) {
+            this.results = results;
+            this.groupStarts = groupStarts;
+            this.commandsByGroup = commandsByGroup;
+            this.fromGroup = fromGroup;
+            this.toGroup = toGroup;
+            this.leafGroups = leafGroups;
+        }
+
+        @Override
+        protected void compute() {
+            if (toGroup - fromGroup > leafGroups) {
+                int middle = (fromGroup + toGroup) >>> 1;
+                invokeAll(new GroupTask(results, groupStarts, commandsByGroup, fromGroup, middle, leafGroups),
+                        new GroupTask(results, groupStarts, commandsByGroup, middle, toGroup, leafGroups));
+                return;
+            }
+            TextBuffer buffer = new TextBuffer();
+            LogWriter groupLog = new LogWriter(buffer, false);
+            BookingSystem bookingSystem = new BookingSystem(service, groupLog);
+            for (int group = fromGroup; group < toGroup; group++) {
+                for (int i = groupStarts[group]; i < groupStarts[group + 1]; i++) {
+                    if (results.failed) {
+                        return;
+                    }
+                    int command = commandsByGroup[i];
+                    results.owner[command] = buffer;
+                    results.start[command] = buffer.text.length();
+                    try {
+                        bookingSystem.executeCommand(batch.get(command));
+                    } catch (RuntimeException | Error e) {
+                        results.failure[command] = e; // Later commands of the voyage are not executed, same as in serial execution
+                    }
+                    groupLog.flush();
+                    results.end[command] = buffer.text.length();
+                    if (results.failure[command] != null) {
+                        results.failed = true;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writer that collects the output of a task in memory.
+     */
+    private static final class TextBuffer extends Writer {
+        private final StringBuilder text = new StringBuilder();
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            text.append(chars, offset, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
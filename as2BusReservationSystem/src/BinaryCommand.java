@@ -0,0 +1,364 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A command of a command file in the form of {@link BinaryCommandFile}: an opcode and the already parsed arguments.
+ * <p>
+ * Only commands in their canonical text form get an opcode of their own, that is commands whose text is exactly what
+ * {@link #appendText(Appendable)} prints for their arguments, and whose arguments pass the checks that do not depend on the
+ * voyages, such as a positive ID or a price with at most six decimals. Everything else, including every line that logs a
+ * syntax error or crashes the booking system, is kept as a {@link #RAW} line and executed from its text. So executing a
+ * binary command logs exactly what executing its line does.
+ * <p>
+ * A command is mutable, so that a reader can decode every record into the same instance without allocating anything.
+ */
+public final class BinaryCommand {
+    static final byte RAW = 0;
+    static final byte INIT_VOYAGE = 1;
+    static final byte SELL_TICKET = 2;
+    static final byte REFUND_TICKET = 3;
+    static final byte SELL_BEST = 4;
+    static final byte HOLD = 5;
+    static final byte CONFIRM = 6;
+    static final byte RELEASE = 7;
+    static final byte PRINT_VOYAGE = 8;
+    static final byte PRINT_VOYAGE_HOLDS = 9;
+    static final byte CANCEL_VOYAGE = 10;
+    static final byte Z_REPORT = 11;
+    static final byte SEARCH = 12;
+
+    private static final long MAX_PRICE_UNITS = 1L << 53; // Converted to a double exactly, so the price parses to the same double
+    private static final int MAX_PRICE_DECIMALS = 6;
+    private static final int MAX_PRICE_DIGITS = 9; // Before the decimal point, so the price in units stays below MAX_PRICE_UNITS
+    private static final int CACHED_SEAT_ARRAYS = 64;
+
+    private final CommandTokenizer tokens = new CommandTokenizer();
+    private final StringBuilder rendered = new StringBuilder();
+    private final int[][] seatArrays = new int[CACHED_SEAT_ARRAYS + 1][]; // Indexed by length, like CommandTokenizer's
+
+    byte opcode = RAW;
+    String line; // Text of a RAW command
+    SeatLayout layout;
+    int voyageId;
+    long holdId;
+    String from;
+    String to;
+    int numberOfRows;
+    long priceUnits;
+    int refundCut;
+    int premiumFee;
+    int seatCount; // Number of seats of SELL_BEST
+    int ttlSeconds;
+    int minFreeSeats;
+    int[] seatNumbers;
+
+    /**
+     * Sets the command from a line of a command file, with an opcode of its own if the line is in canonical form, as a RAW
+     * line otherwise.
+     *
+     * @param text Line of a command file.
+     */
+    public void parse(String text) {
+        opcode = RAW;
+        line = text;
+        byte parsed;
+        try {
+            tokens.reset(text);
+            parsed = parseFields();
+        } catch (RuntimeException e) {
+            return; // Not a valid number or too few fields, the line is executed from its text
+        }
+        if (parsed != RAW) {
+            opcode = parsed;
+            rendered.setLength(0);
+            appendText(rendered);
+            if (text.contentEquals(rendered)) {
+                line = null;
+                return;
+            }
+        }
+        opcode = RAW;
+    }
+
+    /**
+     * Parses the fields of a line into the arguments, without checking that the line is canonical.
+     *
+     * @return The opcode, {@link #RAW} if the line has no opcode of its own.
+     */
+    private byte parseFields() {
+        int fields = tokens.fieldCount();
+        if (tokens.fieldEquals(0, "INIT_VOYAGE") && fields > 1) {
+            layout = SeatLayout.forField(tokens, 1);
+            if (layout == null || fields != layout.getCommandFieldCount()) {
+                return RAW;
+            }
+            voyageId = tokens.parseInt(2);
+            from = tokens.field(3);
+            to = tokens.field(4);
+            numberOfRows = tokens.parseInt(5);
+            priceUnits = parsePrice(tokens.field(6));
+            int field = 7;
+            refundCut = layout.isRefundable() ? tokens.parseInt(field++) : 0;
+            premiumFee = layout.isPremiumFeeUsed() ? tokens.parseInt(field) : 0;
+            boolean valid = voyageId > 0 && numberOfRows > 0 && priceUnits > 0 && refundCut >= 0 && refundCut <= 100 && premiumFee >= 0
+                    && FareTable.isInRange(layout, numberOfRows, Money.toDouble(priceUnits), premiumFee, refundCut);
+            return valid ? INIT_VOYAGE : RAW;
+        } else if ((tokens.fieldEquals(0, "SELL_TICKET") || tokens.fieldEquals(0, "REFUND_TICKET")) && fields == 3) {
+            voyageId = tokens.parseInt(1); // Any ID, unknown and negative IDs are reported by the voyage lookup
+            seatNumbers = parseSeats(tokens.field(2));
+            return tokens.fieldEquals(0, "SELL_TICKET") ? SELL_TICKET : REFUND_TICKET;
+        } else if (tokens.fieldEquals(0, "SELL_BEST") && fields == 3) {
+            voyageId = tokens.parseInt(1);
+            seatCount = tokens.parseInt(2);
+            return voyageId > 0 && seatCount > 0 ? SELL_BEST : RAW;
+        } else if (tokens.fieldEquals(0, "HOLD") && fields == 4) {
+            voyageId = tokens.parseInt(1);
+            seatNumbers = parseSeats(tokens.field(2));
+            ttlSeconds = tokens.parseInt(3);
+            return voyageId > 0 && ttlSeconds > 0 ? HOLD : RAW;
+        } else if ((tokens.fieldEquals(0, "CONFIRM") || tokens.fieldEquals(0, "RELEASE")) && fields == 2) {
+            holdId = tokens.parseLong(1);
+            return holdId <= 0 ? RAW : tokens.fieldEquals(0, "CONFIRM") ? CONFIRM : RELEASE;
+        } else if (tokens.fieldEquals(0, "PRINT_VOYAGE") && (fields == 2 || fields == 3 && tokens.fieldEquals(2, "HOLDS"))) {
+            voyageId = tokens.parseInt(1);
+            return voyageId <= 0 ? RAW : fields == 2 ? PRINT_VOYAGE : PRINT_VOYAGE_HOLDS;
+        } else if (tokens.fieldEquals(0, "CANCEL_VOYAGE") && fields == 2) {
+            voyageId = tokens.parseInt(1);
+            return voyageId > 0 ? CANCEL_VOYAGE : RAW;
+        } else if (tokens.fieldEquals(0, "Z_REPORT") && fields == 1) {
+            return Z_REPORT;
+        } else if (tokens.fieldEquals(0, "SEARCH") && fields == 4) {
+            from = tokens.field(1);
+            to = tokens.field(2);
+            minFreeSeats = tokens.parseInt(3);
+            return minFreeSeats >= 0 ? SEARCH : RAW;
+        }
+        return RAW;
+    }
+
+    /**
+     * Parses a positive price with at most six decimals into fixed point, see {@link Money}.
+     *
+     * @param text The price.
+     * @return The price in fixed point units, -1 if it is not such a price.
+     */
+    private static long parsePrice(String text) {
+        int point = text.indexOf('.');
+        int end = point < 0 ? text.length() : point;
+        if (end == 0 || end > MAX_PRICE_DIGITS || point >= 0 && (text.length() - point - 1 == 0 || text.length() - point - 1 > MAX_PRICE_DECIMALS)) {
+            return -1;
+        }
+        long units = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (i == point) {
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            units = units * 10 + (c - '0');
+        }
+        for (int decimals = point < 0 ? 0 : text.length() - point - 1; decimals < MAX_PRICE_DECIMALS; decimals++) {
+            units *= 10;
+        }
+        return units < MAX_PRICE_UNITS ? units : -1;
+    }
+
+    private int[] parseSeats(String text) {
+        if (text.isEmpty()) {
+            throw new NumberFormatException("No seat numbers");
+        }
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '_') {
+                count++;
+            }
+        }
+        int[] seats = seatArray(count);
+        int seat = 0;
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == '_') {
+                seats[seat++] = Integer.parseInt(text, start, i, 10); // Empty seat numbers fail, they are not canonical
+                start = i + 1;
+            }
+        }
+        return seats;
+    }
+
+    /**
+     * Returns an array for the given number of seats. Arrays of up to 64 seats are reused by the next commands, the seats are
+     * passed as varargs, so the array length has to be the number of seats.
+     *
+     * @param length Number of seats.
+     * @return The array.
+     */
+    int[] seatArray(int length) {
+        if (length > CACHED_SEAT_ARRAYS) {
+            return new int[length];
+        }
+        if (seatArrays[length] == null) {
+            seatArrays[length] = new int[length];
+        }
+        return seatArrays[length];
+    }
+
+    /**
+     * @return Type of the command for the metrics, {@link BookingMetrics.Command#UNKNOWN} for a RAW line.
+     */
+    BookingMetrics.Command getType() {
+        switch (opcode) {
+            case INIT_VOYAGE:
+                return BookingMetrics.Command.INIT_VOYAGE;
+            case SELL_TICKET:
+                return BookingMetrics.Command.SELL_TICKET;
+            case REFUND_TICKET:
+                return BookingMetrics.Command.REFUND_TICKET;
+            case SELL_BEST:
+                return BookingMetrics.Command.SELL_BEST;
+            case HOLD:
+                return BookingMetrics.Command.HOLD;
+            case CONFIRM:
+                return BookingMetrics.Command.CONFIRM;
+            case RELEASE:
+                return BookingMetrics.Command.RELEASE;
+            case PRINT_VOYAGE:
+            case PRINT_VOYAGE_HOLDS:
+                return BookingMetrics.Command.PRINT_VOYAGE;
+            case CANCEL_VOYAGE:
+                return BookingMetrics.Command.CANCEL_VOYAGE;
+            case Z_REPORT:
+                return BookingMetrics.Command.Z_REPORT;
+            case SEARCH:
+                return BookingMetrics.Command.SEARCH;
+            default:
+                return BookingMetrics.Command.UNKNOWN;
+        }
+    }
+
+    /**
+     * Checks whether the command counts as a Z report for the final report of {@link BookingSystem#main(String[])}, which is
+     * printed unless the last line starts with a Z_REPORT field.
+     *
+     * @return true if the command is a Z report, false otherwise.
+     */
+    public boolean isZReport() {
+        return opcode == Z_REPORT || opcode == RAW && isZReportLine(line);
+    }
+
+    /**
+     * Checks whether a line of a command file starts with a Z_REPORT field, the same as {@code "Z_REPORT".equals(line.split("\t")[0])}
+     * without splitting the line.
+     *
+     * @param line Line of a command file, as it has been read.
+     * @return true if the line counts as a Z report for the final report, false otherwise.
+     */
+    public static boolean isZReportLine(String line) {
+        return line.startsWith("Z_REPORT") && (line.length() == 8 || line.charAt(8) == '\t');
+    }
+
+    /**
+     * Checks whether the command is a line that is empty with respect to trim, which a replay skips the same way
+     * {@link FileInput#readLines(String, boolean, boolean, java.util.function.Consumer)} skips it in a text file.
+     *
+     * @return true if the command is an empty RAW line, false otherwise.
+     */
+    public boolean isEmptyLine() {
+        if (opcode != RAW) {
+            return false;
+        }
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the line of the command, which is the line it was parsed from.
+     *
+     * @param out Destination of the line, nothing is allocated when it is a LogWriter or a StringBuilder.
+     */
+    public void appendText(Appendable out) {
+        try {
+            switch (opcode) {
+                case INIT_VOYAGE:
+                    out.append("INIT_VOYAGE\t").append(layout.getName()).append('\t');
+                    LogWriter.appendDecimal(out, voyageId);
+                    out.append('\t').append(from).append('\t').append(to).append('\t');
+                    LogWriter.appendDecimal(out, numberOfRows);
+                    out.append('\t');
+                    Money.appendExact(out, priceUnits);
+                    if (layout.isRefundable()) {
+                        out.append('\t');
+                        LogWriter.appendDecimal(out, refundCut);
+                    }
+                    if (layout.isPremiumFeeUsed()) {
+                        out.append('\t');
+                        LogWriter.appendDecimal(out, premiumFee);
+                    }
+                    break;
+                case SELL_TICKET:
+                case REFUND_TICKET:
+                    out.append(opcode == SELL_TICKET ? "SELL_TICKET\t" : "REFUND_TICKET\t");
+                    LogWriter.appendDecimal(out, voyageId);
+                    out.append('\t');
+                    appendSeats(out);
+                    break;
+                case SELL_BEST:
+                    out.append("SELL_BEST\t");
+                    LogWriter.appendDecimal(out, voyageId);
+                    out.append('\t');
+                    LogWriter.appendDecimal(out, seatCount);
+                    break;
+                case HOLD:
+                    out.append("HOLD\t");
+                    LogWriter.appendDecimal(out, voyageId);
+                    out.append('\t');
+                    appendSeats(out);
+                    out.append('\t');
+                    LogWriter.appendDecimal(out, ttlSeconds);
+                    break;
+                case CONFIRM:
+                case RELEASE:
+                    out.append(opcode == CONFIRM ? "CONFIRM\t" : "RELEASE\t");
+                    LogWriter.appendDecimal(out, holdId);
+                    break;
+                case PRINT_VOYAGE:
+                case PRINT_VOYAGE_HOLDS:
+                    out.append("PRINT_VOYAGE\t");
+                    LogWriter.appendDecimal(out, voyageId);
+                    if (opcode == PRINT_VOYAGE_HOLDS) {
+                        out.append("\tHOLDS");
+                    }
+                    break;
+                case CANCEL_VOYAGE:
+                    out.append("CANCEL_VOYAGE\t");
+                    LogWriter.appendDecimal(out, voyageId);
+                    break;
+                case Z_REPORT:
+                    out.append("Z_REPORT");
+                    break;
+                case SEARCH:
+                    out.append("SEARCH\t").append(from).append('\t').append(to).append('\t');
+                    LogWriter.appendDecimal(out, minFreeSeats);
+                    break;
+                default:
+                    out.append(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void appendSeats(Appendable out) throws IOException {
+        for (int i = 0; i < seatNumbers.length; i++) {
+            if (i > 0) {
+                out.append('_');
+            }
+            LogWriter.appendDecimal(out, seatNumbers[i]);
+        }
+    }
+}
@@ -0,0 +1,450 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/**
+ * Compact binary form of a command file, which is replayed without parsing any text.
+ * <p>
+ * File layout: an 8 byte header ({@link #MAGIC} and {@link #VERSION}), followed by records that start with an opcode byte.
+ * Integers are variable-length (7 bits per byte, low bits first), signed ones zigzag encoded, prices are fixed point units,
+ * see {@link Money}, and city names are indices into a table of strings that {@link #STRING} records add to. The records of
+ * the commands are:
+ * <ul>
+ *     <li>INIT_VOYAGE: layout code byte, ID, from, to, rows, price, then the refund cut and the premium fee if the layout takes them.</li>
+ *     <li>SELL_TICKET and REFUND_TICKET: signed voyage ID, number of seats, signed seat numbers.</li>
+ *     <li>SELL_BEST: voyage ID, number of seats.</li>
+ *     <li>HOLD: voyage ID, time to live, number of seats, signed seat numbers.</li>
+ *     <li>CONFIRM and RELEASE: hold ID.</li>
+ *     <li>PRINT_VOYAGE, PRINT_VOYAGE with HOLDS, and CANCEL_VOYAGE: voyage ID.</li>
+ *     <li>Z_REPORT: nothing.</li>
+ *     <li>SEARCH: from, to, minimum empty seats.</li>
+ *     <li>RAW: length and UTF-8 bytes of a line that is not in canonical form, see {@link BinaryCommand}, including the empty
+ *     lines, so that converting a file to binary and back gives the same lines.</li>
+ * </ul>
+ * Replaying maps the file into memory and decodes every record into the same {@link BinaryCommand}, so a replay allocates
+ * nothing per command apart from RAW lines and new strings, and the log is the same as the log of the text file.
+ * <p>
+ * Usage: {@code java BinaryCommandFile input output} converts a text command file to binary, or a binary one back to text.
+ */
+public class BinaryCommandFile implements Closeable {
+    static final int MAGIC = 0x42434d44; // "BCMD"
+    static final int VERSION = 1;
+    static final byte STRING = 127;
+
+    private static final int HEADER_SIZE = 8;
+    private static final long MAPPED_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final OutputStream out;
+    private final HashMap<String, Integer> stringIndices = new HashMap<>();
+
+    private BinaryCommandFile(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Creates a binary command file, replacing any file at the path.
+     *
+     * @param path Path of the file.
+     * @return The file, to write the commands to.
+     * @throws IOException If the file cannot be created.
+     */
+    public static BinaryCommandFile create(Path path) throws IOException {
+        BinaryCommandFile file = new BinaryCommandFile(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+        return file;
+    }
+
+    /**
+     * Appends a command.
+     *
+     * @param command The command.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(BinaryCommand command) throws IOException {
+        int from = command.opcode == BinaryCommand.INIT_VOYAGE || command.opcode == BinaryCommand.SEARCH ? stringIndex(command.from) : 0;
+        int to = command.opcode == BinaryCommand.INIT_VOYAGE || command.opcode == BinaryCommand.SEARCH ? stringIndex(command.to) : 0;
+        out.write(command.opcode);
+        switch (command.opcode) {
+            case BinaryCommand.INIT_VOYAGE:
+                out.write(command.layout.getCode());
+                writeVarint(command.voyageId);
+                writeVarint(from);
+                writeVarint(to);
+                writeVarint(command.numberOfRows);
+                writeVarint(command.priceUnits);
+                if (command.layout.isRefundable()) {
+                    writeVarint(command.refundCut);
+                }
+                if (command.layout.isPremiumFeeUsed()) {
+                    writeVarint(command.premiumFee);
+                }
+                break;
+            case BinaryCommand.SELL_TICKET:
+            case BinaryCommand.REFUND_TICKET:
+                writeVarint(zigzag(command.voyageId));
+                writeSeats(command.seatNumbers);
+                break;
+            case BinaryCommand.SELL_BEST:
+                writeVarint(command.voyageId);
+                writeVarint(command.seatCount);
+                break;
+            case BinaryCommand.HOLD:
+                writeVarint(command.voyageId);
+                writeVarint(command.ttlSeconds);
+                writeSeats(command.seatNumbers);
+                break;
+            case BinaryCommand.CONFIRM:
+            case BinaryCommand.RELEASE:
+                writeVarint(command.holdId);
+                break;
+            case BinaryCommand.PRINT_VOYAGE:
+            case BinaryCommand.PRINT_VOYAGE_HOLDS:
+            case BinaryCommand.CANCEL_VOYAGE:
+                writeVarint(command.voyageId);
+                break;
+            case BinaryCommand.Z_REPORT:
+                break;
+            case BinaryCommand.SEARCH:
+                writeVarint(from);
+                writeVarint(to);
+                writeVarint(command.minFreeSeats);
+                break;
+            default:
+                writeBytes(command.line.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Finds the index of a string in the string table, adding it with a {@link #STRING} record if it is new.
+     */
+    private int stringIndex(String text) throws IOException {
+        Integer index = stringIndices.get(text);
+        if (index != null) {
+            return index;
+        }
+        out.write(STRING);
+        writeBytes(text.getBytes(StandardCharsets.UTF_8));
+        stringIndices.put(text, stringIndices.size());
+        return stringIndices.size() - 1;
+    }
+
+    private void writeSeats(int[] seatNumbers) throws IOException {
+        writeVarint(seatNumbers.length);
+        for (int seatNumber : seatNumbers) {
+            writeVarint(zigzag(seatNumber));
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Flushes and closes the file.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Checks whether a file starts with the header of a binary command file.
+     *
+     * @param path Path of the file.
+     * @return true if it is a binary command file, false if it is not or cannot be read.
+     */
+    public static boolean isBinary(String path) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(Paths.get(path)))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION;
+        } catch (IOException e) {
+            return false; // Too short or unreadable, reading it as text reports the problem
+        }
+    }
+
+    /**
+     * Reads a binary command file and hands each command to the given consumer in file order, like
+     * {@link FileInput#readLines(String, boolean, boolean, Consumer)} does with the lines of a text file. The file is mapped
+     * into memory a window at a time, and the same command instance is passed for every record, so it must not be kept.
+     *
+     * @param path              Path to the file that is going to be read.
+     * @param discardEmptyLines If true, skips the lines that are empty with respect to trim, as a replay does; else, it passes all commands.
+     * @param consumer          Consumer that is called for each command in file order.
+     * @return true if the whole file has been read, false if it cannot be read or is not a valid binary command file.
+     */
+    public static boolean readCommands(String path, boolean discardEmptyLines, Consumer<BinaryCommand> consumer) {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            Reader reader = new Reader(channel);
+            BinaryCommand command = new BinaryCommand();
+            while (reader.next(command)) {
+                if (discardEmptyLines && command.isEmptyLine()) {
+                    continue;
+                }
+                consumer.accept(command);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Decodes the records of a binary command file from a mapped window of the file.
+     */
+    private static final class Reader {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart = 0;
+        private MappedByteBuffer window;
+        private String[] strings = new String[16];
+        private int stringCount = 0;
+        private byte[] bytes = new byte[256];
+
+        private Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+            if (size < HEADER_SIZE || window.getInt() != MAGIC || window.getInt() != VERSION) {
+                throw new IOException("Not a binary command file of version " + VERSION);
+            }
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAPPED_WINDOW_SIZE, size - start));
+        }
+
+        /**
+         * Decodes the next command. A record that is cut off by the end of the window is decoded again from a window that starts with it.
+         *
+         * @param command Command to decode into.
+         * @return true if a command is decoded, false at the end of the file.
+         * @throws IOException If the file is cut short or has an unknown record.
+         */
+        private boolean next(BinaryCommand command) throws IOException {
+            while (true) {
+                int recordStart = window.position();
+                if (windowStart + recordStart == size) {
+                    return false;
+                }
+                try {
+                    if (decode(command)) {
+                        return true;
+                    }
+                } catch (BufferUnderflowException e) {
+                    if (windowStart + window.limit() == size || recordStart == 0) {
+                        throw new IOException("Binary command file is cut short at byte " + (windowStart + recordStart));
+                    }
+                    map(windowStart + recordStart);
+                }
+            }
+        }
+
+        /**
+         * Decodes a record.
+         *
+         * @return true if the record is a command, false if it only adds a string.
+         */
+        private boolean decode(BinaryCommand command) throws IOException {
+            byte opcode = window.get();
+            switch (opcode) {
+                case STRING:
+                    String text = readString();
+                    if (stringCount == strings.length) {
+                        strings = Arrays.copyOf(strings, stringCount * 2);
+                    }
+                    strings[stringCount++] = text;
+                    return false;
+                case BinaryCommand.INIT_VOYAGE:
+                    SeatLayout layout = SeatLayout.forCode(window.get());
+                    if (layout == null) {
+                        throw new IOException("Unknown seat layout at byte " + (windowStart + window.position() - 1));
+                    }
+                    command.layout = layout;
+                    command.voyageId = readInt();
+                    command.from = readTableString();
+                    command.to = readTableString();
+                    command.numberOfRows = readInt();
+                    command.priceUnits = readVarint();
+                    command.refundCut = layout.isRefundable() ? readInt() : 0;
+                    command.premiumFee = layout.isPremiumFeeUsed() ? readInt() : 0;
+                    break;
+                case BinaryCommand.SELL_TICKET:
+                case BinaryCommand.REFUND_TICKET:
+                    command.voyageId = readSignedInt();
+                    command.seatNumbers = readSeats(command);
+                    break;
+                case BinaryCommand.SELL_BEST:
+                    command.voyageId = readInt();
+                    command.seatCount = readInt();
+                    break;
+                case BinaryCommand.HOLD:
+                    command.voyageId = readInt();
+                    command.ttlSeconds = readInt();
+                    command.seatNumbers = readSeats(command);
+                    break;
+                case BinaryCommand.CONFIRM:
+                case BinaryCommand.RELEASE:
+                    command.holdId = readVarint();
+                    break;
+                case BinaryCommand.PRINT_VOYAGE:
+                case BinaryCommand.PRINT_VOYAGE_HOLDS:
+                case BinaryCommand.CANCEL_VOYAGE:
+                    command.voyageId = readInt();
+                    break;
+                case BinaryCommand.Z_REPORT:
+                    break;
+                case BinaryCommand.SEARCH:
+                    command.from = readTableString();
+                    command.to = readTableString();
+                    command.minFreeSeats = readInt();
+                    break;
+                case BinaryCommand.RAW:
+                    command.line = readString();
+                    break;
+                default:
+                    throw new IOException("Unknown record " + opcode + " at byte " + (windowStart + window.position() - 1));
+            }
+            command.opcode = opcode;
+            return true;
+        }
+
+        private int[] readSeats(BinaryCommand command) throws IOException {
+            int count = readInt();
+            if (count < 0) {
+                throw new IOException("Negative seat count " + count + " at byte " + (windowStart + window.position()));
+            }
+            if (count > window.remaining()) { // Every seat takes at least a byte
+                throw new BufferUnderflowException();
+            }
+            int[] seatNumbers = command.seatArray(count);
+            for (int i = 0; i < seatNumbers.length; i++) {
+                seatNumbers[i] = readSignedInt();
+            }
+            return seatNumbers;
+        }
+
+        private String readTableString() throws IOException {
+            int index = readInt();
+            if (index < 0 || index >= stringCount) {
+                throw new IOException("Unknown string " + index + " at byte " + (windowStart + window.position()));
+            }
+            return strings[index];
+        }
+
+        private String readString() throws IOException {
+            int length = readInt();
+            if (length < 0) {
+                throw new IOException("Negative string length " + length + " at byte " + (windowStart + window.position()));
+            }
+            if (length > window.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            window.get(bytes, 0, length);
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = window.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private int readInt() {
+            return (int) readVarint();
+        }
+
+        private int readSignedInt() {
+            int value = readInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+
+    /**
+     * Converts a text command file to binary, or a binary command file back to text.
+     *
+     * @param args Path of the input file and path of the output file.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("ERROR: Usage is \"java BinaryCommandFile input output\", a text input is converted to binary and a binary input to text.");
+            return;
+        }
+        if (isBinary(args[0])) {
+            Writer writer = FileOutput.openWriter(args[1], false);
+            if (writer == null) {
+                return;
+            }
+            LogWriter text = new LogWriter(writer, false);
+            readCommands(args[0], false, command -> {
+                command.appendText(text);
+                text.append('\n');
+            });
+            text.close();
+            return;
+        }
+        try (BinaryCommandFile file = create(Paths.get(args[1]))) {
+            BinaryCommand command = new BinaryCommand();
+            boolean[] failed = {false};
+            FileInput.readLines(args[0], false, false, line -> { // Empty lines too, which BookingSystem skips in either form
+                if (failed[0]) {
+                    return;
+                }
+                command.parse(line);
+                try {
+                    file.write(command);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    failed[0] = true;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,631 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of the commands that change the voyage registry, so that the registry survives a crash.
+ * Every successful voyage initialization, sale, refund and cancellation is appended as a binary record, and opening the
+ * journal replays the records into an empty booking service.
+ * <p>
+ * Records are collected in memory and written with group commit: a thread that needs its record on disk writes and syncs the
+ * records of every thread that is waiting at that moment, so concurrent commands share one fsync. How often the journal is
+ * synced is set by the sync batch size:
+ * <ul>
+ *     <li>1 syncs before every command returns, so no acknowledged command is ever lost.</li>
+ *     <li>n syncs once every n records, so up to n - 1 acknowledged commands can be lost on a crash.</li>
+ *     <li>0 never syncs, the records are written whenever 64 KiB have been collected and it is up to the operating system to store them.</li>
+ * </ul>
+ * Every record has a sequence number, counted from the first record ever journaled. With a snapshot interval, the journal
+ * periodically writes a {@link BookingSnapshot} of the registry next to itself and drops the records that the snapshot covers,
+ * so that opening it only replays the records since the last snapshot.
+ * <p>
+ * File layout: a 16 byte header ({@link #MAGIC}, {@link #VERSION} and the sequence number of the last record that has been
+ * dropped), followed by records of the form {@code [int length][int crc32 of the body][body]}, where the body starts with the
+ * record type and the voyage ID. A record that is cut short or fails its checksum marks the end of the journal; it is the tail
+ * of an interrupted write and is discarded when the journal is opened.
+ */
+public class BookingJournal implements Closeable {
+    static final int MAGIC = 0x42524a4c; // "BRJL"
+    static final int VERSION = 2;
+    static final byte INIT = 1;
+    static final byte SELL = 2;
+    static final byte REFUND = 3;
+    static final byte CANCEL = 4;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private static final int WRITE_THRESHOLD = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path path;
+    private final int syncBatchSize;
+    private final long recoveredRecords;
+    private final CRC32 crc = new CRC32(); // Guarded by this
+    private final Object commitLock = new Object();
+    private final AtomicBoolean checkpointing = new AtomicBoolean(false);
+    private volatile long snapshotInterval = 0;
+    private volatile long snapshotSequence;
+
+    // Guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(WRITE_THRESHOLD * 2);
+    private ByteBuffer spare = ByteBuffer.allocate(WRITE_THRESHOLD * 2);
+    private long appendedRecords;
+    private long appendedBytes; // File offset right after the last appended record
+    private int recordStart;
+    private boolean closed = false;
+
+    // Guarded by commitLock
+    private FileChannel channel;
+    private long writtenRecords;
+    private volatile long syncedRecords;
+
+    private BookingJournal(Path path, FileChannel channel, int syncBatchSize, long recoveredRecords, long snapshotSequence, long sequence, long end) {
+        this.path = path;
+        this.channel = channel;
+        this.syncBatchSize = syncBatchSize;
+        this.recoveredRecords = recoveredRecords;
+        this.snapshotSequence = snapshotSequence;
+        this.appendedRecords = sequence;
+        this.writtenRecords = sequence;
+        this.syncedRecords = sequence;
+        this.appendedBytes = end;
+    }
+
+    /**
+     * Opens the journal at the given path, creating it if it does not exist, and recovers the given service: the snapshot next
+     * to the journal is loaded if there is one, then the journal records after the snapshot are replayed.
+     * A torn record at the end of the journal is cut off, new records are appended after the last intact one.
+     *
+     * @param path          Path of the journal file.
+     * @param syncBatchSize Number of records per fsync, 0 to never sync.
+     * @param service       Empty booking service without a journal, the recovered voyages are registered to it.
+     * @return The journal, positioned at its end.
+     * @throws IOException If the journal or the snapshot cannot be read or written, or if they do not belong together.
+     */
+    public static BookingJournal open(Path path, int syncBatchSize, BookingService service) throws IOException {
+        if (syncBatchSize < 0) {
+            throw new IllegalArgumentException("Sync batch size must be non-negative: " + syncBatchSize);
+        }
+        Path snapshotPath = snapshotPath(path);
+        BookingSnapshot snapshot = Files.exists(snapshotPath) ? BookingSnapshot.load(snapshotPath, service) : null;
+        long snapshotSequence = snapshot == null ? 0 : snapshot.getSequence();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long[] recovered; // Replayed records, sequence number of the last record and the offset right after it
+            if (channel.size() < HEADER_SIZE) { // New journal, or one that was interrupted while its header was written
+                channel.truncate(0);
+                writeHeader(channel, snapshotSequence);
+                channel.force(true);
+                recovered = new long[]{0, snapshotSequence, HEADER_SIZE};
+            } else {
+                recovered = replay(channel, service, snapshot);
+                if (recovered[2] < channel.size()) {
+                    channel.truncate(recovered[2]); // Drops the torn tail
+                    channel.force(true);
+                }
+            }
+            if (recovered[1] < snapshotSequence) {
+                throw new IOException("Journal ends at record " + recovered[1] + " before the snapshot at record " + snapshotSequence);
+            }
+            channel.position(recovered[2]);
+            return new BookingJournal(path, channel, syncBatchSize, recovered[0], snapshotSequence, recovered[1], recovered[2]);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param journalPath Path of a journal file.
+     * @return Path of the snapshot that belongs to the journal.
+     */
+    public static Path snapshotPath(Path journalPath) {
+        return journalPath.resolveSibling(journalPath.getFileName() + ".snapshot");
+    }
+
+    private static void writeHeader(FileChannel channel, long baseSequence) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(baseSequence).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * Creates the booking service of a program. If the system property {@code booking.journal} names a journal file, the service
+     * is recovered from that journal and journals its changes to it, synced according to {@code booking.journal.syncBatchSize}
+     * (1 by default) and compacted into a snapshot every {@code booking.snapshot.interval} records (1,000,000 by default, 0 for
+     * never). Otherwise, the service only lives in memory. If {@code booking.metrics} is true, the service collects
+     * {@link BookingMetrics}, timing one of every {@code booking.metrics.sampleInterval} commands of a type (16 by default), and
+     * prints their summary to the standard error stream at exit.
+     *
+     * @return The booking service, returns null if the journal cannot be opened.
+     */
+    public static BookingService openService() {
+        BookingService service = new BookingService();
+        if (Boolean.getBoolean("booking.columnar")) {
+            service.setVoyageColumns(new VoyageColumns());
+        }
+        if (Boolean.getBoolean("booking.offHeapSeats")) {
+            service.setSeatInventory(new OffHeapSeatInventory());
+        }
+        if (Boolean.getBoolean("booking.lockFreeSeats")) {
+            service.setLockFreeSeats(true);
+        }
+        if (Boolean.getBoolean("booking.metrics")) {
+            BookingMetrics metrics = new BookingMetrics(Integer.getInteger("booking.metrics.sampleInterval", 16));
+            metrics.printAtExit(System.err);
+            service.setMetrics(metrics);
+        }
+        String path = System.getProperty("booking.journal");
+        if (path == null) {
+            return service;
+        }
+        try {
+            BookingJournal journal = open(Paths.get(path), Integer.getInteger("booking.journal.syncBatchSize", 1), service);
+            journal.setSnapshotInterval(Long.getLong("booking.snapshot.interval", 1_000_000));
+            service.setJournal(journal);
+            return service;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return Number of records after the snapshot that were replayed when the journal was opened.
+     */
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    /**
+     * @return Sequence number of the last appended record.
+     */
+    public synchronized long getSequence() {
+        return appendedRecords;
+    }
+
+    /**
+     * Sets how many records are journaled between two snapshots.
+     *
+     * @param snapshotInterval Number of records, 0 to never take snapshots.
+     */
+    public void setSnapshotInterval(long snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Checks whether a snapshot is due after the given record.
+     *
+     * @param sequence Sequence number of a record.
+     * @return true if the snapshot interval has passed since the last snapshot, false otherwise.
+     */
+    public boolean isCheckpointDue(long sequence) {
+        long interval = snapshotInterval;
+        return interval > 0 && sequence - snapshotSequence >= interval && !checkpointing.get();
+    }
+
+    /**
+     * Writes a snapshot of the voyages of the service and drops the journal records that it covers. The service keeps working
+     * meanwhile: each voyage is captured under its monitor, together with the sequence number of its last record, and the
+     * records after the start of the snapshot are kept so that the changes that race with the snapshot are not lost.
+     * Only one checkpoint runs at a time, a call during another checkpoint returns right away. It must not be called while
+     * holding the monitor of a voyage.
+     *
+     * @param service The booking service that journals to this journal.
+     * @throws IOException If the snapshot or the compacted journal cannot be written. The journal is left as it was then.
+     */
+    public void checkpoint(BookingService service) throws IOException {
+        if (!checkpointing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long sequence;
+            long offset;
+            synchronized (this) {
+                sequence = appendedRecords;
+                offset = appendedBytes;
+            }
+            BookingSnapshot.write(snapshotPath(path), sequence, service.getVoyagesSortedById(), this);
+            dropRecords(sequence, offset);
+            snapshotSequence = sequence;
+        } finally {
+            checkpointing.set(false);
+        }
+    }
+
+    /**
+     * Replaces the journal file with one that starts right after the given record, the old file is swapped out atomically.
+     *
+     * @param sequence Sequence number of the last record to drop.
+     * @param offset   File offset right after that record.
+     */
+    private void dropRecords(long sequence, long offset) throws IOException {
+        synchronized (commitLock) {
+            writeBatch(false); // The old file has every record up to here, appends meanwhile go to the new file
+            Path compactedPath = path.resolveSibling(path.getFileName() + ".tmp");
+            FileChannel compacted = FileChannel.open(compactedPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                writeHeader(compacted, sequence);
+                compacted.position(HEADER_SIZE);
+                long end = channel.position();
+                for (long position = offset; position < end; ) {
+                    position += channel.transferTo(position, end - position, compacted);
+                }
+                compacted.force(true);
+                Files.move(compactedPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException e) {
+                compacted.close();
+                Files.deleteIfExists(compactedPath);
+                throw e;
+            }
+            channel.close();
+            channel = compacted;
+            syncedRecords = writtenRecords;
+            synchronized (this) {
+                appendedBytes -= offset - HEADER_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Appends the initialization of a voyage. Like the other append methods, it must be called while holding the monitor of the
+     * voyage, so that the records of a voyage are in the same order as its changes.
+     *
+     * @param bus The initialized voyage.
+     * @return Sequence number of the record, to be passed to {@link #commit(long)}.
+     */
+    public synchronized long appendInit(Bus bus) {
+        byte busType = busType(bus);
+        double premiumFee = bus.getPremiumFee();
+        byte[] from = bus.getFrom().getBytes(StandardCharsets.UTF_8);
+        byte[] to = bus.getTo().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = beginRecord(1 + 4 + 1 + 4 + 8 + 8 + 8 + 4 + from.length + 4 + to.length, INIT, bus.getId());
+        body.put(busType).putInt(bus.getNumberOfRows()).putLong(bus.getPriceUnits()).putDouble(bus.getRefundCut()).putDouble(premiumFee);
+        body.putInt(from.length).put(from).putInt(to.length).put(to);
+        return endRecord();
+    }
+
+    /**
+     * Appends a sale.
+     *
+     * @param id          ID of the voyage.
+     * @param seatNumbers The sold seat numbers.
+     * @return Sequence number of the record.
+     */
+    public synchronized long appendSell(int id, int... seatNumbers) {
+        return appendSeats(SELL, id, seatNumbers);
+    }
+
+    /**
+     * Appends a refund.
+     *
+     * @param id          ID of the voyage.
+     * @param seatNumbers The refunded seat numbers.
+     * @return Sequence number of the record.
+     */
+    public synchronized long appendRefund(int id, int... seatNumbers) {
+        return appendSeats(REFUND, id, seatNumbers);
+    }
+
+    /**
+     * Appends a cancellation. It must be appended before the voyage is removed from the registry, so that a new voyage with the
+     * same ID can only be journaled after it.
+     *
+     * @param id ID of the voyage.
+     * @return Sequence number of the record.
+     */
+    public synchronized long appendCancel(int id) {
+        beginRecord(1 + 4, CANCEL, id);
+        return endRecord();
+    }
+
+    private long appendSeats(byte type, int id, int[] seatNumbers) {
+        ByteBuffer body = beginRecord(1 + 4 + 4 + 4 * seatNumbers.length, type, id);
+        body.putInt(seatNumbers.length);
+        for (int seatNumber : seatNumbers) {
+            body.putInt(seatNumber);
+        }
+        return endRecord();
+    }
+
+    private ByteBuffer beginRecord(int bodySize, byte type, int id) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        if (pending.remaining() < RECORD_HEADER_SIZE + bodySize) { // Grows until the next commit takes the collected records
+            int capacity = Math.max(pending.capacity() * 2, pending.position() + RECORD_HEADER_SIZE + bodySize);
+            pending = ByteBuffer.allocate(capacity).put(pending.flip());
+        }
+        recordStart = pending.position();
+        pending.putInt(bodySize).putInt(0); // The checksum is filled in by endRecord
+        return pending.put(type).putInt(id);
+    }
+
+    private long endRecord() {
+        int bodyStart = recordStart + RECORD_HEADER_SIZE;
+        crc.reset();
+        crc.update(pending.array(), pending.arrayOffset() + bodyStart, pending.position() - bodyStart);
+        pending.putInt(recordStart + 4, (int) crc.getValue());
+        appendedBytes += pending.position() - recordStart;
+        return ++appendedRecords;
+    }
+
+    /**
+     * Makes a record as durable as the sync batch size demands. If the record has to be synced, the calling thread either waits
+     * for a concurrent commit that covers it, or writes and syncs all the collected records itself.
+     *
+     * @param sequence Sequence number of the record.
+     * @throws UncheckedIOException If the journal cannot be written.
+     */
+    public void commit(long sequence) {
+        if (syncedRecords >= sequence) {
+            return;
+        }
+        boolean write;
+        synchronized (this) {
+            if (syncBatchSize == 0) {
+                write = pending.position() >= WRITE_THRESHOLD;
+            } else {
+                write = appendedRecords - syncedRecords >= syncBatchSize;
+            }
+        }
+        if (write) {
+            writePending(syncBatchSize > 0, sequence);
+        }
+    }
+
+    /**
+     * Writes and syncs all the records that have been appended so far.
+     *
+     * @throws UncheckedIOException If the journal cannot be written.
+     */
+    public void sync() {
+        long sequence;
+        synchronized (this) {
+            sequence = appendedRecords;
+        }
+        writePending(true, sequence);
+    }
+
+    private void writePending(boolean force, long sequence) {
+        synchronized (commitLock) {
+            if (force ? syncedRecords >= sequence : writtenRecords >= sequence) {
+                return; // A commit of another thread has covered the record while this thread was waiting
+            }
+            try {
+                writeBatch(force);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void writeBatch(boolean force) throws IOException { // Called holding commitLock
+        ByteBuffer batch;
+        long batchEnd;
+        synchronized (this) { // Swaps the buffers, so that appends go on while the batch is written
+            batch = pending;
+            pending = spare;
+            spare = batch;
+            batchEnd = appendedRecords;
+        }
+        batch.flip();
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        batch.clear();
+        writtenRecords = batchEnd;
+        if (force) {
+            channel.force(false);
+            syncedRecords = batchEnd;
+        }
+    }
+
+    /**
+     * Writes and syncs the remaining records and closes the journal file.
+     */
+    @Override
+    public void close() {
+        sync();
+        synchronized (this) {
+            closed = true;
+        }
+        synchronized (commitLock) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Replays the intact records of a journal into a booking service. With a snapshot, records that the snapshot covers are
+     * skipped: all records up to the start of the snapshot, and the records of a voyage up to the moment it was captured.
+     * Sales, refunds and cancellations of voyages that are missing from the snapshot are skipped as well, the voyage has
+     * been cancelled while the snapshot was written.
+     *
+     * @param channel  Journal file, read from its start.
+     * @param service  Booking service to register the voyages to.
+     * @param snapshot Snapshot that has been loaded into the service, null if there is none.
+     * @return Number of replayed records after the snapshot, sequence number of the last intact record and the offset right after it.
+     * @throws IOException If the journal cannot be read, has no valid header, or contains a record that cannot be applied.
+     */
+    private static long[] replay(FileChannel channel, BookingService service, BookingSnapshot snapshot) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a booking journal");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported booking journal version " + version);
+        }
+        long sequence = header.getLong();
+        long snapshotSequence = snapshot == null ? 0 : snapshot.getSequence();
+        if (sequence > snapshotSequence) {
+            throw new IOException("Journal starts after record " + sequence + ", but there is no snapshot up to it");
+        }
+
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        long bufferOffset = HEADER_SIZE; // File offset of the first byte of the buffer
+        readFully(channel, buffer, bufferOffset);
+        buffer.flip();
+        CRC32 checksum = new CRC32();
+        int[][] seatArrays = new int[65][];
+        long records = 0;
+        while (true) {
+            int length = buffer.remaining() >= 4 ? buffer.getInt(buffer.position()) : 0;
+            if (buffer.remaining() >= 4 && (length < 5 || length > MAX_RECORD_SIZE)) {
+                break; // Garbage instead of a record header
+            }
+            if (buffer.remaining() < RECORD_HEADER_SIZE + length) {
+                if (bufferOffset + buffer.limit() >= size) {
+                    break; // The record is cut short by the end of the file
+                }
+                bufferOffset += buffer.position();
+                if (RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                    buffer = ByteBuffer.allocateDirect(RECORD_HEADER_SIZE + length).put(buffer);
+                } else {
+                    buffer.compact();
+                }
+                readFully(channel, buffer, bufferOffset + buffer.position());
+                buffer.flip();
+                continue;
+            }
+
+            int recordStart = buffer.position();
+            int bodyStart = recordStart + RECORD_HEADER_SIZE;
+            int limit = buffer.limit();
+            checksum.reset();
+            checksum.update(buffer.position(bodyStart).limit(bodyStart + length));
+            if ((int) checksum.getValue() != buffer.getInt(recordStart + 4)) {
+                buffer.limit(limit).position(recordStart);
+                break;
+            }
+            buffer.position(bodyStart);
+            sequence++;
+            if (sequence > snapshotSequence) {
+                if (snapshot == null || snapshot.getCaptureSequence(buffer.getInt(bodyStart + 1)) < sequence) {
+                    try {
+                        apply(buffer, service, seatArrays, snapshot != null);
+                    } catch (BufferUnderflowException | IllegalStateException e) {
+                        throw new IOException("Journal record at offset " + (bufferOffset + recordStart) + " cannot be applied", e);
+                    }
+                }
+                records++;
+            }
+            buffer.limit(limit).position(bodyStart + length);
+        }
+        return new long[]{records, sequence, bufferOffset + buffer.position()};
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    private static void apply(ByteBuffer record, BookingService service, int[][] seatArrays, boolean afterSnapshot) {
+        byte type = record.get();
+        int id = record.getInt();
+        if (type != INIT && afterSnapshot && !service.containsVoyage(id)) {
+            return; // The voyage has been cancelled while the snapshot was written
+        }
+        switch (type) {
+            case INIT:
+                byte busType = record.get();
+                int numberOfRows = record.getInt();
+                long price = record.getLong();
+                double refundCut = record.getDouble();
+                double premiumFee = record.getDouble();
+                String from = readString(record);
+                String to = readString(record);
+                Bus bus = newBus(service, busType, id, from, to, numberOfRows, price, refundCut, premiumFee);
+                if (!service.addVoyage(bus)) {
+                    throw new IllegalStateException("voyage " + id + " already exists");
+                }
+                break;
+            case SELL:
+            case REFUND:
+                int count = record.getInt();
+                if (count < 0 || count > record.remaining() / 4) {
+                    throw new BufferUnderflowException();
+                }
+                int[] seatNumbers = count < seatArrays.length ? seatArrays[count] : new int[count];
+                if (seatNumbers == null) {
+                    seatNumbers = seatArrays[count] = new int[count];
+                }
+                for (int i = 0; i < count; i++) {
+                    seatNumbers[i] = record.getInt();
+                }
+                boolean applied = type == SELL ? service.sellSeats(id, seatNumbers) : service.refundSeats(id, seatNumbers);
+                if (!applied) {
+                    throw new IllegalStateException((type == SELL ? "sale" : "refund") + " on voyage " + id + " fails");
+                }
+                break;
+            case CANCEL:
+                if (service.cancelVoyage(id) == null) {
+                    throw new IllegalStateException("voyage " + id + " does not exist");
+                }
+                break;
+            default:
+                throw new IllegalStateException("unknown record type " + type);
+        }
+    }
+
+    /**
+     * @param bus A voyage.
+     * @return Code of the bus type of the voyage, as stored in journals and snapshots, which is the code of its seat layout.
+     */
+    static byte busType(Bus bus) {
+        return bus.getLayout().getCode();
+    }
+
+    /**
+     * Creates a voyage from the fields stored in journals and snapshots.
+     *
+     * @return The voyage.
+     * @throws IllegalStateException If the bus type code is unknown.
+     */
+    static Bus newBus(BookingService service, byte busType, int id, String from, String to, int numberOfRows, long price,
+                      double refundCut, double premiumFee) {
+        SeatLayout layout = SeatLayout.forCode(busType);
+        if (layout == null) {
+            throw new IllegalStateException("unknown bus type " + busType);
+        }
+        double lira = Money.toDouble(price); // Converts back to the same fixed point amount
+        return service.newVoyage(layout, id, from, to, numberOfRows, lira, layout.isRefundable() ? refundCut : 0,
+                layout.isPremiumFeeUsed() ? premiumFee : 0);
+    }
+
+    static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0 || length > record.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
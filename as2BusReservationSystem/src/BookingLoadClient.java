@@ -0,0 +1,88 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Load generator for {@link BookingServer} that measures the throughput and the latency percentiles of the commands.
+ * Every connection initializes its own voyage and then alternates sales and refunds on it, with every tenth command
+ * being a sale or a refund on voyage 1, which is shared by all connections to create contention.
+ */
+public class BookingLoadClient {
+    private static final int ROWS = 50;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.out.println("ERROR: This program works exactly with four command line arguments, which are the host, the port, the number of connections and the number of commands per connection. Sample usage can be as follows: \"java BookingLoadClient localhost 7070 64 10000\". Program is going to terminate!");
+            return;
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int connections = Integer.parseInt(args[2]);
+        int commandsPerConnection = Integer.parseInt(args[3]);
+
+        try (Socket socket = new Socket(host, port)) { // The shared voyage, an error reply is fine if it already exists
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            request(writer, reader, "INIT_VOYAGE\tStandard\t1\tAnkara\tIstanbul\t" + ROWS + "\t50\t10");
+        }
+
+        long[][] latencies = new long[connections][];
+        Thread[] threads = new Thread[connections];
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            int connection = i;
+            threads[i] = new Thread(() -> latencies[connection] = run(host, port, connection + 2, commandsPerConnection));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.println(String.format(Locale.US, "%d commands over %d connections in %.3f s, %.0f commands/s",
+                all.length, connections, elapsed / 1e9, all.length / (elapsed / 1e9)));
+        System.out.println(String.format(Locale.US, "latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                percentile(all, 0.50) / 1e3, percentile(all, 0.99) / 1e3, percentile(all, 0.999) / 1e3, all[all.length - 1] / 1e3));
+    }
+
+    private static long[] run(String host, int port, int voyageId, int commands) {
+        long[] latencies = new long[commands];
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            request(writer, reader, "INIT_VOYAGE\tStandard\t" + voyageId + "\tIzmir\tBursa\t" + ROWS + "\t25\t20");
+            for (int i = 0; i < commands; i++) {
+                int target = i % 10 == 9 ? 1 : voyageId;
+                int seat = 1 + (i / 2) % (ROWS * 4);
+                String command = (i % 2 == 0 ? "SELL_TICKET\t" : "REFUND_TICKET\t") + target + "\t" + seat;
+                long begin = System.nanoTime();
+                request(writer, reader, command);
+                latencies[i] = System.nanoTime() - begin;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return latencies;
+    }
+
+    private static void request(Writer writer, BufferedReader reader, String command) throws IOException {
+        writer.write(command);
+        writer.write('\n');
+        writer.flush();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) { // Reads until the empty line that terminates the reply
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,296 @@
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the executed commands, shared by all booking systems of a booking service.
+ * <p>
+ * Every command type has a counter of executions, a counter of executions that logged an error and a histogram of its
+ * latency, from the moment the line is parsed until its result is logged. Latencies are sampled, each booking system times
+ * one of every {@link #getLatencySampleInterval()} commands of a type, while the counters count every command. Errors are also counted by their type, and the
+ * seats that are sold, refunded and refunded by a cancellation are counted per bus type. All counters are {@link LongAdder}s,
+ * so threads that execute commands at the same time do not contend on a single memory location.
+ * <p>
+ * Metrics are collected when the system property {@code booking.metrics} is true, see {@link BookingJournal#openService()},
+ * and the summary is printed to the standard error stream at exit.
+ */
+public class BookingMetrics {
+    /**
+     * Types of the commands in a command file.
+     */
+    public enum Command {
+        INIT_VOYAGE, SELL_TICKET, SELL_BEST, HOLD, CONFIRM, RELEASE, REFUND_TICKET, PRINT_VOYAGE, CANCEL_VOYAGE, Z_REPORT, SEARCH,
+        UNKNOWN
+    }
+
+    /**
+     * Types of the errors that a command can log.
+     */
+    public enum ErrorType {
+        UNKNOWN_COMMAND, ERRONEOUS_USAGE, INVALID_ARGUMENT, DUPLICATE_VOYAGE, VOYAGE_NOT_FOUND, NO_SUCH_SEAT, SEATS_ALREADY_SOLD,
+        SEATS_ALREADY_EMPTY, SEATS_UNAVAILABLE, NOT_REFUNDABLE, HOLD_NOT_FOUND, HOLD_EXPIRED
+    }
+
+    private static final int BUS_TYPES = Byte.MAX_VALUE + 1; // Indexed by the code of the seat layout
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder[] commands = newAdders(Command.values().length);
+    private final LongAdder[] failedCommands = newAdders(Command.values().length);
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Command.values().length];
+    private final LongAdder[] errors = newAdders(ErrorType.values().length);
+    private final LongAdder[] seatsSold = newAdders(BUS_TYPES);
+    private final LongAdder[] seatsRefunded = newAdders(BUS_TYPES);
+    private final LongAdder[] seatsCancelled = newAdders(BUS_TYPES);
+
+    private final int latencySampleInterval;
+
+    /**
+     * Constructor for BookingMetrics.
+     *
+     * @param latencySampleInterval One of this many commands of a type is timed, 1 to time every command.
+     */
+    public BookingMetrics(int latencySampleInterval) {
+        if (latencySampleInterval < 1) {
+            throw new IllegalArgumentException("Latency sample interval must be positive: " + latencySampleInterval);
+        }
+        this.latencySampleInterval = latencySampleInterval;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * @return One of this many commands of a type is timed.
+     */
+    public int getLatencySampleInterval() {
+        return latencySampleInterval;
+    }
+
+    /**
+     * Records an executed command.
+     *
+     * @param command Type of the command.
+     * @param nanos   Time it took to execute the command in nanoseconds, negative if the command was not timed.
+     * @param failed  true if the command logged an error, false otherwise.
+     */
+    public void recordCommand(Command command, long nanos, boolean failed) {
+        commands[command.ordinal()].increment();
+        if (failed) {
+            failedCommands[command.ordinal()].increment();
+        }
+        if (nanos >= 0) {
+            latencies[command.ordinal()].record(nanos);
+        }
+    }
+
+    /**
+     * Records a logged error.
+     *
+     * @param type Type of the error.
+     */
+    public void recordError(ErrorType type) {
+        errors[type.ordinal()].increment();
+    }
+
+    /**
+     * Records the seats of a successful sale.
+     *
+     * @param voyage The voyage.
+     * @param seats  Number of sold seats.
+     */
+    public void recordSold(Bus voyage, int seats) {
+        seatsSold[busTypeIndex(voyage)].add(seats);
+    }
+
+    /**
+     * Records the seats of a successful refund.
+     *
+     * @param voyage The voyage.
+     * @param seats  Number of refunded seats.
+     */
+    public void recordRefunded(Bus voyage, int seats) {
+        seatsRefunded[busTypeIndex(voyage)].add(seats);
+    }
+
+    /**
+     * Records the seats that are refunded because their voyage is cancelled.
+     *
+     * @param voyage The cancelled voyage.
+     * @param seats  Number of seats that were sold.
+     */
+    public void recordCancelled(Bus voyage, int seats) {
+        seatsCancelled[busTypeIndex(voyage)].add(seats);
+    }
+
+    private static int busTypeIndex(Bus voyage) {
+        return voyage.getLayout().getCode();
+    }
+
+    /**
+     * Copies the current values of the metrics. Commands that are executed during the copy may be partially included.
+     *
+     * @return The copy.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Prints the summary of the metrics to a stream when the virtual machine shuts down.
+     *
+     * @param out Stream to print to.
+     */
+    public void printAtExit(PrintStream out) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> out.print(snapshot())));
+    }
+
+    /**
+     * Point-in-time copy of the metrics.
+     */
+    public static final class Snapshot {
+        private final long elapsedNanos;
+        private final long[] commands;
+        private final long[] failedCommands;
+        private final LatencyHistogram.Snapshot[] latencies;
+        private final long[] errors;
+        private final long[] seatsSold;
+        private final long[] seatsRefunded;
+        private final long[] seatsCancelled;
+
+        private Snapshot(BookingMetrics metrics) {
+            elapsedNanos = System.nanoTime() - metrics.startNanos;
+            commands = sums(metrics.commands);
+            failedCommands = sums(metrics.failedCommands);
+            latencies = new LatencyHistogram.Snapshot[metrics.latencies.length];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = metrics.latencies[i].snapshot();
+            }
+            errors = sums(metrics.errors);
+            seatsSold = sums(metrics.seatsSold);
+            seatsRefunded = sums(metrics.seatsRefunded);
+            seatsCancelled = sums(metrics.seatsCancelled);
+        }
+
+        private static long[] sums(LongAdder[] adders) {
+            long[] sums = new long[adders.length];
+            for (int i = 0; i < adders.length; i++) {
+                sums[i] = adders[i].sum();
+            }
+            return sums;
+        }
+
+        /**
+         * @return Time since the metrics were created, in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @param command Type of the command.
+         * @return Number of executions of the command.
+         */
+        public long getCount(Command command) {
+            return commands[command.ordinal()];
+        }
+
+        /**
+         * @param command Type of the command.
+         * @return Number of executions of the command that logged an error.
+         */
+        public long getFailedCount(Command command) {
+            return failedCommands[command.ordinal()];
+        }
+
+        /**
+         * @param command Type of the command.
+         * @return Latencies of the sampled executions of the command.
+         */
+        public LatencyHistogram.Snapshot getLatency(Command command) {
+            return latencies[command.ordinal()];
+        }
+
+        /**
+         * @param type Type of the error.
+         * @return Number of times the error was logged.
+         */
+        public long getErrorCount(ErrorType type) {
+            return errors[type.ordinal()];
+        }
+
+        /**
+         * @param busType Name of a seat layout, for example "Standard".
+         * @return Number of seats sold on voyages of the bus type.
+         */
+        public long getSeatsSold(String busType) {
+            return seatsSold[busTypeIndex(busType)];
+        }
+
+        /**
+         * @param busType Name of a seat layout, for example "Standard".
+         * @return Number of seats refunded on voyages of the bus type, leaving out the refunds of cancelled voyages.
+         */
+        public long getSeatsRefunded(String busType) {
+            return seatsRefunded[busTypeIndex(busType)];
+        }
+
+        /**
+         * @param busType Name of a seat layout, for example "Standard".
+         * @return Number of seats refunded because their voyage of the bus type was cancelled.
+         */
+        public long getSeatsCancelled(String busType) {
+            return seatsCancelled[busTypeIndex(busType)];
+        }
+
+        private static int busTypeIndex(String busType) {
+            SeatLayout layout = SeatLayout.forName(busType);
+            if (layout == null) {
+                throw new IllegalArgumentException("Unknown bus type " + busType);
+            }
+            return layout.getCode();
+        }
+
+        /**
+         * @return Summary of the metrics as a table of commands, a list of errors and a table of seats per bus type.
+         */
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder summary = new StringBuilder();
+            summary.append(String.format(Locale.US, "Booking metrics after %.3f s%n", seconds));
+            summary.append(String.format(Locale.US, "%-14s %10s %10s %10s %10s %10s %10s %10s %10s%n", "Command", "Count", "Errors",
+                    "Mean us", "p50 us", "p90 us", "p99 us", "p99.9 us", "Max us"));
+            for (Command command : Command.values()) {
+                if (getCount(command) == 0) {
+                    continue;
+                }
+                LatencyHistogram.Snapshot latency = getLatency(command);
+                summary.append(String.format(Locale.US, "%-14s %10d %10d %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f%n", command,
+                        getCount(command), getFailedCount(command), latency.getMean() / 1e3, latency.getValueAtPercentile(50) / 1e3,
+                        latency.getValueAtPercentile(90) / 1e3, latency.getValueAtPercentile(99) / 1e3,
+                        latency.getValueAtPercentile(99.9) / 1e3, latency.getMax() / 1e3));
+            }
+            for (ErrorType type : ErrorType.values()) {
+                if (getErrorCount(type) != 0) {
+                    summary.append(String.format(Locale.US, "ERROR %-20s %10d%n", type, getErrorCount(type)));
+                }
+            }
+            summary.append(String.format(Locale.US, "%-14s %10s %10s %10s %10s %10s%n", "Seats", "Sold", "Refunded", "Cancelled",
+                    "Sold/s", "Refunded/s"));
+            for (SeatLayout layout : SeatLayout.values()) {
+                int i = layout.getCode();
+                summary.append(String.format(Locale.US, "%-14s %10d %10d %10d %10.1f %10.1f%n", layout.getName(), seatsSold[i],
+                        seatsRefunded[i], seatsCancelled[i], seatsSold[i] / seconds, seatsRefunded[i] / seconds));
+            }
+            return summary.toString();
+        }
+    }
+}
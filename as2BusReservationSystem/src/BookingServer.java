@@ -0,0 +1,128 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running local server that executes the tab-separated booking commands received over a socket.
+ * Every connection gets its own thread (a virtual thread when the runtime supports it) and its own booking system,
+ * while all connections share a single booking service.
+ * <p>
+ * Each line sent by a client is executed as one command. The reply consists of the lines that the command would append to the
+ * output file, that is the echoed command followed by its result, and is terminated by an empty line.
+ */
+public class BookingServer {
+    private final BookingService service;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionExecutor;
+
+    /**
+     * Constructor for BookingServer, binds the server to the loopback address.
+     *
+     * @param service Booking service that is shared by all connections.
+     * @param port    Port to listen on, 0 picks a free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public BookingServer(BookingService service, int port) throws IOException {
+        this.service = service;
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.connectionExecutor = newConnectionExecutor();
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread per task. Virtual threads need Java 21,
+     * on older runtimes it falls back to a cached pool of platform threads.
+     *
+     * @return Executor for the connection handlers.
+     */
+    static ExecutorService newConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * @return Port that the server is listening on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed, handing every connection to its own thread.
+     */
+    public void serve() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionExecutor.execute(() -> handle(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new connections. Connections that are already open are served until their clients close them.
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        connectionExecutor.shutdown();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            connection.setTcpNoDelay(true);
+            LogWriter log = new LogWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8), false);
+            BookingSystem bookingSystem = new BookingSystem(service, log);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) { // Empty lines are skipped, same as in the command files
+                    continue;
+                }
+                bookingSystem.executeCommand(line);
+                log.append('\n'); // Terminates the reply
+                if (log.checkError()) { // Also flushes the reply
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("ERROR: This program works exactly with one command line argument, which is the port to listen on. Sample usage can be as follows: \"java BookingServer 7070\". Program is going to terminate!");
+            return;
+        }
+        BookingService service = BookingJournal.openService(); // Recovered from the journal if one is configured
+        if (service == null) {
+            return;
+        }
+        if (service.getJournal() != null) {
+            System.out.println("Recovered " + service.getJournal().getRecoveredRecords() + " journal records");
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(service::close)); // Syncs the records of a partial batch on shutdown
+        BookingServer server = new BookingServer(service, Integer.parseInt(args[0]));
+        System.out.println("Listening on port " + server.getPort());
+        server.serve();
+    }
+}
@@ -0,0 +1,660 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the voyages that can be used by many threads at once.
+ * Voyages are kept in a {@link VoyageRegistry} by their IDs, and every voyage guards its own seats and revenue with its monitor,
+ * so commands on different voyages never block each other while a multi-seat sale or refund on a voyage is all-or-nothing.
+ * <p>
+ * The registry visits the voyages in ID order for the Z reports and snapshots, and the voyages are also indexed by their
+ * route, see {@link #searchVoyages(String, String, int)}.
+ * <p>
+ * Without a journal, sales and refunds of voyages whose seats are kept in a {@link ConcurrentSeatMap} do not take the voyage's
+ * monitor at all, see {@link #setLockFreeSeats(boolean)}, so that the sales of a hot voyage do not wait for each other.
+ * <p>
+ * If the service has a journal, every successful change is appended to it while the voyage's monitor is held, and committed
+ * before the method returns. The thread whose record completes a snapshot interval also takes the snapshot.
+ * <p>
+ * Seats can be held for a while before they are sold, see {@link #holdSeats(Bus, int[], long)}. Pending holds are kept in a
+ * concurrent map by their ID, which decides the single outcome of every hold: whichever of the confirmation, the release and
+ * the expiry removes the hold from the map resolves it. Expired holds are kept for an hour after their deadline, so that
+ * confirming or releasing one reports that it has expired, whether or not a command has released it already. Expiry runs
+ * on a {@link TimerWheel}, which the commands that need accurate empty seats advance before they run. Holds expire by the wall clock, or by the number of commands when a command
+ * file is replayed, see {@link #useCommandClock()}. Holds are kept in memory only, they are not journaled, and a confirmed hold is
+ * journaled as a sale.
+ */
+public class BookingService {
+    private static final int HOLD_WHEEL_BUCKETS = 4096;
+    private static final long HOLD_TICK_NANOS = 10_000_000L; // 10 ms, a rotation of the wheel is about 41 seconds
+    private static final long COMMAND_NANOS = 1_000_000_000L; // Time that a command takes on the command clock
+    private static final long EXPIRED_HOLD_RETENTION_NANOS = 3_600_000_000_000L; // An hour, or 3600 commands on the command clock
+
+    private final VoyageRegistry voyages = new VoyageRegistry();
+    private final RouteIndex routes = new RouteIndex();
+    private final ConcurrentHashMap<Long, SeatHold> holds = new ConcurrentHashMap<>();
+    private final AtomicLong lastHoldId = new AtomicLong();
+    private final LinkedHashMap<Long, SeatHold> expiredHolds = new LinkedHashMap<>(); // Guarded by itself, in the order they expired
+    private LongSupplier clock = System::nanoTime;
+    private AtomicLong startedCommands = null; // Time of the command clock, null if holds expire by another clock
+    private TimerWheel<SeatHold> holdTimers = new TimerWheel<>(HOLD_WHEEL_BUCKETS, HOLD_TICK_NANOS, clock.getAsLong()); // Guarded by itself
+    private BookingJournal journal = null;
+    private BookingMetrics metrics = null;
+    private VoyageColumns columns = null;
+    private OffHeapSeatInventory seatInventory = null;
+    private boolean lockFreeSeats = false;
+
+    /**
+     * Sets the journal that the changes are recorded to. It must be set before the service is shared with other threads.
+     *
+     * @param journal The journal, null to keep the changes in memory only.
+     */
+    public void setJournal(BookingJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return The journal of the service, null if it has none.
+     */
+    public BookingJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Sets the metrics that the booking systems of the service record their commands to. It must be set before the service is
+     * shared with other threads or used by a booking system.
+     *
+     * @param metrics The metrics, null to not collect any.
+     */
+    public void setMetrics(BookingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The metrics of the service, null if it collects none.
+     */
+    public BookingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the clock that the holds expire by, which is {@link System#nanoTime()} by default. It must be set before any seat is held.
+     *
+     * @param clock Clock that returns the current time in nanoseconds.
+     */
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+        this.holdTimers = new TimerWheel<>(HOLD_WHEEL_BUCKETS, HOLD_TICK_NANOS, clock.getAsLong());
+        this.startedCommands = null;
+    }
+
+    /**
+     * Makes the holds expire by the commands that are executed instead of the wall clock: every command moves the clock one
+     * second forward before it runs, see {@link #startCommand()}, so a hold of 60 seconds can be confirmed or released by the
+     * next 60 commands and has expired for the command after them. Whether a hold has
+     * expired then depends only on the commands before it and not on how fast they are replayed, so every way of executing a
+     * command file logs the same. It must be set before any seat is held.
+     */
+    public void useCommandClock() {
+        AtomicLong startedCommands = new AtomicLong();
+        setClock(() -> startedCommands.get() * COMMAND_NANOS);
+        this.startedCommands = startedCommands;
+    }
+
+    /**
+     * @return true if the holds expire by the commands that are executed, see {@link #useCommandClock()}, false if they expire
+     * by the wall clock or another clock.
+     */
+    public boolean isCommandClock() {
+        return startedCommands != null;
+    }
+
+    /**
+     * Moves the command clock forward by one command, which the booking systems call before every command. It does nothing if
+     * the holds expire by another clock.
+     */
+    public void startCommand() {
+        AtomicLong startedCommands = this.startedCommands;
+        if (startedCommands != null) {
+            startedCommands.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sets the store that new voyages keep their state in. It must be set before any voyage is created.
+     *
+     * @param columns Columnar store of the voyages, null to keep every voyage in an {@link ObjectBus} of its own.
+     */
+    public void setVoyageColumns(VoyageColumns columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @return Columnar store of the voyages, null if every voyage is kept in an object of its own.
+     */
+    public VoyageColumns getVoyageColumns() {
+        return columns;
+    }
+
+    /**
+     * Sets the inventory that the seats of new voyages are allocated from. It must be set before any voyage is created.
+     *
+     * @param seatInventory Off-heap seat inventory, null to keep the seats on the heap.
+     */
+    public void setSeatInventory(OffHeapSeatInventory seatInventory) {
+        this.seatInventory = seatInventory;
+    }
+
+    /**
+     * @return Off-heap seat inventory of the service, null if the seats are kept on the heap.
+     */
+    public OffHeapSeatInventory getSeatInventory() {
+        return seatInventory;
+    }
+
+    /**
+     * Sets whether the seats of new voyages are kept in a {@link ConcurrentSeatMap}, so that they can be sold and refunded
+     * without the voyage's monitor when there is no journal. Such seats are kept on the heap, the seat inventory is not used
+     * for them. It must be set before any voyage is created.
+     *
+     * @param lockFreeSeats true for lock-free seats, false to guard the seats with the voyage's monitor only.
+     */
+    public void setLockFreeSeats(boolean lockFreeSeats) {
+        this.lockFreeSeats = lockFreeSeats;
+    }
+
+    /**
+     * @return true if the seats of new voyages can be sold and refunded without the voyage's monitor.
+     */
+    public boolean isLockFreeSeats() {
+        return lockFreeSeats;
+    }
+
+    /**
+     * Creates a voyage in the store of the service, without registering it, see {@link #addVoyage(Bus)}.
+     *
+     * @param layout       Seat layout of the bus.
+     * @param id           The unique identifier for the bus.
+     * @param from         Starting point of the voyage.
+     * @param to           Destination of the voyage.
+     * @param numberOfRows Number of rows in the bus.
+     * @param price        Price per seat.
+     * @param refundCut    Percentage of the price deducted on refund, 0 if the layout is not refundable.
+     * @param premiumFee   Percentage added to the price for premium seats, 0 if the layout has none.
+     * @return The voyage.
+     */
+    public Bus newVoyage(SeatLayout layout, int id, String from, String to, int numberOfRows, double price, double refundCut,
+                         double premiumFee) {
+        int totalSeats = numberOfRows * layout.getSeatsPerRow();
+        SeatMap seats = null;
+        if (lockFreeSeats) {
+            seats = new ConcurrentSeatMap(totalSeats);
+        } else if (seatInventory != null) {
+            seats = seatInventory.allocate(totalSeats);
+        }
+        if (columns != null) {
+            return columns.newVoyage(layout, id, from, to, numberOfRows, price, refundCut, premiumFee, seats);
+        }
+        return new ObjectBus(layout, id, from, to, numberOfRows, price, refundCut, premiumFee, seats);
+    }
+
+    /**
+     * Registers a new voyage.
+     *
+     * @param bus Voyage to register.
+     * @return true if the voyage is registered, false if there is already a voyage with the same ID, the given voyage is then
+     * cancelled, which releases its seats.
+     */
+    public boolean addVoyage(Bus bus) {
+        bus.setFrom(routes.intern(bus.getFrom()));
+        bus.setTo(routes.intern(bus.getTo()));
+        long sequence = 0;
+        synchronized (bus) { // No command can reach the voyage before it is indexed and its initialization is journaled
+            if (voyages.putIfAbsent(bus.getId(), bus) != null) {
+                bus.cancel(); // The voyage is discarded, which releases its seats if they are kept off the heap
+                return false;
+            }
+            routes.add(bus);
+            if (journal != null) {
+                sequence = journal.appendInit(bus);
+            }
+        }
+        if (journal != null) {
+            commit(sequence);
+        }
+        return true;
+    }
+
+    /**
+     * Looks up a voyage.
+     *
+     * @param id ID of the voyage.
+     * @return The voyage, null if there is no voyage with the given ID.
+     */
+    public Bus getVoyage(int id) {
+        return voyages.get(id);
+    }
+
+    /**
+     * Checks whether there is a voyage with the given ID.
+     *
+     * @param id ID of the voyage.
+     * @return true if the voyage exists, false otherwise.
+     */
+    public boolean containsVoyage(int id) {
+        return voyages.containsKey(id);
+    }
+
+    /**
+     * Sells one or more seats of a voyage atomically.
+     *
+     * @param id          ID of the voyage.
+     * @param seatNumbers The seat numbers to sell.
+     * @return true if all seats are sold, false if the voyage does not exist or any of the seats cannot be sold.
+     */
+    public boolean sellSeats(int id, int... seatNumbers) {
+        Bus voyage = voyages.get(id);
+        return voyage != null && sellSeats(voyage, seatNumbers);
+    }
+
+    /**
+     * Sells one or more seats of a voyage that has been looked up before atomically.
+     *
+     * @param voyage      The voyage.
+     * @param seatNumbers The seat numbers to sell.
+     * @return true if all seats are sold, false if the voyage has been cancelled or any of the seats cannot be sold.
+     */
+    public boolean sellSeats(Bus voyage, int... seatNumbers) {
+        expireHolds();
+        if (journal == null) {
+            return voyage.sellSeatsLockFree(seatNumbers);
+        }
+        long sequence;
+        synchronized (voyage) {
+            if (!voyage.sellSeats(seatNumbers)) {
+                return false;
+            }
+            sequence = journal.appendSell(voyage.getId(), seatNumbers);
+        }
+        commit(sequence);
+        return true;
+    }
+
+    /**
+     * Sells the best empty seats of a voyage atomically, see {@link Bus#findBestSeats(int, int)}.
+     *
+     * @param voyage    The voyage.
+     * @param count     Number of seats, must be positive.
+     * @param seatClass Index of the seat class in the voyage's layout, -1 for seats of any class.
+     * @return The sold seat numbers in ascending order, null if the voyage has been cancelled or does not have enough empty seats.
+     */
+    public int[] sellBestSeats(Bus voyage, int count, int seatClass) {
+        expireHolds();
+        long sequence;
+        int[] seatNumbers;
+        synchronized (voyage) { // No other sale can take the seats between picking and selling them, except a lock-free one
+            do {
+                seatNumbers = voyage.findBestSeats(count, seatClass);
+                if (seatNumbers == null || voyage.isCancelled()) {
+                    return null;
+                }
+            } while (!voyage.sellSeats(seatNumbers)); // A lock-free sale has taken some of them, picks again
+            if (journal == null) {
+                return seatNumbers;
+            }
+            sequence = journal.appendSell(voyage.getId(), seatNumbers);
+        }
+        commit(sequence);
+        return seatNumbers;
+    }
+
+    /**
+     * Holds one or more empty seats of a voyage atomically until they are confirmed or released, or the time to live passes.
+     *
+     * @param voyage      The voyage.
+     * @param seatNumbers The seat numbers to hold.
+     * @param ttlNanos    Time to live of the hold in nanoseconds. On the command clock, the hold lasts one command more, so that
+     *                    the time to live counts the commands after the hold, see {@link #useCommandClock()}.
+     * @return The hold, null if the voyage has been cancelled or any of the seats is sold or held.
+     */
+    public SeatHold holdSeats(Bus voyage, int[] seatNumbers, long ttlNanos) {
+        expireHolds();
+        long deadline = clock.getAsLong() + ttlNanos + (startedCommands != null ? COMMAND_NANOS : 0);
+        SeatHold hold;
+        synchronized (voyage) {
+            if (!voyage.holdSeats(seatNumbers)) {
+                return null;
+            }
+            hold = new SeatHold(lastHoldId.incrementAndGet(), voyage, seatNumbers.clone(), deadline);
+            holds.put(hold.getId(), hold);
+        }
+        synchronized (holdTimers) {
+            if (holds.get(hold.getId()) == hold) { // Not resolved in the meantime, a resolution cancels the timer after this
+                hold.timer = holdTimers.schedule(hold, hold.getDeadlineNanos());
+            }
+        }
+        return hold;
+    }
+
+    /**
+     * Looks up a hold that is pending or has expired, and whose deadline has not passed more than an hour ago. Since that does
+     * not depend on whether an expired hold has been released already, confirming or releasing a hold reports the same
+     * outcome whatever the commands that have run in between.
+     *
+     * @param id ID of the hold.
+     * @return The hold, null if there is no such hold with the given ID, for example because it has been confirmed or released.
+     */
+    public SeatHold getHold(long id) {
+        SeatHold hold = holds.get(id);
+        if (hold == null) {
+            synchronized (expiredHolds) {
+                hold = expiredHolds.get(id);
+            }
+        }
+        return hold != null && !isForgotten(hold, clock.getAsLong()) ? hold : null;
+    }
+
+    /**
+     * @return true if the deadline of the hold has passed more than an hour ago, so that it is no longer looked up.
+     */
+    private static boolean isForgotten(SeatHold hold, long nowNanos) {
+        return nowNanos - hold.getDeadlineNanos() >= EXPIRED_HOLD_RETENTION_NANOS;
+    }
+
+    /**
+     * Keeps a hold that has expired, so that it can still be looked up for an hour, and forgets the oldest expired holds that
+     * are past that.
+     *
+     * @param hold The hold, which has been resolved by its expiry.
+     */
+    private void retainExpired(SeatHold hold) {
+        long now = clock.getAsLong();
+        synchronized (expiredHolds) {
+            expiredHolds.put(hold.getId(), hold);
+            Iterator<SeatHold> oldest = expiredHolds.values().iterator();
+            while (oldest.hasNext() && isForgotten(oldest.next(), now)) {
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @return Number of pending holds, including the expired ones that have not been released yet.
+     */
+    public int getHoldCount() {
+        return holds.size();
+    }
+
+    /**
+     * Sells the seats of a hold. The deadline is checked here as well, so a hold cannot be confirmed after it has expired,
+     * even if the timer wheel has not released it yet.
+     *
+     * @param hold The hold.
+     * @return true if the seats are sold, false if the hold has expired or has already been resolved, or the voyage has been cancelled.
+     */
+    public boolean confirmHold(SeatHold hold) {
+        if (hold.isExpired(clock.getAsLong())) {
+            expire(hold);
+            return false;
+        }
+        if (!resolve(hold)) {
+            return false;
+        }
+        Bus voyage = hold.getVoyage();
+        long sequence;
+        synchronized (voyage) {
+            boolean confirmed;
+            try {
+                confirmed = voyage.confirmSeats(hold.getSeatNumbers());
+            } catch (ArithmeticException e) { // The revenue would be out of range, the hold has been resolved all the same
+                voyage.releaseSeats(hold.getSeatNumbers());
+                throw e;
+            }
+            if (!confirmed) {
+                voyage.releaseSeats(hold.getSeatNumbers()); // Cancelled, nothing to sell
+                return false;
+            }
+            if (journal == null) {
+                return true;
+            }
+            sequence = journal.appendSell(voyage.getId(), hold.getSeatNumbers());
+        }
+        commit(sequence);
+        return true;
+    }
+
+    /**
+     * Makes the seats of a hold empty again.
+     *
+     * @param hold The hold.
+     * @return true if the seats are released, false if the hold has expired or has already been resolved.
+     */
+    public boolean releaseHold(SeatHold hold) {
+        if (hold.isExpired(clock.getAsLong())) {
+            expire(hold);
+            return false;
+        }
+        if (!resolve(hold)) {
+            return false;
+        }
+        hold.getVoyage().releaseSeats(hold.getSeatNumbers());
+        return true;
+    }
+
+    /**
+     * Checks whether the deadline of a hold has passed on the clock of the service.
+     *
+     * @param hold The hold.
+     * @return true if the hold has expired, false otherwise.
+     */
+    public boolean isExpired(SeatHold hold) {
+        return hold.isExpired(clock.getAsLong());
+    }
+
+    /**
+     * Releases the seats of a hold whose deadline has passed before the timer wheel gets to it.
+     *
+     * @param hold The expired hold.
+     */
+    private void expire(SeatHold hold) {
+        if (resolve(hold)) {
+            hold.getVoyage().releaseSeats(hold.getSeatNumbers());
+            retainExpired(hold);
+        }
+    }
+
+    /**
+     * Takes the outcome of a hold, only one caller can succeed for every hold.
+     *
+     * @param hold The hold.
+     * @return true if the caller resolves the hold, false if it has already been resolved.
+     */
+    private boolean resolve(SeatHold hold) {
+        if (!holds.remove(hold.getId(), hold)) {
+            return false;
+        }
+        synchronized (holdTimers) {
+            if (hold.timer != null) {
+                holdTimers.cancel(hold.timer);
+                hold.timer = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases the seats of the holds whose deadline has passed. The timer wheel is advanced while it is locked, and the seats
+     * are released after that, so that no voyage monitor is taken while the wheel is locked. It returns at once if nothing is held.
+     *
+     * @return Number of released holds.
+     */
+    public int expireHolds() {
+        if (holds.isEmpty()) {
+            return 0;
+        }
+        List<SeatHold> expired = new ArrayList<>();
+        synchronized (holdTimers) {
+            holdTimers.advance(clock.getAsLong(), expired::add);
+            for (SeatHold hold : expired) {
+                hold.timer = null;
+            }
+        }
+        int released = 0;
+        for (SeatHold hold : expired) {
+            if (holds.remove(hold.getId(), hold)) { // A confirmation or a release may have taken it first
+                hold.getVoyage().releaseSeats(hold.getSeatNumbers());
+                retainExpired(hold);
+                released++;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Refunds one or more seats of a voyage atomically.
+     *
+     * @param id          ID of the voyage.
+     * @param seatNumbers The seat numbers to refund.
+     * @return true if all seats are refunded, false if the voyage does not exist or any of the seats cannot be refunded.
+     */
+    public boolean refundSeats(int id, int... seatNumbers) {
+        Bus voyage = voyages.get(id);
+        return voyage != null && refundSeats(voyage, seatNumbers);
+    }
+
+    /**
+     * Refunds one or more seats of a voyage that has been looked up before atomically.
+     *
+     * @param voyage      The voyage.
+     * @param seatNumbers The seat numbers to refund.
+     * @return true if all seats are refunded, false if the voyage has been cancelled or any of the seats cannot be refunded.
+     */
+    public boolean refundSeats(Bus voyage, int... seatNumbers) {
+        if (journal == null) {
+            return voyage.refundSeatsLockFree(seatNumbers);
+        }
+        long sequence;
+        synchronized (voyage) {
+            if (!voyage.refundSeats(seatNumbers)) {
+                return false;
+            }
+            sequence = journal.appendRefund(voyage.getId(), seatNumbers);
+        }
+        commit(sequence);
+        return true;
+    }
+
+    /**
+     * Removes a voyage from the registry and marks it as cancelled, so that sales that are still holding it fail from now on.
+     *
+     * @param id ID of the voyage.
+     * @return The cancelled voyage, null if there is no voyage with the given ID.
+     */
+    public Bus cancelVoyage(int id) {
+        if (journal == null) {
+            Bus voyage = voyages.remove(id);
+            if (voyage != null) {
+                voyage.cancel();
+                routes.remove(voyage);
+            }
+            return voyage;
+        }
+        while (true) {
+            Bus voyage = voyages.get(id);
+            if (voyage == null) {
+                return null;
+            }
+            long sequence;
+            synchronized (voyage) {
+                if (voyage.isCancelled()) {
+                    continue; // Another thread has cancelled and removed it in the meantime
+                }
+                voyage.cancel();
+                sequence = journal.appendCancel(id); // Journaled before the removal, so that a new voyage with the same ID comes after it
+                voyages.remove(id, voyage);
+            }
+            routes.remove(voyage); // Outside of the voyage's monitor, searches lock the route first
+            commit(sequence);
+            return voyage;
+        }
+    }
+
+    /**
+     * Commits a journal record and takes a snapshot when one is due. A failed snapshot loses nothing, the journal keeps its records.
+     *
+     * @param sequence Sequence number of the record.
+     */
+    private void commit(long sequence) {
+        journal.commit(sequence);
+        if (journal.isCheckpointDue(sequence)) {
+            try {
+                journal.checkpoint(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return true if there are no voyages, false otherwise.
+     */
+    public boolean isEmpty() {
+        return voyages.isEmpty();
+    }
+
+    /**
+     * @return Number of voyages.
+     */
+    public int size() {
+        return voyages.size();
+    }
+
+    /**
+     * Finds the voyages from one city to another that have at least the given number of empty seats, through the route index.
+     *
+     * @param from         Departure city.
+     * @param to           Destination city.
+     * @param minFreeSeats Minimum number of empty seats.
+     * @return The voyages in ascending ID order, empty if there are none.
+     */
+    public List<Bus> searchVoyages(String from, String to, int minFreeSeats) {
+        expireHolds();
+        return routes.search(from, to, minFreeSeats);
+    }
+
+    /**
+     * Takes a snapshot of the voyages ordered by their IDs.
+     *
+     * @return Voyages that were registered at the time of the call, in ascending ID order.
+     */
+    public List<Bus> getVoyagesSortedById() {
+        List<Bus> sorted = new ArrayList<>(voyages.size());
+        voyages.forEach(sorted::add);
+        return sorted;
+    }
+
+    /**
+     * Visits the voyages in ascending ID order without copying them. Voyages that are added or cancelled during the visit
+     * may or may not be visited.
+     *
+     * @param action Action to perform on every voyage.
+     */
+    public void forEachVoyageById(Consumer<Bus> action) {
+        voyages.forEach(action);
+    }
+
+    /**
+     * Syncs and closes the journal if there is one.
+     */
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of the voyage registry, written and loaded through a memory-mapped file.
+ * It holds every voyage with its route, bus type, pricing, seat bitmap and revenue, so that a booking service can be restored
+ * without replaying the history that led to it. A snapshot is written next to its {@link BookingJournal}, which replays only
+ * the records that follow the snapshot.
+ * <p>
+ * File layout: a 24 byte header ({@link #MAGIC}, {@link #VERSION}, the journal sequence number that the snapshot starts at and
+ * the number of voyages), the voyages in ascending ID order, and a CRC32 of everything before it. Every voyage is stored as
+ * {@code [int id][byte bus type][int rows][long price][double refund cut][double premium fee][long revenue]
+ * [long capture sequence][int length][from][int length][to][int word count][long[] seat bitmap]}, where the capture sequence
+ * is the journal sequence number at the moment the voyage was copied.
+ */
+public class BookingSnapshot {
+    static final int MAGIC = 0x4252534e; // "BRSN"
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int FIXED_VOYAGE_SIZE = 4 + 1 + 4 + 8 + 8 + 8 + 8 + 8 + 4 + 4 + 4;
+
+    private final long sequence;
+    private final int[] ids;
+    private final long[] captureSequences;
+
+    private BookingSnapshot(long sequence, int[] ids, long[] captureSequences) {
+        this.sequence = sequence;
+        this.ids = ids;
+        this.captureSequences = captureSequences;
+    }
+
+    /**
+     * @return Journal sequence number that the snapshot starts at, every record up to it is covered by the snapshot.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Looks up the moment a voyage was copied into the snapshot, the journal records of the voyage up to it are covered.
+     *
+     * @param id ID of the voyage.
+     * @return Journal sequence number at the capture, -1 if the voyage is not in the snapshot.
+     */
+    public long getCaptureSequence(int id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 ? captureSequences[index] : -1;
+    }
+
+    /**
+     * @return Number of voyages in the snapshot.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Copy of a voyage's state, taken under the voyage's monitor.
+     */
+    private static final class Capture {
+        private final Bus bus;
+        private final long captureSequence;
+        private final long revenue;
+        private final long[] seatWords;
+        private final byte[] from;
+        private final byte[] to;
+
+        private Capture(Bus bus, long captureSequence) {
+            this.bus = bus;
+            this.captureSequence = captureSequence;
+            this.revenue = bus.getRevenueUnits();
+            this.seatWords = bus.getSeatWords();
+            this.from = bus.getFrom().getBytes(StandardCharsets.UTF_8);
+            this.to = bus.getTo().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private int size() {
+            return FIXED_VOYAGE_SIZE + from.length + to.length + 8 * seatWords.length;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given voyages. The snapshot is written to a temporary file that replaces the previous snapshot
+     * only once it is complete and synced, so a crash leaves either the old or the new snapshot behind.
+     *
+     * @param path     Path of the snapshot file.
+     * @param sequence Journal sequence number that the snapshot starts at, taken before the voyages are listed.
+     * @param voyages  Voyages in ascending ID order. Voyages that are cancelled by the time they are copied are left out.
+     * @param journal  Journal whose sequence number is recorded for every voyage, null if the voyages are not journaled.
+     * @throws IOException If the snapshot cannot be written, or is larger than 2 GiB.
+     */
+    public static void write(Path path, long sequence, List<Bus> voyages, BookingJournal journal) throws IOException {
+        List<Capture> captures = new ArrayList<>(voyages.size());
+        long size = HEADER_SIZE + 4;
+        for (Bus bus : voyages) {
+            Capture capture;
+            synchronized (bus) { // Same lock order as the journaled commands, voyage first and journal second
+                if (bus.isCancelled()) {
+                    continue;
+                }
+                capture = new Capture(bus, journal != null ? journal.getSequence() : sequence);
+            }
+            captures.add(capture);
+            size += capture.size();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot of " + size + " bytes cannot be mapped");
+        }
+
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(sequence).putInt(captures.size()).putInt(0);
+            for (Capture capture : captures) {
+                Bus bus = capture.bus;
+                buffer.putInt(bus.getId()).put(BookingJournal.busType(bus)).putInt(bus.getNumberOfRows()).putLong(bus.getPriceUnits())
+                        .putDouble(bus.getRefundCut()).putDouble(bus.getPremiumFee())
+                        .putLong(capture.revenue).putLong(capture.captureSequence);
+                buffer.putInt(capture.from.length).put(capture.from).putInt(capture.to.length).put(capture.to);
+                buffer.putInt(capture.seatWords.length);
+                buffer.asLongBuffer().put(capture.seatWords);
+                buffer.position(buffer.position() + 8 * capture.seatWords.length);
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate().flip());
+            buffer.putInt((int) checksum.getValue());
+            buffer.force();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryPath);
+            throw e;
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads a snapshot into a booking service.
+     *
+     * @param path    Path of the snapshot file.
+     * @param service Empty booking service without a journal, the voyages of the snapshot are registered to it.
+     * @return The loaded snapshot, which tells the journal which records to skip.
+     * @throws IOException If the snapshot cannot be read, or is not an intact snapshot of this version.
+     */
+    public static BookingSnapshot load(Path path, BookingService service) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE || channel.size() < HEADER_SIZE + 4) {
+                throw new IOException("Not a booking snapshot: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Stays valid after the channel is closed
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.duplicate().limit(buffer.capacity() - 4));
+        if (buffer.getInt() != MAGIC || (int) checksum.getValue() != buffer.getInt(buffer.capacity() - 4)) {
+            throw new IOException("Not an intact booking snapshot: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported booking snapshot version " + version);
+        }
+        long sequence = buffer.getLong();
+        int count = buffer.getInt();
+        buffer.getInt(); // Reserved
+        if (count < 0 || count > buffer.remaining() / FIXED_VOYAGE_SIZE) {
+            throw new IOException("Malformed booking snapshot: " + path);
+        }
+        int[] ids = new int[count];
+        long[] captureSequences = new long[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                int id = buffer.getInt();
+                byte busType = buffer.get();
+                int numberOfRows = buffer.getInt();
+                long price = buffer.getLong();
+                double refundCut = buffer.getDouble();
+                double premiumFee = buffer.getDouble();
+                long revenue = buffer.getLong();
+                long captureSequence = buffer.getLong();
+                String from = BookingJournal.readString(buffer);
+                String to = BookingJournal.readString(buffer);
+                int wordCount = buffer.getInt();
+                if (wordCount < 0 || wordCount > buffer.remaining() / 8) {
+                    throw new BufferUnderflowException();
+                }
+                long[] seatWords = new long[wordCount];
+                buffer.asLongBuffer().get(seatWords);
+                buffer.position(buffer.position() + 8 * wordCount);
+
+                Bus bus = BookingJournal.newBus(service, busType, id, from, to, numberOfRows, price, refundCut, premiumFee);
+                bus.setSeatWords(seatWords);
+                bus.setRevenueUnits(revenue);
+                if (!service.addVoyage(bus) || (i > 0 && ids[i - 1] >= id)) {
+                    throw new IOException("Duplicate or unordered voyage " + id + " in booking snapshot: " + path);
+                }
+                ids[i] = id;
+                captureSequences[i] = captureSequence;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Malformed booking snapshot: " + path, e);
+        }
+        return new BookingSnapshot(sequence, ids, captureSequences);
+    }
+}
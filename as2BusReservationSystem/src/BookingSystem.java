@@ -1,400 +1,1035 @@
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Locale;
-import java.io.File;;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class BookingSystem {
-    static String output;
-    static Map<Integer, Bus> voyages = new HashMap<>();
-    static StringBuilder log = new StringBuilder();
-
-    public static void initVoyage(String type, int id, String from, String to, int numberOfRows, double price, Double refundCut, Double premiumFee) {
-        Bus bus = null;
-        switch (type) {
-            case "Standard":
-                bus = new StandardBus(id, from, to, numberOfRows, price, refundCut);
-                break;
-            case "Premium":
-                bus = new PremiumBus(id, from, to, numberOfRows, price, refundCut, premiumFee);
-                break;
-            case "Minibus":
-                bus = new Minibus(id, from, to, numberOfRows, price);
-                break;
-        }
-        if (bus != null) {
-            voyages.put(id, bus);
+    private final BookingService service;
+    private final LogWriter log;
+    private final CommandTokenizer tokens = new CommandTokenizer();
+    private final BookingMetrics metrics;
+    private final int[] commandsUntilSample = new int[BookingMetrics.Command.values().length];
+    private boolean commandFailed = false;
+
+    /**
+     * Constructor for BookingSystem. Several booking systems may share one booking service, each writing to its own log.
+     *
+     * @param service Registry of the voyages that the commands are executed on.
+     * @param log     Log that the echoed commands and their results are appended to.
+     */
+    public BookingSystem(BookingService service, LogWriter log) {
+        this.service = service;
+        this.log = log;
+        this.metrics = service.getMetrics();
+    }
+
+    public void initVoyage(String type, int id, String from, String to, int numberOfRows, double price, Double refundCut, Double premiumFee) {
+        SeatLayout layout = SeatLayout.forName(type);
+        if (layout != null) {
+            Bus bus = service.newVoyage(layout, id, from, to, numberOfRows, price, layout.isRefundable() ? refundCut : 0,
+                    layout.isPremiumFeeUsed() ? premiumFee : 0);
+            if (!service.addVoyage(bus)) { // Another thread has registered the same ID in the meantime
+                error(BookingMetrics.ErrorType.DUPLICATE_VOYAGE).append("There is already a voyage with ID of ").append(id).append("!\n");
+                return;
+            }
             log.append(bus.printDetails()).append("\n");
         }
     }
 
-    public static void refundTicket(int voyageId, int... seatNumbers) {
-        Bus voyage = voyages.get(voyageId);
+    public void refundTicket(int voyageId, int... seatNumbers) {
+        Bus voyage = service.getVoyage(voyageId);
         if (voyage == null) {
-            log.append("ERROR: Voyage ").append(voyageId).append(" not found.\n");
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("Voyage ").append(voyageId).append(" not found.\n");
+            return;
+        }
+        if (!voyage.getLayout().isRefundable()) {
+            error(BookingMetrics.ErrorType.NOT_REFUNDABLE).append(voyage.getLayout().getName()).append(" tickets are not refundable!\n");
             return;
         }
-        if (voyage instanceof Minibus) {
-            log.append("ERROR: Minibus tickets are not refundable!\n");
+        boolean refunded;
+        try {
+            refunded = service.refundSeats(voyage, seatNumbers);
+        } catch (ArithmeticException e) {
+            revenueOutOfRange(voyage);
             return;
         }
-        if (voyage.refundSeats(seatNumbers)) {
-            double refundAmount = seatNumbers.length * (voyage.getPrice() * (1 - voyage.getRefundCut() / 100.0));
-            if (voyage instanceof PremiumBus) {
-                int premiumSeats = (int) Arrays.stream(seatNumbers).filter(seat -> seat % 3 == 1).count();
-                int regularSeats = seatNumbers.length - premiumSeats;
-                refundAmount = regularSeats * (voyage.getPrice() * (1 - voyage.getRefundCut() / 100.0)) + premiumSeats * (voyage.getPrice() * (1 + ((PremiumBus) voyage).getPremiumFee() / 100)* (1 - voyage.getRefundCut() / 100.0));
+        if (refunded) {
+            if (metrics != null) {
+                metrics.recordRefunded(voyage, seatNumbers.length);
             }
-            String seatNumbersStr = Arrays.toString(seatNumbers).replaceAll("[\\[\\]]", "").replace(", ", "-");
-            String output = String.format(Locale.US, "Seat %s of the Voyage %d from %s to %s was successfully refunded for %.2f TL.", seatNumbersStr, voyageId, voyage.getFrom(), voyage.getTo(), refundAmount);
-            log.append(output).append("\n");
+            appendTransaction(voyage, seatNumbers, "refunded", voyage.getFareTable().refundTotal(seatNumbers));
         } else {
-            log.append("ERROR: One or more seats are already empty!\n");
+            error(BookingMetrics.ErrorType.SEATS_ALREADY_EMPTY).append("One or more seats are already empty!\n");
         }
     }
 
-    public static void sellTicket(int voyageId, int... seatNumbers) {
-        Bus voyage = voyages.get(voyageId);
+    public void sellTicket(int voyageId, int... seatNumbers) {
+        Bus voyage = service.getVoyage(voyageId);
         if (voyage == null) {
-            log.append("ERROR: Voyage ").append(voyageId).append(" not found.\n");
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("Voyage ").append(voyageId).append(" not found.\n");
             return;
         }
 
-        if (voyage.sellSeats(seatNumbers)) {
-            String seatNumbersStr = Arrays.toString(seatNumbers).replaceAll("[\\[\\]]", "").replace(", ", "-");
-            double totalPrice = seatNumbers.length * voyage.getPrice();
-            if (voyage instanceof PremiumBus) {
-                int premiumSeats = (int) Arrays.stream(seatNumbers).filter(seat -> seat % 3 == 1).count();
-                int regularSeats = seatNumbers.length - premiumSeats;
-                totalPrice = regularSeats * voyage.getPrice() + premiumSeats * (voyage.getPrice() * (1 + ((PremiumBus) voyage).getPremiumFee() / 100));
+        boolean sold;
+        try {
+            sold = service.sellSeats(voyage, seatNumbers);
+        } catch (ArithmeticException e) {
+            revenueOutOfRange(voyage);
+            return;
+        }
+        if (sold) {
+            if (metrics != null) {
+                metrics.recordSold(voyage, seatNumbers.length);
             }
-            String formattedOutput = String.format(Locale.US, "Seat %s of the Voyage %d from %s to %s was successfully sold for %.2f TL.", seatNumbersStr, voyageId, voyage.getFrom(), voyage.getTo(), totalPrice);
-            log.append(formattedOutput).append("\n");
+            appendTransaction(voyage, seatNumbers, "sold", voyage.getFareTable().saleTotal(seatNumbers));
         } else {
-            log.append("ERROR: One or more seats already sold!\n");
+            error(BookingMetrics.ErrorType.SEATS_ALREADY_SOLD).append("One or more seats already sold!\n");
         }
     }
 
-    public static void printVoyage(int voyageId) {
-        Bus voyage = voyages.get(voyageId);
+    /**
+     * Sells the best empty seats of a voyage, see {@link Bus#findBestSeats(int, int)}.
+     *
+     * @param voyageId  ID of the voyage.
+     * @param count     Number of seats, must be positive.
+     * @param seatClass Index of the seat class in the voyage's layout, -1 for seats of any class.
+     */
+    public void sellBestSeats(int voyageId, int count, int seatClass) {
+        Bus voyage = service.getVoyage(voyageId);
         if (voyage == null) {
-            log.append("ERROR: There is no voyage with ID of ").append(voyageId).append("!\n");
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("Voyage ").append(voyageId).append(" not found.\n");
+            return;
+        }
+
+        int[] seatNumbers;
+        try {
+            seatNumbers = service.sellBestSeats(voyage, count, seatClass);
+        } catch (ArithmeticException e) {
+            revenueOutOfRange(voyage);
             return;
         }
-        log.append(voyage.printVoyageDetails()).append("\n");
+        if (seatNumbers != null) {
+            if (metrics != null) {
+                metrics.recordSold(voyage, seatNumbers.length);
+            }
+            appendTransaction(voyage, seatNumbers, "sold", voyage.getFareTable().saleTotal(seatNumbers));
+        } else {
+            error(BookingMetrics.ErrorType.SEATS_UNAVAILABLE).append("Voyage ").append(voyageId).append(" does not have ").append(count)
+                    .append(" empty ");
+            if (seatClass >= 0) {
+                log.append(voyage.getLayout().getSeatClass(seatClass).getName()).append(' ');
+            }
+            log.append("seats!\n");
+        }
     }
 
-    public static void cancelVoyage(int voyageId) {
-        Bus voyage = voyages.get(voyageId);
+    /**
+     * Holds empty seats of a voyage for a while, logging the ID that confirms or releases the hold.
+     *
+     * @param voyageId    ID of the voyage.
+     * @param ttlSeconds  Time to live of the hold in seconds, or in commands after the hold when a command file is replayed,
+     *                    which the log then says, see {@link BookingService#useCommandClock()}.
+     * @param seatNumbers The seat numbers to hold.
+     */
+    public void holdSeats(int voyageId, int ttlSeconds, int... seatNumbers) {
+        Bus voyage = service.getVoyage(voyageId);
         if (voyage == null) {
-            log.append("ERROR: There is no voyage with ID of ").append(voyageId).append("!\n");
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("Voyage ").append(voyageId).append(" not found.\n");
             return;
         }
-        double totalRefund = 0.0;
-        int[] seatsToRefund = new int[voyage.getSeatsSold().length];
-        int index = 0;
-        for (int i = 0; i < voyage.getSeatsSold().length; i++) {
-            if (voyage.getSeatsSold()[i]) { // if the seat was sold
-                seatsToRefund[index++] = i + 1; // Store 1-based seat number
 
-            }
+        SeatHold hold = service.holdSeats(voyage, seatNumbers, ttlSeconds * 1_000_000_000L);
+        if (hold != null) {
+            appendSeatsOfVoyage(voyage, seatNumbers, "held");
+            log.append(" for ").append(ttlSeconds).append(service.isCommandClock() ? " commands" : " seconds")
+                    .append(", hold ID is ").append(hold.getId()).append(".\n");
+        } else {
+            error(BookingMetrics.ErrorType.SEATS_ALREADY_SOLD).append("One or more seats already sold or held!\n");
         }
+    }
 
-        if (voyage instanceof PremiumBus) {
-            int premiumSeatsCount = (int) Arrays.stream(seatsToRefund, 0, index)
-                    .filter(seat -> ((PremiumBus) voyage).isPremiumSeat(seat))
-                    .count();
-            int regularSeatsCount = index - premiumSeatsCount;
-            double regularSeatRefund = regularSeatsCount * voyage.getPrice();
-            double premiumSeatRefund = premiumSeatsCount * (voyage.getPrice() * (1 + ((PremiumBus) voyage).getPremiumFee() / 100));
-            totalRefund = regularSeatRefund + premiumSeatRefund;
+    /**
+     * Sells the seats of a hold.
+     *
+     * @param holdId ID of the hold.
+     */
+    public void confirmHold(long holdId) {
+        SeatHold hold = service.getHold(holdId);
+        if (hold == null) {
+            error(BookingMetrics.ErrorType.HOLD_NOT_FOUND).append("There is no hold with ID of ").append(holdId).append("!\n");
+            return;
+        }
+        Bus voyage = hold.getVoyage();
+        boolean confirmed;
+        try {
+            confirmed = service.confirmHold(hold);
+        } catch (ArithmeticException e) {
+            revenueOutOfRange(voyage);
+            return;
+        }
+        if (confirmed) {
+            if (metrics != null) {
+                metrics.recordSold(voyage, hold.getSeatNumbers().length);
+            }
+            appendTransaction(voyage, hold.getSeatNumbers(), "sold", voyage.getFareTable().saleTotal(hold.getSeatNumbers()));
         } else {
-            totalRefund = index * voyage.getPrice();
+            holdNotResolved(hold);
         }
+    }
 
-        voyage.setRevenue(voyage.getRevenue()-totalRefund);
+    /**
+     * Makes the seats of a hold empty again.
+     *
+     * @param holdId ID of the hold.
+     */
+    public void releaseHold(long holdId) {
+        SeatHold hold = service.getHold(holdId);
+        if (hold == null) {
+            error(BookingMetrics.ErrorType.HOLD_NOT_FOUND).append("There is no hold with ID of ").append(holdId).append("!\n");
+            return;
+        }
+        if (service.releaseHold(hold)) {
+            appendSeatsOfVoyage(hold.getVoyage(), hold.getSeatNumbers(), "released");
+            log.append(".\n");
+        } else {
+            holdNotResolved(hold);
+        }
+    }
 
-        log.append("Voyage ").append(voyageId).append(" was successfully cancelled!\nVoyage details can be found below:\n");
-        log.append(voyage.printVoyageDetails()).append("\n");
-        voyages.remove(voyageId);
+    /**
+     * Logs that a sale or refund has failed because the revenue of its voyage would have been out of range of fixed point
+     * amounts, which leaves the voyage as it was.
+     *
+     * @param voyage The voyage.
+     */
+    private void revenueOutOfRange(Bus voyage) {
+        error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append("Revenue of voyage ").append(voyage.getId()).append(" would be out of range!\n");
     }
 
-    public static void printZReport() {
-        log.append("Z Report:\n");
-        if (voyages.isEmpty()) {
-            log.append("----------------\nNo Voyages Available!\n----------------\n");
+    /**
+     * Logs why a hold could not be confirmed or released: its voyage has been cancelled, it has expired, or another booking
+     * system has resolved it in the meantime.
+     *
+     * @param hold The hold.
+     */
+    private void holdNotResolved(SeatHold hold) {
+        if (hold.getVoyage().isCancelled()) {
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("There is no voyage with ID of ").append(hold.getVoyage().getId()).append("!\n");
+        } else if (service.isExpired(hold)) {
+            error(BookingMetrics.ErrorType.HOLD_EXPIRED).append("Hold ").append(hold.getId()).append(" has expired!\n");
         } else {
-            voyages.values().stream()
-                    .sorted(Comparator.comparingInt(v -> v.getId()))
-                    .forEach(voyage -> {
-                        log.append("----------------\n").append(voyage.printVoyageDetails()).append("\n");
-                    });
-            log.append("----------------\n");
+            error(BookingMetrics.ErrorType.HOLD_NOT_FOUND).append("There is no hold with ID of ").append(hold.getId()).append("!\n");
         }
     }
 
-    public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("ERROR: This program works exactly with two command line arguments, the first one is the path to the input file whereas the second one is the path to the output file. Sample usage can be as follows: \"java BookingSystem input.txt output.txt\". Program is going to terminate!");
+    /**
+     * Appends the result line of a successful sale or refund, for example "Seat 1-2 of the Voyage 3 from A to B was successfully sold for 50.00 TL.".
+     *
+     * @param voyage      The voyage.
+     * @param seatNumbers The seat numbers that are sold or refunded.
+     * @param action      "sold" or "refunded".
+     * @param amount      Total amount in fixed point.
+     */
+    private void appendTransaction(Bus voyage, int[] seatNumbers, String action, long amount) {
+        appendSeatsOfVoyage(voyage, seatNumbers, action);
+        log.append(" for ");
+        Money.append(log, amount);
+        log.append(" TL.\n");
+    }
+
+    /**
+     * Appends the start of a result line, for example "Seat 1-2 of the Voyage 3 from A to B was successfully sold".
+     *
+     * @param voyage      The voyage.
+     * @param seatNumbers The seat numbers.
+     * @param action      What happened to the seats.
+     */
+    private void appendSeatsOfVoyage(Bus voyage, int[] seatNumbers, String action) {
+        log.append("Seat ");
+        for (int i = 0; i < seatNumbers.length; i++) {
+            if (i > 0) {
+                log.append('-');
+            }
+            log.append(seatNumbers[i]);
+        }
+        log.append(" of the Voyage ").append(voyage.getId()).append(" from ").append(voyage.getFrom()).append(" to ").append(voyage.getTo())
+                .append(" was successfully ").append(action);
+    }
+
+    public void printVoyage(int voyageId) {
+        printVoyage(voyageId, false);
+    }
+
+    /**
+     * Prints the details of a voyage, optionally showing its held seats.
+     *
+     * @param voyageId  ID of the voyage.
+     * @param showHolds true to print held seats with their own glyph, false to print them as empty seats.
+     */
+    public void printVoyage(int voyageId, boolean showHolds) {
+        Bus voyage = service.getVoyage(voyageId);
+        if (voyage == null) {
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("There is no voyage with ID of ").append(voyageId).append("!\n");
             return;
         }
-        String input = args[0];
-        output = args[1];
-        File inputFile = new File(input);
-        if (!inputFile.exists() || !inputFile.canRead()) {
-            System.out.println("ERROR: This program cannot read from the \"" + input + "\", either this program does not have read permission to read that file or file does not exist. Program is going to terminate!");
+        if (showHolds) {
+            service.expireHolds();
+        }
+        voyage.appendVoyageDetails(log, showHolds);
+        log.append("\n");
+    }
+
+    public void cancelVoyage(int voyageId) {
+        Bus voyage = service.cancelVoyage(voyageId);
+        if (voyage == null) {
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("There is no voyage with ID of ").append(voyageId).append("!\n");
             return;
         }
+        synchronized (voyage) { // No sale or refund can slip in between the accounting and the printout
+            refundCancelledVoyage(voyage);
+        }
+    }
 
-        String[] inputlines = FileInput.readFile(input, true, false);
-        int lastIndex = inputlines.length - 1;
+    private void refundCancelledVoyage(Bus voyage) {
+        int voyageId = voyage.getId();
+        long totalRefund = voyage.getSoldSeatsSaleTotal(); // Cancelled seats are refunded in full
 
-        for (String line : inputlines) {
-            line = line.trim();
+        voyage.setRevenueUnits(voyage.getRevenueUnits() - totalRefund);
+        if (metrics != null) {
+            metrics.recordCancelled(voyage, voyage.getSoldSeatCount());
+        }
 
-            log.append("COMMAND: ").append(line).append("\n");
-            String[] parts = line.split("\t");
-            switch (parts[0]) {
-                case "INIT_VOYAGE":
-                    if (!("Premium".equals(parts[1]) || "Minibus".equals(parts[1]) || "Standard".equals(parts[1]))) {
+        log.append("Voyage ").append(voyageId).append(" was successfully cancelled!\nVoyage details can be found below:\n");
+        voyage.appendVoyageDetails(log);
+        log.append("\n");
+    }
 
-                        log.append("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!\n");
-                        break; // Exit the switch-case block after logging the error
-                    }
-                    if ("Premium".equals(parts[1]) && parts.length != 9) {
+    /**
+     * Lists the voyages from one city to another that have at least the given number of empty seats, for example
+     * "Voyages from A to B with at least 2 empty seats: 1, 4, 7".
+     *
+     * @param from         Departure city.
+     * @param to           Destination city.
+     * @param minFreeSeats Minimum number of empty seats.
+     */
+    public void searchVoyages(String from, String to, int minFreeSeats) {
+        List<Bus> found = service.searchVoyages(from, to, minFreeSeats);
+        if (found.isEmpty()) {
+            log.append("There is no voyage from ").append(from).append(" to ").append(to).append(" with at least ").append(minFreeSeats)
+                    .append(" empty seats.\n");
+            return;
+        }
+        log.append("Voyages from ").append(from).append(" to ").append(to).append(" with at least ").append(minFreeSeats).append(" empty seats: ");
+        for (int i = 0; i < found.size(); i++) {
+            if (i > 0) {
+                log.append(", ");
+            }
+            log.append(found.get(i).getId());
+        }
+        log.append("\n");
+    }
 
-                        log.append("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!\n");
-                        break; // Exit the switch-case block after logging the error
-                    }
-                    if ("Standard".equals(parts[1]) && parts.length != 8){
+    public void printZReport() {
+        log.append("Z Report:\n");
+        if (service.isEmpty()) {
+            log.append("----------------\nNo Voyages Available!\n----------------\n");
+        } else {
+            service.forEachVoyageById(voyage -> { // Voyages that have not changed since the last report are not rendered again
+                log.append("----------------\n");
+                voyage.appendVoyageDetails(log);
+                log.append("\n");
+            });
+            log.append("----------------\n");
+        }
+    }
 
-                        log.append("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!\n");
-                        break;
-                    }
-                    if ("Minibus".equals(parts[1]) && parts.length != 7){
+    /**
+     * Parses a single line of the command file and executes it, appending the echoed command and its result to the log.
+     * If the booking service collects metrics, the command and its errors are recorded, and so is its latency if it is sampled.
+     *
+     * @param line Line of the command file, leading and trailing whitespace is ignored.
+     */
+    public void executeCommand(String line) {
+        line = line.trim();
+        tokens.reset(line);
+        BookingMetrics.Command command = commandOf();
+        long start = startCommand(command);
+
+        log.append("COMMAND: ").append(line).append("\n");
+        switch (command) {
+            case INIT_VOYAGE:
+                executeInitVoyage();
+                break;
+            case SELL_TICKET:
+                executeSellTicket();
+                break;
+            case SELL_BEST:
+                executeSellBest();
+                break;
+            case HOLD:
+                executeHold();
+                break;
+            case CONFIRM:
+                executeConfirm();
+                break;
+            case RELEASE:
+                executeRelease();
+                break;
+            case PRINT_VOYAGE:
+                executePrintVoyage();
+                break;
+            case CANCEL_VOYAGE:
+                executeCancelVoyage();
+                break;
+            case Z_REPORT:
+                // Check if the command has no arguments
+                if (tokens.fieldCount() == 1) {
+                    printZReport();
+                } else {
+                    error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"Z_REPORT\" command!\n");
+                }
+                break;
+            case REFUND_TICKET:
+                executeRefundTicket();
+                break;
+            case SEARCH:
+                executeSearch();
+                break;
+            default:
+                error(BookingMetrics.ErrorType.UNKNOWN_COMMAND).append("There is no command namely ");
+                tokens.appendField(log, 0);
+                log.append("!\n");
+        }
+        finishCommand(command, start);
+    }
 
-                        log.append("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!\n");
-                        break;
-                    }
+    /**
+     * Executes a command of a binary command file, appending the echoed command and its result to the log exactly like
+     * executing its line does. Only a RAW command is parsed, the others already carry their arguments and have passed every
+     * check that does not depend on the voyages.
+     *
+     * @param binary The command, see {@link BinaryCommand}.
+     */
+    public void executeCommand(BinaryCommand binary) {
+        if (binary.opcode == BinaryCommand.RAW) {
+            executeCommand(binary.line);
+            return;
+        }
+        BookingMetrics.Command command = binary.getType();
+        long start = startCommand(command);
+
+        log.append("COMMAND: ");
+        binary.appendText(log);
+        log.append("\n");
+        Bus voyage;
+        switch (binary.opcode) {
+            case BinaryCommand.INIT_VOYAGE:
+                if (service.containsVoyage(binary.voyageId)) {
+                    error(BookingMetrics.ErrorType.DUPLICATE_VOYAGE).append("There is already a voyage with ID of ").append(binary.voyageId).append("!\n");
+                } else {
+                    initVoyage(binary.layout.getName(), binary.voyageId, binary.from, binary.to, binary.numberOfRows, Money.toDouble(binary.priceUnits),
+                            (double) binary.refundCut, (double) binary.premiumFee);
+                }
+                break;
+            case BinaryCommand.SELL_TICKET:
+                voyage = findVoyage(binary.voyageId);
+                if (voyage != null && validSeatNumbers(binary.seatNumbers, voyage.getTotalSeats())) {
+                    sellTicket(binary.voyageId, binary.seatNumbers);
+                }
+                break;
+            case BinaryCommand.REFUND_TICKET:
+                voyage = findVoyage(binary.voyageId);
+                if (voyage != null && validSeatNumbers(binary.seatNumbers, voyage.getTotalSeats())) {
+                    refundTicket(binary.voyageId, binary.seatNumbers);
+                }
+                break;
+            case BinaryCommand.SELL_BEST:
+                if (findVoyage(binary.voyageId) != null) {
+                    sellBestSeats(binary.voyageId, binary.seatCount, -1);
+                }
+                break;
+            case BinaryCommand.HOLD:
+                voyage = findVoyage(binary.voyageId);
+                if (voyage != null && validSeatNumbers(binary.seatNumbers, voyage.getTotalSeats())) {
+                    holdSeats(binary.voyageId, binary.ttlSeconds, binary.seatNumbers);
+                }
+                break;
+            case BinaryCommand.CONFIRM:
+                confirmHold(binary.holdId);
+                break;
+            case BinaryCommand.RELEASE:
+                releaseHold(binary.holdId);
+                break;
+            case BinaryCommand.PRINT_VOYAGE:
+            case BinaryCommand.PRINT_VOYAGE_HOLDS:
+                printVoyage(binary.voyageId, binary.opcode == BinaryCommand.PRINT_VOYAGE_HOLDS);
+                break;
+            case BinaryCommand.CANCEL_VOYAGE:
+                if (findVoyage(binary.voyageId) != null) {
+                    cancelVoyage(binary.voyageId);
+                }
+                break;
+            case BinaryCommand.Z_REPORT:
+                printZReport();
+                break;
+            case BinaryCommand.SEARCH:
+                searchVoyages(binary.from, binary.to, binary.minFreeSeats);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + binary.opcode);
+        }
+        finishCommand(command, start);
+    }
 
+    /**
+     * Starts the metrics of a command.
+     *
+     * @param command Type of the command.
+     * @return Start time of the command in nanoseconds, -1 if its latency is not sampled.
+     */
+    private long startCommand(BookingMetrics.Command command) {
+        service.startCommand();
+        commandFailed = false;
+        return metrics != null && isLatencySampled(command) ? System.nanoTime() : -1;
+    }
 
-                    int id = Integer.parseInt(parts[2]);
-                    if (id <= 0){
+    /**
+     * Records a command if the booking service collects metrics.
+     *
+     * @param command Type of the command.
+     * @param start   Start time from {@link #startCommand(BookingMetrics.Command)}.
+     */
+    private void finishCommand(BookingMetrics.Command command, long start) {
+        if (metrics != null) {
+            metrics.recordCommand(command, start >= 0 ? System.nanoTime() - start : -1, commandFailed);
+        }
+    }
 
-                        log.append("ERROR: ").append(parts[2]).append(" is not a positive integer, ID of a voyage must be a positive integer!\n");
-                        break;
-                    }
-                    if (voyages.containsKey(id)) {
+    /**
+     * Looks up the voyage of a command, logging an error if there is none.
+     *
+     * @param voyageId ID of the voyage.
+     * @return The voyage, null if there is no voyage with the given ID.
+     */
+    private Bus findVoyage(int voyageId) {
+        Bus voyage = service.getVoyage(voyageId);
+        if (voyage == null) {
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("There is no voyage with ID of ").append(voyageId).append("!\n");
+        }
+        return voyage;
+    }
 
-                        log.append("ERROR: There is already a voyage with ID of ").append(id).append("!\n");
-                        break;
-                    }
-                    int numberOfRows = Integer.parseInt(parts[5]);
-                        if (numberOfRows <= 0){
-
-                            log.append("ERROR: ").append(parts[5]).append( " is not a positive integer, number of seat rows of a voyage must be a positive integer!\n");
-                            break;
-                        }
-                    double price = Double.parseDouble(parts[6]);
-                        if (price <= 0){
-
-                            log.append("ERROR: ").append(parts[6]).append( " is not a positive number, price must be a positive number!\n");
-                            break;
-                        }
-                    Double refundCut = null;
-                    if (parts.length > 7 && !parts[7].isEmpty()) {
-
-                        try {
-                            refundCut = Double.parseDouble(parts[7]);
-                            int intRefundCut = Integer.parseInt(parts[7]);
-                            // Check if the refundCut is outside the range of 0 to 100
-                            if (refundCut < 0 || refundCut > 100) {
-
-                                log.append("ERROR: ").append(intRefundCut).append(" is not an integer that is in range of [0, 100], refund cut must be an integer that is in range of [0, 100]!\n");
-                                break; // Reset refundCut or handle as needed
-                            }
-                        } catch (NumberFormatException e) {
-
-                            log.append("ERROR: Invalid format for refund cut, must be a numeric value.\n");
-                            break; // Reset refundCut or handle as needed
-                        }
-                    }
+    private BookingMetrics.Command commandOf() {
+        if (tokens.fieldEquals(0, "INIT_VOYAGE")) {
+            return BookingMetrics.Command.INIT_VOYAGE;
+        } else if (tokens.fieldEquals(0, "SELL_TICKET")) {
+            return BookingMetrics.Command.SELL_TICKET;
+        } else if (tokens.fieldEquals(0, "SELL_BEST")) {
+            return BookingMetrics.Command.SELL_BEST;
+        } else if (tokens.fieldEquals(0, "HOLD")) {
+            return BookingMetrics.Command.HOLD;
+        } else if (tokens.fieldEquals(0, "CONFIRM")) {
+            return BookingMetrics.Command.CONFIRM;
+        } else if (tokens.fieldEquals(0, "RELEASE")) {
+            return BookingMetrics.Command.RELEASE;
+        } else if (tokens.fieldEquals(0, "PRINT_VOYAGE")) {
+            return BookingMetrics.Command.PRINT_VOYAGE;
+        } else if (tokens.fieldEquals(0, "CANCEL_VOYAGE")) {
+            return BookingMetrics.Command.CANCEL_VOYAGE;
+        } else if (tokens.fieldEquals(0, "Z_REPORT")) {
+            return BookingMetrics.Command.Z_REPORT;
+        } else if (tokens.fieldEquals(0, "REFUND_TICKET")) {
+            return BookingMetrics.Command.REFUND_TICKET;
+        } else if (tokens.fieldEquals(0, "SEARCH")) {
+            return BookingMetrics.Command.SEARCH;
+        }
+        return BookingMetrics.Command.UNKNOWN;
+    }
 
+    /**
+     * Decides whether the latency of a command is measured. Reading the clock costs about as much as a short command, so only
+     * the first of every {@link BookingMetrics#getLatencySampleInterval()} commands of a type is timed.
+     *
+     * @param command Type of the command.
+     * @return true if the command is timed, false otherwise.
+     */
+    private boolean isLatencySampled(BookingMetrics.Command command) {
+        int executed = commandsUntilSample[command.ordinal()];
+        if (executed > 0) {
+            commandsUntilSample[command.ordinal()] = executed - 1;
+            return false;
+        }
+        commandsUntilSample[command.ordinal()] = metrics.getLatencySampleInterval() - 1;
+        return true;
+    }
 
+    /**
+     * Starts an error message in the log, counting the error if the booking service collects metrics.
+     *
+     * @param type Type of the error.
+     * @return The log, to append the rest of the message to.
+     */
+    private LogWriter error(BookingMetrics.ErrorType type) {
+        commandFailed = true;
+        if (metrics != null) {
+            metrics.recordError(type);
+        }
+        return log.append("ERROR: ");
+    }
 
-                    Double premiumFee = null;
-                    if (parts.length > 8 && !parts[8].isEmpty()) {
-                        try {
-                            premiumFee = Double.parseDouble(parts[8]);
-                            int intPremiumFee = Integer.parseInt(parts[8]);
-                            if (premiumFee < 0) {
+    private void executeInitVoyage() {
+        SeatLayout layout = SeatLayout.forField(tokens, 1);
+        if (layout == null || tokens.fieldCount() != layout.getCommandFieldCount()) {
+            error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"INIT_VOYAGE\" command!\n");
+            return;
+        }
+        // The refund cut and the premium fee follow the price, each only if the layout takes it
+        int refundCutField = layout.isRefundable() ? 7 : -1;
+        int premiumFeeField = layout.isPremiumFeeUsed() ? (layout.isRefundable() ? 8 : 7) : -1;
+
+        int id = tokens.parseInt(2);
+        if (id <= 0) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT);
+            tokens.appendField(log, 2);
+            log.append(" is not a positive integer, ID of a voyage must be a positive integer!\n");
+            return;
+        }
+        if (service.containsVoyage(id)) {
+            error(BookingMetrics.ErrorType.DUPLICATE_VOYAGE).append("There is already a voyage with ID of ").append(id).append("!\n");
+            return;
+        }
+        int numberOfRows = tokens.parseInt(5);
+        if (numberOfRows <= 0) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT);
+            tokens.appendField(log, 5);
+            log.append(" is not a positive integer, number of seat rows of a voyage must be a positive integer!\n");
+            return;
+        }
+        double price = tokens.parseDouble(6);
+        if (price <= 0) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT);
+            tokens.appendField(log, 6);
+            log.append(" is not a positive number, price must be a positive number!\n");
+            return;
+        }
+        Double refundCut = null;
+        if (refundCutField > 0 && tokens.fieldLength(refundCutField) != 0) {
+            try {
+                refundCut = tokens.parseDouble(refundCutField);
+                int intRefundCut = tokens.parseInt(refundCutField);
+                // Check if the refundCut is outside the range of 0 to 100
+                if (refundCut < 0 || refundCut > 100) {
+                    error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(intRefundCut).append(" is not an integer that is in range of [0, 100], refund cut must be an integer that is in range of [0, 100]!\n");
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append("Invalid format for refund cut, must be a numeric value.\n");
+                return;
+            }
+        }
 
-                                log.append("ERROR: ").append(intPremiumFee).append(" is not a non-negative integer, premium fee must be a non-negative integer!\n");
-                                break; // Optionally reset premiumFee or handle as needed
-                            }
-                        } catch (NumberFormatException e) {
+        Double premiumFee = null;
+        if (premiumFeeField > 0 && tokens.fieldLength(premiumFeeField) != 0) {
+            try {
+                premiumFee = tokens.parseDouble(premiumFeeField);
+                int intPremiumFee = tokens.parseInt(premiumFeeField);
+                if (premiumFee < 0) {
+                    error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(intPremiumFee).append(" is not a non-negative integer, premium fee must be a non-negative integer!\n");
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT);
+                tokens.appendField(log, premiumFeeField);
+                log.append(" is not a valid integer.\n");
+                return;
+            }
+        }
 
-                            log.append("ERROR: ").append(parts[8]).append(" is not a valid integer.\n");
-                            break; // Optionally reset premiumFee or handle as needed
-                        }
-                    }
+        if (!FareTable.isInRange(layout, numberOfRows, price, premiumFee != null ? premiumFee : 0, refundCut != null ? refundCut : 0)) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT);
+            tokens.appendField(log, 6);
+            log.append(" is too high, fares of the voyage would be out of range!\n");
+            return;
+        }
 
-                    initVoyage(parts[1], id, parts[3], parts[4], numberOfRows, price, refundCut, premiumFee);
-                    break;
-                case "SELL_TICKET":
-                    if (parts.length != 3) {
-                        log.append("ERROR: Erroneous usage of \"SELL_TICKET\" command!\n");
+        initVoyage(layout.getName(), id, tokens.field(3), tokens.field(4), numberOfRows, price, refundCut, premiumFee);
+    }
 
-                        break; // Exit the switch-case block after logging the error
-                    }
-                    int Id2 = Integer.parseInt(parts[1]);
+    private void executeSellTicket() {
+        if (tokens.fieldCount() != 3) {
+            error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"SELL_TICKET\" command!\n");
+            return;
+        }
+        int voyageId = tokens.parseInt(1);
+        Bus voyage = service.getVoyage(voyageId);
+        if (voyage == null) {
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("There is no voyage with ID of ").append(voyageId).append("!\n");
+            return;
+        }
+        int[] seatNumbers = tokens.parseSeatNumbers(2);
+        if (validSeatNumbers(seatNumbers, voyage.getTotalSeats())) {
+            sellTicket(voyageId, seatNumbers);
+        }
+    }
 
-                    if (!voyages.containsKey(Id2)) {
-                        log.append("ERROR: There is no voyage with ID of ").append(Id2).append("!\n");
+    /**
+     * Executes "SELL_BEST voyage count [seat class]", which sells the best empty seats instead of the given ones, adjacent if possible.
+     */
+    private void executeSellBest() {
+        if (tokens.fieldCount() != 3 && tokens.fieldCount() != 4) {
+            error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"SELL_BEST\" command!\n");
+            return;
+        }
 
-                        break; // Exit the switch-case block after logging the error
-                    }
-                    String[] seatStrings = parts[2].split("_");
-                    int totalSeats = voyages.get(Id2).getTotalSeats();
-                    boolean validSeats = true;
-                    int[] seatNumbers = Arrays.stream(seatStrings).mapToInt(Integer::parseInt).toArray();
-                    for (int seatNumber : seatNumbers) {
-                        if (seatNumber <= 0) {
-                            log.append("ERROR: ").append(seatNumber).append(" is not a positive integer, seat number must be a positive integer!\n");
-
-                            validSeats = false;
-                            break; // Exit the loop and skip selling tickets as there is an invalid seat number
-                        }
-                        if (seatNumber > totalSeats) {
-                            log.append("ERROR: There is no such a seat!\n");
-
-                            validSeats = false;
-                            break; // Exit the loop and skip selling tickets as there is an invalid seat number
-                        }
-                    }
-                    if (validSeats) {
-                        sellTicket(Id2, seatNumbers);
-                    }
-                    break;
-                case "PRINT_VOYAGE":
-                    if (parts.length != 2) {
-                        log.append("ERROR: Erroneous usage of \"PRINT_VOYAGE\" command!\n");
+        int voyageId;
+        try {
+            voyageId = tokens.parseInt(1);
+            if (voyageId <= 0) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(voyageId).append(" is not a positive integer, ID of a voyage must be a positive integer!\n");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append("Invalid format for ID, ID must be an integer.\n");
+            return;
+        }
+        int count;
+        try {
+            count = tokens.parseInt(2);
+            if (count <= 0) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(count).append(" is not a positive integer, number of seats must be a positive integer!\n");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT);
+            tokens.appendField(log, 2);
+            log.append(" is not a valid integer.\n");
+            return;
+        }
 
-                        break; // Exit the switch-case block after logging the error
-                    }
+        Bus voyage = service.getVoyage(voyageId);
+        if (voyage == null) {
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("There is no voyage with ID of ").append(voyageId).append("!\n");
+            return;
+        }
+        int seatClass = -1; // Any class
+        if (tokens.fieldCount() == 4) {
+            seatClass = voyage.getLayout().seatClassOf(tokens, 3);
+            if (seatClass < 0) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append("Voyage ").append(voyageId).append(" has no ");
+                tokens.appendField(log, 3);
+                log.append(" seats!\n");
+                return;
+            }
+        }
+        sellBestSeats(voyageId, count, seatClass);
+    }
 
-                    int Id3;
-                    try {
-                        Id3 = Integer.parseInt(parts[1]);
-                        if (Id3 <= 0) {  // Check if ID is not a positive integer
-                            log.append("ERROR: ").append(Id3).append(" is not a positive integer, ID of a voyage must be a positive integer!\n");
+    /**
+     * Executes "HOLD voyage seats seconds", which holds the seats until they are confirmed or released, or the seconds pass.
+     * When a command file is replayed, the seconds are the number of commands after the hold that can still confirm or
+     * release it.
+     */
+    private void executeHold() {
+        if (tokens.fieldCount() != 4) {
+            error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"HOLD\" command!\n");
+            return;
+        }
 
-                            break; // Exit the switch-case block after logging the error
-                        }
-                    } catch (NumberFormatException e) {
-                        log.append("ERROR: Invalid format for ID, ID must be an integer.\n");
+        int voyageId;
+        try {
+            voyageId = tokens.parseInt(1);
+            if (voyageId <= 0) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(voyageId).append(" is not a positive integer, ID of a voyage must be a positive integer!\n");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append("Invalid format for ID, ID must be an integer.\n");
+            return;
+        }
+        int ttlSeconds;
+        try {
+            ttlSeconds = tokens.parseInt(3);
+            if (ttlSeconds <= 0) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(ttlSeconds).append(" is not a positive integer, hold time must be a positive integer!\n");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT);
+            tokens.appendField(log, 3);
+            log.append(" is not a valid integer.\n");
+            return;
+        }
 
-                        break; // Exit the switch-case block after logging the error
-                    }
+        Bus voyage = service.getVoyage(voyageId);
+        if (voyage == null) {
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("There is no voyage with ID of ").append(voyageId).append("!\n");
+            return;
+        }
+        int[] seatNumbers = tokens.parseSeatNumbers(2);
+        if (validSeatNumbers(seatNumbers, voyage.getTotalSeats())) {
+            holdSeats(voyageId, ttlSeconds, seatNumbers);
+        }
+    }
 
-                    printVoyage(Id3);
-                    break;
+    private void executeConfirm() {
+        long holdId = parseHoldId("CONFIRM");
+        if (holdId > 0) {
+            confirmHold(holdId);
+        }
+    }
 
-                case "CANCEL_VOYAGE":
-                    if (parts.length != 2) {
-                        log.append("ERROR: Erroneous usage of \"CANCEL_VOYAGE\" command!\n");
+    private void executeRelease() {
+        long holdId = parseHoldId("RELEASE");
+        if (holdId > 0) {
+            releaseHold(holdId);
+        }
+    }
 
-                        break; // Exit the switch-case block after logging the error
-                    }
+    /**
+     * Parses the hold ID of a "CONFIRM hold" or "RELEASE hold" command, logging an error if it is invalid.
+     *
+     * @param command Name of the command.
+     * @return The hold ID, or -1 if an error has been logged.
+     */
+    private long parseHoldId(String command) {
+        if (tokens.fieldCount() != 2) {
+            error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"").append(command).append("\" command!\n");
+            return -1;
+        }
+        try {
+            long holdId = tokens.parseLong(1);
+            if (holdId <= 0) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(holdId).append(" is not a positive integer, ID of a hold must be a positive integer!\n");
+                return -1;
+            }
+            return holdId;
+        } catch (NumberFormatException e) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append("Invalid format for hold ID, hold ID must be an integer.\n");
+            return -1;
+        }
+    }
 
-                    int cancelVoyageId;
-                    try {
-                        cancelVoyageId = Integer.parseInt(parts[1]);
-                        if (cancelVoyageId <= 0) {
-                            log.append("ERROR: ").append(cancelVoyageId).append(" is not a positive integer, ID of a voyage must be a positive integer!\n");
+    private void executeRefundTicket() {
+        if (tokens.fieldCount() != 3) {
+            error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"REFUND_TICKET\" command!\n");
+            return;
+        }
+        int voyageId = tokens.parseInt(1);
+        Bus voyage = service.getVoyage(voyageId);
+        if (voyage == null) {
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("There is no voyage with ID of ").append(voyageId).append("!\n");
+            return;
+        }
+        int[] seatNumbers = tokens.parseSeatNumbers(2);
+        if (validSeatNumbers(seatNumbers, voyage.getTotalSeats())) {
+            refundTicket(voyageId, seatNumbers);
+        }
+    }
 
-                            break; // Exit the switch-case block after logging the error
-                        }
-                    } catch (NumberFormatException e) {
-                        log.append("ERROR: Invalid ID format. ID must be an integer.\n");
+    /**
+     * Checks the seat numbers of a sale or refund, logging an error for the first invalid one.
+     *
+     * @param seatNumbers The seat numbers.
+     * @param totalSeats  Total number of seats of the voyage.
+     * @return true if all seat numbers are valid, false otherwise.
+     */
+    private boolean validSeatNumbers(int[] seatNumbers, int totalSeats) {
+        for (int seatNumber : seatNumbers) {
+            if (seatNumber <= 0) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(seatNumber).append(" is not a positive integer, seat number must be a positive integer!\n");
+                return false;
+            }
+            if (seatNumber > totalSeats) {
+                error(BookingMetrics.ErrorType.NO_SUCH_SEAT).append("There is no such a seat!\n");
+                return false;
+            }
+        }
+        return true;
+    }
 
-                        break; // Exit the switch-case block after logging the error
-                    }
+    /**
+     * Executes "PRINT_VOYAGE voyage" or "PRINT_VOYAGE voyage HOLDS", the latter printing held seats with their own glyph.
+     */
+    private void executePrintVoyage() {
+        boolean showHolds = tokens.fieldCount() == 3 && tokens.fieldEquals(2, "HOLDS");
+        if (tokens.fieldCount() != 2 && !showHolds) {
+            error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"PRINT_VOYAGE\" command!\n");
+            return;
+        }
 
-                    if (!voyages.containsKey(cancelVoyageId)) {
-                        log.append("ERROR: There is no voyage with ID of ").append(cancelVoyageId).append("!\n");
+        int voyageId;
+        try {
+            voyageId = tokens.parseInt(1);
+            if (voyageId <= 0) {  // Check if ID is not a positive integer
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(voyageId).append(" is not a positive integer, ID of a voyage must be a positive integer!\n");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append("Invalid format for ID, ID must be an integer.\n");
+            return;
+        }
 
-                        break; // Exit the switch-case block after logging the error
-                    }
+        printVoyage(voyageId, showHolds);
+    }
 
-                    // Proceed with cancelling the voyage
-                    cancelVoyage(cancelVoyageId);
-                    break;
+    private void executeCancelVoyage() {
+        if (tokens.fieldCount() != 2) {
+            error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"CANCEL_VOYAGE\" command!\n");
+            return;
+        }
 
-                case "Z_REPORT":
-                    // Check if parts array length is 1 and the command is "Z_REPORT"
-                    if (parts.length == 1 && "Z_REPORT".equals(parts[0])) {
-                        printZReport();
-                        break;
-                    } else {
+        int voyageId;
+        try {
+            voyageId = tokens.parseInt(1);
+            if (voyageId <= 0) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(voyageId).append(" is not a positive integer, ID of a voyage must be a positive integer!\n");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append("Invalid ID format. ID must be an integer.\n");
+            return;
+        }
 
-                        log.append("ERROR: Erroneous usage of \"Z_REPORT\" command!\n");
-                        break;
-                    }
+        if (!service.containsVoyage(voyageId)) {
+            error(BookingMetrics.ErrorType.VOYAGE_NOT_FOUND).append("There is no voyage with ID of ").append(voyageId).append("!\n");
+            return;
+        }
 
+        // Proceed with cancelling the voyage
+        cancelVoyage(voyageId);
+    }
 
-                case "REFUND_TICKET":
-                    if (parts.length != 3) {
-                        log.append("ERROR: Erroneous usage of \"REFUND_TICKET\" command!\n");
+    private void executeSearch() {
+        if (tokens.fieldCount() != 4) {
+            error(BookingMetrics.ErrorType.ERRONEOUS_USAGE).append("Erroneous usage of \"SEARCH\" command!\n");
+            return;
+        }
 
-                        break; // Exit the switch-case block after logging the error
-                    }
-                    int refundVoyageId = Integer.parseInt(parts[1]);
-                    if (!voyages.containsKey(refundVoyageId)) {
-                        log.append("ERROR: There is no voyage with ID of ").append(refundVoyageId).append("!\n");
+        int minFreeSeats;
+        try {
+            minFreeSeats = tokens.parseInt(3);
+            if (minFreeSeats < 0) {
+                error(BookingMetrics.ErrorType.INVALID_ARGUMENT).append(minFreeSeats).append(" is not a non-negative integer, number of empty seats must be a non-negative integer!\n");
+                return;
+            }
+        } catch (NumberFormatException e) {
+            error(BookingMetrics.ErrorType.INVALID_ARGUMENT);
+            tokens.appendField(log, 3);
+            log.append(" is not a valid integer.\n");
+            return;
+        }
 
-                        break; // Exit the switch-case block after logging the error
-                    }
-                    String[] refundSeatStrings = parts[2].split("_");
-                    int totalSeatsRefund = voyages.get(refundVoyageId).getTotalSeats();
-                    int[] refundSeatNumbers = Arrays.stream(refundSeatStrings).mapToInt(Integer::parseInt).toArray();
-                    boolean validSeatsRefund = true;
-                    int[] seatNumbersRefund = Arrays.stream(refundSeatStrings).mapToInt(Integer::parseInt).toArray();
-                    for (int seatNumber : seatNumbersRefund) {
-                        if (seatNumber <= 0) {
-                            log.append("ERROR: ").append(seatNumber).append(" is not a positive integer, seat number must be a positive integer!\n");
-
-                            validSeatsRefund = false;
-                            break; // Exit the loop and skip selling tickets as there is an invalid seat number
-                        }
-                        if (seatNumber > totalSeatsRefund) {
-                            log.append("ERROR: There is no such a seat!\n");
-
-                            validSeatsRefund = false;
-                            break; // Exit the loop and skip selling tickets as there is an invalid seat number
-                        }
-                    }
-                    if (validSeatsRefund) {
-                        refundTicket(refundVoyageId, refundSeatNumbers);
-                    }
+        searchVoyages(tokens.field(1), tokens.field(2), minFreeSeats);
+    }
 
-                    break;
-                default:
-                    log.append("ERROR: There is no command namely ").append(parts[0]).append("!\n");
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("ERROR: This program works exactly with two command line arguments, the first one is the path to the input file whereas the second one is the path to the output file. Sample usage can be as follows: \"java BookingSystem input.txt output.txt\". Program is going to terminate!");
+            return;
+        }
+        String input = args[0];
+        String output = args[1];
+        File inputFile = new File(input);
+        if (!inputFile.exists() || !inputFile.canRead()) {
+            System.out.println("ERROR: This program cannot read from the \"" + input + "\", either this program does not have read permission to read that file or file does not exist. Program is going to terminate!");
+            return;
+        }
 
-                    break;
-            }
+        BookingService service = BookingJournal.openService(); // Recovered from the journal if one is configured
+        if (service == null) {
+            return;
         }
-        if (!"Z_REPORT".equals(inputlines[lastIndex].split("\t")[0])){
-            printZReport();
+        service.useCommandClock(); // Holds expire after a number of commands, whatever the speed of the replay
+        int parallelism = Integer.getInteger("booking.parallelism", 0); // Batch mode if set, the log is the same either way
+        int pipelineWorkers = Integer.getInteger("booking.pipeline", 0); // Staged pipeline if set and not in batch mode, same log
+        if (parallelism <= 0 && pipelineWorkers > 0 && !BinaryCommandFile.isBinary(input)) {
+            executePipeline(service, input, output, pipelineWorkers);
+            return;
         }
-        StringBuilder finalLog = new StringBuilder(log);
-        if (finalLog.length() > 0 && finalLog.charAt(finalLog.length() - 1) == '\n') {
-            finalLog.setLength(finalLog.length() - 1); // Remove the last newline character
+        Writer outputWriter = FileOutput.openWriter(output, false);
+        if (outputWriter == null) {
+            service.close();
+            return;
         }
+        LogWriter log = new LogWriter(outputWriter, true); // The log is written as the commands are processed, without its last newline
+        BookingSystem bookingSystem = new BookingSystem(service, log);
+        ForkJoinPool pool = parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+        BatchExecutor batchExecutor = pool != null ? new BatchExecutor(service, log, pool, Integer.getInteger("booking.batchSize", 4096)) : null;
+
+        try {
+            String[] lastCommandLine = new String[1]; // Only the most recent line is kept, the final Z report check needs nothing more
+            boolean[] endsWithZReport = {false};
+            boolean readSuccessfully;
+            if (BinaryCommandFile.isBinary(input)) { // Converted by BinaryCommandFile, replayed one command at a time
+                readSuccessfully = BinaryCommandFile.readCommands(input, true, command -> {
+                    endsWithZReport[0] = command.isZReport();
+                    bookingSystem.executeCommand(command);
+                });
+            } else {
+                readSuccessfully = FileInput.readLines(input, true, false, line -> {
+                    lastCommandLine[0] = line;
+                    if (batchExecutor != null) {
+                        batchExecutor.executeCommand(line);
+                    } else {
+                        bookingSystem.executeCommand(line);
+                    }
+                });
+                endsWithZReport[0] = lastCommandLine[0] != null && BinaryCommand.isZReportLine(lastCommandLine[0]);
+            }
+            if (batchExecutor != null) {
+                batchExecutor.flush();
+            }
+            if (readSuccessfully && !endsWithZReport[0]) {
+                bookingSystem.printZReport();
+            }
+        } finally { // Also if a command throws, so that the log ends with the complete output of the commands before it
+            if (pool != null) {
+                pool.shutdown();
+            }
+            log.close();
+            service.close();
+        }
+    }
 
-        // Write the adjusted log to the output file
-        FileOutput.writeToFile(output, finalLog.toString(), false, false);
+    /**
+     * Executes a text command file in a {@link CommandPipeline}, with {@code booking.pipeline.chunkSize} lines per chunk (1024
+     * by default) and {@code booking.pipeline.queueSize} chunks per queue (16 by default). The log is the same as the log of
+     * executing the lines one at a time. If the booking service collects metrics, the summary of the stages is printed to the
+     * standard error stream.
+     *
+     * @param service Booking service that the commands are executed on.
+     * @param input   Path to the command file.
+     * @param output  Path to the log file.
+     * @param workers Number of threads that parse and encode the chunks.
+     */
+    private static void executePipeline(BookingService service, String input, String output, int workers) {
+        OutputStream outputStream = FileOutput.openStream(output, false);
+        if (outputStream == null) {
+            service.close();
+            return;
+        }
+        CommandPipeline pipeline = new CommandPipeline(service, outputStream, workers, Integer.getInteger("booking.pipeline.chunkSize", 1024),
+                Integer.getInteger("booking.pipeline.queueSize", 16));
+        String[] lastCommandLine = new String[1];
+        boolean readSuccessfully = FileInput.readLines(input, true, false, line -> {
+            lastCommandLine[0] = line;
+            pipeline.executeCommand(line);
+        });
+        boolean endsWithZReport = lastCommandLine[0] != null && BinaryCommand.isZReportLine(lastCommandLine[0]);
+        try {
+            pipeline.finish(readSuccessfully && !endsWithZReport); // Throws if a command has thrown, after its output has been written
+            if (service.getMetrics() != null) {
+                System.err.print(pipeline.getSummary());
+            }
+        } finally {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            service.close();
+        }
     }
 }
@@ -1,68 +1,429 @@
-import java.util.Locale; // Required for formatting specific locales
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
- * Abstract base class representing a generic bus with capabilities to manage voyages,
- * including selling and refunding seats, and printing details.
+ * Represents a bus with capabilities to manage voyages, including selling and refunding seats, and printing details.
+ * The type of the bus, that is its seats, their prices and how they are printed, is given by its {@link SeatLayout}.
+ * Seats and revenue are guarded by the bus's monitor, so a voyage can be used by many threads at once. Voyages whose seats are
+ * kept in a {@link ConcurrentSeatMap} can also be sold and refunded without the monitor, see {@link #sellSeatsLockFree(int...)}.
+ * <p>
+ * The commands are implemented here, on top of the state of the voyage that the subclasses keep: {@link ObjectBus} keeps it in
+ * its own fields, and the views of a {@link VoyageColumns} keep it in columns shared by many voyages.
  */
 public abstract class Bus {
-    private int id;
-    private String from;
-    private String to;
-    private int numberOfRows;
-    private double price;
-    private double refundCut;
-    protected boolean[] seatsSold;
-    private double revenue = 0;
+    private static final long LOCK_FREE_REVENUE_LIMIT = Long.MAX_VALUE / 2; // Lock-free sales take the monitor beyond this
+    private static final ThreadLocal<StringBuilder> RENDER_BUFFER = ThreadLocal.withInitial(StringBuilder::new); // For uncached details
+
+    private final SeatLayout layout;
+    private SeatMap held = null; // Seats of pending holds, created by the first hold, never sold at the same time
 
     /**
      * Constructor for Bus.
      *
-     * @param id The unique identifier for the bus.
-     * @param from Starting point of the voyage.
-     * @param to Destination of the voyage.
-     * @param numberOfRows Number of rows in the bus.
-     * @param price Price per seat.
-     * @param refundCut Percentage of the price deducted on refund.
+     * @param layout Seat layout of the bus.
+     */
+    protected Bus(SeatLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * @return Seat occupancy of the voyage, guarded by the bus's monitor.
+     */
+    protected abstract SeatMap seats();
+
+    /**
+     * Replaces the seat occupancy with one of the same size, see {@link SeatMap#detach()}.
+     *
+     * @param seats Seat occupancy of the voyage, guarded by the bus's monitor.
+     */
+    protected abstract void storeSeats(SeatMap seats);
+
+    /**
+     * @return Revenue in fixed point, guarded by the bus's monitor.
+     */
+    protected abstract long revenueUnits();
+
+    /**
+     * @param revenue Revenue in fixed point, guarded by the bus's monitor.
+     */
+    protected abstract void storeRevenueUnits(long revenue);
+
+    /**
+     * @return true if the voyage has been cancelled, guarded by the bus's monitor.
+     */
+    protected abstract boolean cancelledFlag();
+
+    /**
+     * Marks the voyage as cancelled, guarded by the bus's monitor.
+     */
+    protected abstract void storeCancelled();
+
+    /**
+     * Called whenever the seats, the revenue or the route of the voyage change, for subclasses that cache the voyage details.
+     */
+    protected void detailsChanged() {
+    }
+
+    /**
+     * Drops the holds, for subclasses that replace the seat occupancy with one of another size.
+     */
+    protected void clearHolds() {
+        held = null;
+    }
+
+    /**
+     * @return Seat layout of the bus.
      */
-    public Bus(int id, String from, String to, int numberOfRows, double price, double refundCut) {
-        setId(id);
-        setFrom(from);
-        setTo(to);
-        setNumberOfRows(numberOfRows);
-        setPrice(price);
-        setRefundCut(refundCut);
-        this.seatsSold = new boolean[getTotalSeats()];
+    public SeatLayout getLayout() {
+        return layout;
     }
 
     /**
-     * Abstract method to get the total number of seats in the bus.
+     * Calculates the total number of seats on the bus, the seats of a row of its layout times the number of rows.
+     *
      * @return Total number of seats.
      */
-    abstract int getTotalSeats();
+    public int getTotalSeats() {
+        return seats().size();
+    }
 
     /**
      * Sells one or more seats on the bus.
      *
      * @param seatNumbers The seat numbers to sell.
      * @return true if all seats are successfully sold, false otherwise.
+     * @throws ArithmeticException If the revenue would be out of range, the seats are not sold then.
+     */
+    public synchronized boolean sellSeats(int... seatNumbers) {
+        ConcurrentSeatMap claims = closeGate();
+        try {
+            SeatMap seats = seats();
+            if (cancelledFlag()) {
+                return false; // The voyage has been cancelled while the caller was holding it
+            }
+            for (int seatNumber : seatNumbers) {
+                if (seatNumber <= 0 || seatNumber > seats.size() || seats.isSold(seatNumber) || isHeld(seatNumber)) {
+                    return false; // Invalid seat number or seat already sold or held
+                }
+            }
+            long revenue = Math.addExact(revenueUnits(), getFareTable().saleTotal(seatNumbers)); // Throws before any change
+
+            for (int seatNumber : seatNumbers) {
+                seats.sell(seatNumber);
+            }
+
+            storeRevenueUnits(revenue);
+            detailsChanged();
+            return true;
+        } finally {
+            openGate(claims);
+        }
+    }
+
+    /**
+     * Sells one or more seats without taking the bus's monitor if the seats are kept in a {@link ConcurrentSeatMap}, so that
+     * the sales of a hot voyage do not wait for each other. The seats are claimed all or none, see
+     * {@link ConcurrentSeatMap#claim(int[], long)}. For seats that span several seat words, while the monitor holder has
+     * closed the gate of the seats, and for voyages with other seat maps, this is the same as {@link #sellSeats(int...)}. So is
+     * a sale once the revenue has reached half the range of fixed point amounts, because the lock-free claims add to the
+     * revenue without overflow checks.
+     *
+     * @param seatNumbers The seat numbers to sell.
+     * @return true if all seats are successfully sold, false otherwise.
+     * @throws ArithmeticException If the revenue would be out of range, the seats are not sold then.
+     */
+    public boolean sellSeatsLockFree(int... seatNumbers) {
+        SeatMap seats = seats();
+        if (!(seats instanceof ConcurrentSeatMap) || !ConcurrentSeatMap.isClaimable(seatNumbers)
+                || !((ConcurrentSeatMap) seats).enter()) {
+            return sellSeats(seatNumbers);
+        }
+        ConcurrentSeatMap claims = (ConcurrentSeatMap) seats;
+        try {
+            // The gate orders the reads below after the last cancellation or hold, which close it
+            if (cancelledFlag() || !areValid(seatNumbers, seats) || isAnyHeld(seatNumbers)) {
+                return false;
+            }
+            if (revenueUnits() + claims.pendingRevenue() <= LOCK_FREE_REVENUE_LIMIT) {
+                return claims.claim(seatNumbers, getFareTable().saleTotal(seatNumbers));
+            }
+        } finally {
+            claims.leave();
+        }
+        return sellSeats(seatNumbers); // Close to the end of the range, where the revenue is added exactly
+    }
+
+    /**
+     * Refunds one or more seats without taking the bus's monitor if the seats are kept in a {@link ConcurrentSeatMap}, see
+     * {@link #sellSeatsLockFree(int...)}.
+     *
+     * @param seatNumbers The seat numbers to refund.
+     * @return true if all seats are successfully refunded, false otherwise.
      */
-    public boolean sellSeats(int... seatNumbers) {
-        double totalSalePrice = 0.0;
+    public boolean refundSeatsLockFree(int... seatNumbers) {
+        SeatMap seats = seats();
+        if (!(seats instanceof ConcurrentSeatMap) || !ConcurrentSeatMap.isClaimable(seatNumbers)
+                || !((ConcurrentSeatMap) seats).enter()) {
+            return refundSeats(seatNumbers);
+        }
+        ConcurrentSeatMap claims = (ConcurrentSeatMap) seats;
+        try {
+            if (cancelledFlag() || !areValid(seatNumbers, seats)) {
+                return false;
+            }
+            return claims.release(seatNumbers, getFareTable().refundTotal(seatNumbers));
+        } finally {
+            claims.leave();
+        }
+    }
+
+    private static boolean areValid(int[] seatNumbers, SeatMap seats) {
         for (int seatNumber : seatNumbers) {
-            if (seatNumber <= 0 || seatNumber > seatsSold.length || seatsSold[seatNumber - 1]) {
-                return false; // Invalid seat number or seat already sold
+            if (seatNumber <= 0 || seatNumber > seats.size()) {
+                return false;
             }
         }
+        return true;
+    }
 
+    private boolean isAnyHeld(int[] seatNumbers) {
+        if (held == null) {
+            return false;
+        }
         for (int seatNumber : seatNumbers) {
-            seatsSold[seatNumber - 1] = true;
-            totalSalePrice += calculateSeatPrice(seatNumber);
+            if (held.isSold(seatNumber)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the gate of the seats if they are kept in a {@link ConcurrentSeatMap}, so that no lock-free sale or refund runs
+     * while the monitor holder changes the seats or the revenue, and adds the revenue of the lock-free claims to the voyage.
+     * It must be called while the bus's monitor is held, and followed by {@link #openGate(ConcurrentSeatMap)}.
+     *
+     * @return The seat map whose gate has been closed, null if there is none or an enclosing call has closed it.
+     */
+    private ConcurrentSeatMap closeGate() {
+        SeatMap seats = seats();
+        if (!(seats instanceof ConcurrentSeatMap) || !((ConcurrentSeatMap) seats).close()) {
+            return null;
+        }
+        ConcurrentSeatMap claims = (ConcurrentSeatMap) seats;
+        long revenue;
+        try {
+            revenue = Math.addExact(revenueUnits(), claims.pendingRevenue()); // The claims stand still while the gate is closed
+        } catch (ArithmeticException e) {
+            claims.open();
+            throw e;
+        }
+        claims.drainRevenue();
+        storeRevenueUnits(revenue);
+        return claims;
+    }
+
+    /**
+     * @param claims The seat map returned by {@link #closeGate()}, null if it has not closed any.
+     */
+    private static void openGate(ConcurrentSeatMap claims) {
+        if (claims != null) {
+            claims.open();
+        }
+    }
+
+    /**
+     * @return Revenue in fixed point, including the lock-free sales and refunds that have not been added to the voyage yet.
+     */
+    private long revenue() {
+        SeatMap seats = seats();
+        return seats instanceof ConcurrentSeatMap ? Math.addExact(revenueUnits(), ((ConcurrentSeatMap) seats).pendingRevenue()) : revenueUnits();
+    }
+
+    /**
+     * Holds one or more empty seats, so that they can be neither sold nor held again until the hold is confirmed or released.
+     * Holding does not change the revenue or the cached voyage details.
+     *
+     * @param seatNumbers The seat numbers to hold.
+     * @return true if all seats are held, false if the voyage has been cancelled or any of the seats is invalid, sold or held.
+     */
+    public synchronized boolean holdSeats(int... seatNumbers) {
+        ConcurrentSeatMap claims = closeGate();
+        try {
+            SeatMap seats = seats();
+            if (cancelledFlag()) {
+                return false;
+            }
+            for (int seatNumber : seatNumbers) {
+                if (seatNumber <= 0 || seatNumber > seats.size() || seats.isSold(seatNumber) || isHeld(seatNumber)) {
+                    return false;
+                }
+            }
+            if (held == null) {
+                held = new SeatMap(seats.size());
+            }
+            for (int seatNumber : seatNumbers) {
+                held.sell(seatNumber);
+            }
+            return true;
+        } finally {
+            openGate(claims);
+        }
+    }
+
+    /**
+     * Sells seats that are held, adding their price to the revenue.
+     *
+     * @param seatNumbers The held seat numbers.
+     * @return true if all seats are sold, false if the voyage has been cancelled or any of the seats is not held.
+     * @throws ArithmeticException If the revenue would be out of range, the seats stay held then.
+     */
+    public synchronized boolean confirmSeats(int... seatNumbers) {
+        ConcurrentSeatMap claims = closeGate();
+        try {
+            if (cancelledFlag() || !areHeld(seatNumbers)) {
+                return false;
+            }
+            long revenue = Math.addExact(revenueUnits(), getFareTable().saleTotal(seatNumbers)); // Throws before any change
+            SeatMap seats = seats();
+            for (int seatNumber : seatNumbers) {
+                held.refund(seatNumber);
+                seats.sell(seatNumber);
+            }
+            storeRevenueUnits(revenue);
+            detailsChanged();
+            return true;
+        } finally {
+            openGate(claims);
+        }
+    }
+
+    /**
+     * Makes held seats empty again. Seats of a cancelled voyage can be released as well.
+     *
+     * @param seatNumbers The held seat numbers.
+     * @return true if all seats are released, false if any of the seats is not held.
+     */
+    public synchronized boolean releaseSeats(int... seatNumbers) {
+        ConcurrentSeatMap claims = closeGate();
+        try {
+            if (!areHeld(seatNumbers)) {
+                return false;
+            }
+            for (int seatNumber : seatNumbers) {
+                held.refund(seatNumber);
+            }
+            return true;
+        } finally {
+            openGate(claims);
         }
+    }
+
+    private boolean isHeld(int seatNumber) {
+        return held != null && held.isSold(seatNumber);
+    }
 
-        revenue += totalSalePrice;
+    private boolean areHeld(int[] seatNumbers) {
+        for (int seatNumber : seatNumbers) {
+            if (seatNumber <= 0 || seatNumber > seats().size() || !isHeld(seatNumber)) {
+                return false;
+            }
+        }
         return true;
     }
 
+    /**
+     * @param fromSeat 1-based number of the first seat of a row.
+     * @param count    Number of seats in the row.
+     * @return Bit i is set if the i-th seat of the row is sold or held.
+     */
+    private long takenRowBits(int fromSeat, int count) {
+        long taken = seats().rowBits(fromSeat, count);
+        return held == null ? taken : taken | held.rowBits(fromSeat, count);
+    }
+
+    /**
+     * @return Number of held seats.
+     */
+    public synchronized int getHeldSeatCount() {
+        return held == null ? 0 : held.getSoldCount();
+    }
+
+    /**
+     * Checks whether a seat is held.
+     *
+     * @param seatNumber 1-based seat number, must be in range of [1, getTotalSeats()].
+     * @return true if the seat is held, false otherwise.
+     */
+    public synchronized boolean isSeatHeld(int seatNumber) {
+        return isHeld(seatNumber);
+    }
+
+    /**
+     * Picks the best empty seats for a sale without selling them, held seats are not empty. In order of preference, the seats are a block of adjacent
+     * seats in one group of a row, any seats of a single row, or the empty seats with the lowest numbers. Earlier rows are
+     * preferred within each of these. Every row is checked with a few operations on the bit mask of its empty seats.
+     *
+     * @param count     Number of seats, must be positive.
+     * @param seatClass Index of the seat class in the layout, -1 for seats of any class.
+     * @return The seat numbers in ascending order, null if the voyage does not have that many empty seats of the class.
+     * Lock-free sales do not take the monitor, so the seats may have been sold by the time they are returned.
+     */
+    public synchronized int[] findBestSeats(int count, int seatClass) {
+        if (count > getFreeSeatCount()) {
+            return null;
+        }
+        SeatMap seats = seats();
+        int firstFree = seats.nextFree(1);
+        if (firstFree == -1) {
+            return null; // A lock-free sale has taken the last empty seats since they were counted
+        }
+        FareTable fareTable = getFareTable();
+        int numberOfRows = getNumberOfRows();
+        int seatsPerRow = layout.getSeatsPerRow();
+        long classMask = layout.getRowMask(seatClass);
+        long blockStarts = layout.getBlockStartMask(count);
+        int rowWithEnoughSeats = -1;
+        int firstRow = count <= seatsPerRow ? Math.max(0, (firstFree - 1) / seatsPerRow) : numberOfRows; // Rows cannot hold more
+        for (int row = firstRow; row < numberOfRows; row++) {
+            long free = ~takenRowBits(row * seatsPerRow + 1, seatsPerRow) & classMask;
+            long starts = free & blockStarts;
+            for (int i = 1; i < count && starts != 0; i++) {
+                starts &= free >>> i; // Keeps the starts whose i-th next seat is empty as well
+            }
+            if (starts != 0) {
+                int first = row * seatsPerRow + Long.numberOfTrailingZeros(starts) + 1;
+                int[] seatNumbers = new int[count];
+                for (int i = 0; i < count; i++) {
+                    seatNumbers[i] = first + i;
+                }
+                return seatNumbers;
+            }
+            if (rowWithEnoughSeats < 0 && Long.bitCount(free) >= count) {
+                rowWithEnoughSeats = row;
+                if (blockStarts == 0) {
+                    break; // No block can fit, the first row with enough seats is the best
+                }
+            }
+        }
+
+        int[] seatNumbers = new int[count];
+        int found = 0;
+        if (rowWithEnoughSeats >= 0) {
+            long free = ~takenRowBits(rowWithEnoughSeats * seatsPerRow + 1, seatsPerRow) & classMask;
+            for (; found < count; found++, free &= free - 1) {
+                seatNumbers[found] = rowWithEnoughSeats * seatsPerRow + Long.numberOfTrailingZeros(free) + 1;
+            }
+            return seatNumbers;
+        }
+        for (int seat = seats.nextFree(1); seat != -1 && found < count; seat = seats.nextFree(seat + 1)) {
+            if ((seatClass < 0 || fareTable.getSeatClass(seat) == seatClass) && !isHeld(seat)) {
+                seatNumbers[found++] = seat;
+            }
+        }
+        return found == count ? seatNumbers : null;
+    }
+
     /**
      * Calculates the price of a specific seat.
      *
@@ -70,9 +431,29 @@ public abstract class Bus {
      * @return The price of the seat.
      */
     protected double calculateSeatPrice(int seatNumber) {
-        return price; // Default behavior, return the standard price
+        return Money.toDouble(getFareTable().getSaleAmount(seatNumber));
     }
 
+    /**
+     * Sums the amounts paid for the seats that are currently sold, which is what a cancellation pays back.
+     *
+     * @return Total sale amount of the sold seats in fixed point.
+     */
+    public synchronized long getSoldSeatsSaleTotal() {
+        SeatMap seats = seats();
+        FareTable fareTable = getFareTable();
+        long total = 0;
+        for (int seat = seats.nextSold(1); seat != -1; seat = seats.nextSold(seat + 1)) {
+            total += fareTable.getSaleAmount(seat);
+        }
+        return total;
+    }
+
+    /**
+     * @return Fare table of the voyage, built from its pricing parameters.
+     */
+    public abstract FareTable getFareTable();
+
     /**
      * Prints details of the current voyage.
      *
@@ -80,113 +461,335 @@ public abstract class Bus {
      */
     public String printVoyageDetails() {
         StringBuilder details = new StringBuilder();
-        details.append("Voyage ").append(getId()).append("\n");
-        details.append(from).append("-").append(to).append("\n");
-        details.append(printSeatsConfiguration() + "\n");
-        details.append(String.format(Locale.US, "Revenue: %.2f", revenue));
+        appendVoyageDetails(details);
         return details.toString();
     }
 
     /**
-     * Abstract method to print the seats configuration.
+     * Appends details of the current voyage to the given destination.
+     * The text is the same as {@link #printVoyageDetails()}, there is no newline after the revenue line.
+     * Subclasses may cache the text until the voyage changes, see {@link #detailsChanged()}.
+     *
+     * @param out Destination of the voyage details.
+     */
+    public synchronized void appendVoyageDetails(Appendable out) {
+        appendRenderedDetails(out, false);
+    }
+
+    /**
+     * Renders the details of the current voyage.
+     *
+     * @param out       Destination of the voyage details.
+     * @param showHolds true to print held seats with their own glyph, false to print them as empty seats.
+     */
+    protected synchronized void renderVoyageDetails(StringBuilder out, boolean showHolds) {
+        out.append("Voyage ").append(getId()).append('\n').append(getFrom()).append('-').append(getTo()).append('\n');
+        appendSeatsConfiguration(out, showHolds);
+        out.append("\nRevenue: ");
+        Money.append(out, revenue());
+    }
+
+    /**
+     * Appends details of the current voyage, optionally showing the held seats. Holds change without invalidating a cache
+     * of the details, so the details are rendered from scratch when they are shown.
+     *
+     * @param out       Destination of the voyage details.
+     * @param showHolds true to print held seats with their own glyph, false for the same text as {@link #appendVoyageDetails(Appendable)}.
+     */
+    public synchronized void appendVoyageDetails(Appendable out, boolean showHolds) {
+        if (showHolds) {
+            appendRenderedDetails(out, true);
+        } else {
+            appendVoyageDetails(out);
+        }
+    }
+
+    private void appendRenderedDetails(Appendable out, boolean showHolds) {
+        if (out instanceof StringBuilder) {
+            renderVoyageDetails((StringBuilder) out, showHolds);
+            return;
+        }
+        StringBuilder details = RENDER_BUFFER.get();
+        details.setLength(0);
+        renderVoyageDetails(details, showHolds);
+        try {
+            out.append(details);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Prints the seats configuration.
+     * @return Formatted string representing the seats configuration.
+     */
+    String printSeatsConfiguration() {
+        StringBuilder config = new StringBuilder();
+        appendSeatsConfiguration(config);
+        return config.toString();
+    }
+
+    /**
+     * Prints the seats configuration, optionally showing the held seats.
+     *
+     * @param showHolds true to print held seats with their own glyph, false to print them as empty seats.
      * @return Formatted string representing the seats configuration.
      */
-    abstract String printSeatsConfiguration();
+    String printSeatsConfiguration(boolean showHolds) {
+        StringBuilder config = new StringBuilder();
+        appendSeatsConfiguration(config, showHolds);
+        return config.toString();
+    }
+
+    /**
+     * Appends the seats configuration row by row, sold seats are marked with 'X' and empty seats with '*' in the built-in layouts.
+     * Held seats are printed as empty seats.
+     *
+     * @param out Destination of the seats configuration.
+     */
+    public void appendSeatsConfiguration(Appendable out) {
+        appendSeatsConfiguration(out, false);
+    }
+
+    /**
+     * Appends the seats configuration row by row. When holds are shown, held seats are marked with 'H' in the built-in layouts.
+     *
+     * @param out       Destination of the seats configuration.
+     * @param showHolds true to print held seats with their own glyph, false to print them as empty seats.
+     */
+    public synchronized void appendSeatsConfiguration(Appendable out, boolean showHolds) {
+        boolean holds = showHolds && held != null && held.getSoldCount() != 0;
+        if (out instanceof StringBuilder) {
+            if (holds) {
+                layout.appendSeats((StringBuilder) out, seats(), held);
+            } else {
+                layout.appendSeats((StringBuilder) out, seats());
+            }
+            return;
+        }
+        StringBuilder config = new StringBuilder();
+        appendSeatsConfiguration(config, showHolds);
+        try {
+            out.append(config);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
     /**
      * Refunds one or more seats on the bus.
      *
      * @param seatNumbers The seat numbers to refund.
      * @return true if all seats are successfully refunded, false otherwise.
+     * @throws ArithmeticException If the revenue would be out of range, the seats are not refunded then.
      */
-    public boolean refundSeats(int... seatNumbers) {
-        double refundAmount = 0;
-        for (int seatNumber : seatNumbers) {
-            if (seatNumber <= 0 || seatNumber > seatsSold.length || !seatsSold[seatNumber - 1]) {
-                return false; // Seat is invalid or not sold, fail the entire operation
+    public synchronized boolean refundSeats(int... seatNumbers) {
+        ConcurrentSeatMap claims = closeGate();
+        try {
+            SeatMap seats = seats();
+            if (cancelledFlag()) {
+                return false; // The voyage has been cancelled while the caller was holding it
+            }
+            for (int seatNumber : seatNumbers) {
+                if (seatNumber <= 0 || seatNumber > seats.size() || !seats.isSold(seatNumber)) {
+                    return false; // Seat is invalid or not sold, fail the entire operation
+                }
+            }
+            long revenue = Math.subtractExact(revenueUnits(), getFareTable().refundTotal(seatNumbers)); // Throws before any change
+
+            for (int seatNumber : seatNumbers) {
+                seats.refund(seatNumber);
             }
+
+            storeRevenueUnits(revenue);
+            detailsChanged();
+            return true; // Success
+        } finally {
+            openGate(claims);
         }
+    }
 
-        for (int seatNumber : seatNumbers) {
-            seatsSold[seatNumber - 1] = false;
-            refundAmount += price - (price * refundCut / 100);
+    /**
+     * Marks the voyage as cancelled, sales and refunds fail from now on. Seats that are kept off the heap or in a shared page
+     * are copied to their own heap memory and their words are released, the occupancy of a cancelled voyage never changes again.
+     */
+    public synchronized void cancel() {
+        ConcurrentSeatMap claims = closeGate();
+        try {
+            storeCancelled();
+            SeatMap seats = seats();
+            SeatMap detached = seats.detach();
+            if (detached != seats) {
+                storeSeats(detached);
+            }
+        } finally {
+            openGate(claims);
         }
+    }
 
-        revenue -= refundAmount;
-        return true; // Success
+    /**
+     * @return true if the voyage has been cancelled, false otherwise.
+     */
+    public synchronized boolean isCancelled() {
+        return cancelledFlag();
     }
 
     /**
-     * Abstract method to print detailed information about the bus.
-     * @return Detailed information string.
+     * Generates a detailed description of the bus upon initialization, including its route, pricing and refund policy.
+     *
+     * @return A descriptive string detailing the initialization parameters of the bus.
      */
-    abstract String printDetails();
+    String printDetails() {
+        StringBuilder details = new StringBuilder();
+        layout.appendInitialization(details, this);
+        return details.toString();
+    }
 
     // Getter and setter methods
-    // Getter and Setter methods
-    public int getId() {
-        return id;
-    }
+    public abstract int getId();
 
-    public void setId(int id) {
-        this.id = id;
-    }
+    public abstract String getFrom();
 
-    public String getFrom() {
-        return from;
-    }
+    public abstract void setFrom(String from);
+
+    public abstract String getTo();
+
+    public abstract void setTo(String to);
+
+    public abstract int getNumberOfRows();
 
-    public void setFrom(String from) {
-        this.from = from;
+    public double getPrice() {
+        return Money.toDouble(getPriceUnits());
     }
 
-    public String getTo() {
-        return to;
+    /**
+     * @return Price per seat in fixed point.
+     */
+    public abstract long getPriceUnits();
+
+    public abstract double getRefundCut();
+
+    /**
+     * Gets the additional fee percentage for premium seats.
+     *
+     * @return The premium fee percentage.
+     */
+    public abstract double getPremiumFee();
+
+    /**
+     * Copies the seat occupancy into a new array. Prefer the seat queries below, which do not copy anything.
+     *
+     * @return Sold flags, index i belongs to seat i + 1.
+     */
+    public synchronized boolean[] getSeatsSold() {
+        return seats().toArray(); // Return a copy to protect the internal seat map
     }
 
-    public void setTo(String to) {
-        this.to = to;
+    /**
+     * Checks whether a seat is sold.
+     *
+     * @param seatNumber 1-based seat number, must be in range of [1, getTotalSeats()].
+     * @return true if the seat is sold, false if it is empty.
+     */
+    public synchronized boolean isSeatSold(int seatNumber) {
+        return seats().isSold(seatNumber);
     }
 
-    public int getNumberOfRows() {
-        return numberOfRows;
+    /**
+     * @return Number of sold seats.
+     */
+    public synchronized int getSoldSeatCount() {
+        return seats().getSoldCount();
     }
 
-    public void setNumberOfRows(int numberOfRows) {
-        this.numberOfRows = numberOfRows;
-        this.seatsSold = new boolean[getTotalSeats()]; // Reinitialize seats array if number of rows changes
+    /**
+     * @return Number of empty seats, held seats are not empty.
+     */
+    public synchronized int getFreeSeatCount() {
+        return seats().getFreeCount() - (held == null ? 0 : held.getSoldCount());
     }
 
-    public double getPrice() {
-        return price;
+    /**
+     * Finds the first sold seat starting from the given seat, can be used as a cursor over the sold seats.
+     *
+     * @param fromSeat 1-based seat number to start from.
+     * @return Seat number of the sold seat, -1 if there is none.
+     */
+    public synchronized int nextSoldSeat(int fromSeat) {
+        return seats().nextSold(fromSeat);
     }
 
-    public void setPrice(double price) {
-        this.price = price;
+    /**
+     * Finds the first empty seat starting from the given seat, can be used as a cursor over the empty seats. Held seats are skipped.
+     *
+     * @param fromSeat 1-based seat number to start from.
+     * @return Seat number of the empty seat, -1 if there is none.
+     */
+    public synchronized int nextFreeSeat(int fromSeat) {
+        SeatMap seats = seats();
+        int seat = seats.nextFree(fromSeat);
+        while (seat != -1 && isHeld(seat)) {
+            seat = seats.nextFree(seat + 1);
+        }
+        return seat;
     }
 
-    public double getRefundCut() {
-        return refundCut;
+    public synchronized double getRevenue() {
+        return Money.toDouble(revenue());
     }
 
-    public void setRefundCut(double refundCut) {
-        this.refundCut = refundCut;
+    public synchronized void setRevenue(double revenue) {
+        ConcurrentSeatMap claims = closeGate();
+        try {
+            storeRevenueUnits(Money.fromDouble(revenue));
+            detailsChanged();
+        } finally {
+            openGate(claims);
+        }
     }
 
-    public boolean[] getSeatsSold() {
-        return seatsSold.clone(); // Return a copy to protect the internal array
+    /**
+     * @return Revenue in fixed point.
+     */
+    public synchronized long getRevenueUnits() {
+        return revenue();
     }
 
-    public double getRevenue() {
-        return revenue;
+    /**
+     * @param revenue Revenue in fixed point.
+     */
+    public synchronized void setRevenueUnits(long revenue) {
+        ConcurrentSeatMap claims = closeGate();
+        try {
+            storeRevenueUnits(revenue);
+            detailsChanged();
+        } finally {
+            openGate(claims);
+        }
     }
 
-    public void setRevenue(double revenue) {
-        this.revenue = revenue;
+    /**
+     * Copies the occupancy as bit words, see {@link SeatMap#toWords()}.
+     *
+     * @return Bit words of the seat map.
+     */
+    public synchronized long[] getSeatWords() {
+        return seats().toWords();
     }
 
-    public void setSeatsSold(boolean[] seatsSold) {
-        this.seatsSold = seatsSold;
+    /**
+     * Replaces the occupancy with the given bit words, see {@link SeatMap#fromWords(int, long[])}.
+     *
+     * @param words Bit words of the seat map.
+     */
+    public synchronized void setSeatWords(long[] words) {
+        ConcurrentSeatMap claims = closeGate();
+        try {
+            seats().setWords(words);
+            detailsChanged();
+        } finally {
+            openGate(claims);
+        }
     }
 
 }
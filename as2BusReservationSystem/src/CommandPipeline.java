@@ -0,0 +1,472 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Executes the lines of a command file in a pipeline of stages, so that parsing and output overlap with the commands.
+ * <p>
+ * Lines are collected into chunks, which pass through five stages connected by bounded {@link Flow} queues, see
+ * {@link SubmissionPublisher}: a stage whose queue is full blocks the stage before it, back to the thread that reads the file.
+ * <ol>
+ *     <li>read: the caller's thread collects the lines, see {@link #executeCommand(String)}.</li>
+ *     <li>parse: the lines are parsed into {@link BinaryCommand}s, which also checks everything that does not depend on the
+ *     voyages. Chunks are parsed in parallel on the worker threads.</li>
+ *     <li>apply: a single thread executes the commands in file order, appending their output to the text of their chunk. The
+ *     output stays here because it shows the voyages as they are right after the command.</li>
+ *     <li>encode: the text of the chunks is encoded in the platform default charset in parallel on the worker threads.</li>
+ *     <li>write: the bytes are written to the output stream in file order.</li>
+ * </ol>
+ * The parallel stages hand a future of every chunk to the next stage right away, and the next stage waits for the futures in
+ * the order they came, so the chunks never overtake each other and the log is the same as the log of executing the commands
+ * one at a time. Only the last newline of the log is held back, same as in {@link LogWriter}.
+ * <p>
+ * Every stage counts the commands it has processed and the time it has been busy, and the time it has been blocked by the
+ * next stage. It also samples the depth of its input queue. A stage that is busy all the time while the stages before it are
+ * blocked and its input queue is full is the bottleneck, see {@link #getSummary()}.
+ * <p>
+ * If a command throws, the commands after it are not executed, and the exception is rethrown by {@link #finish(boolean)}
+ * after the output before it and its own output have been written, the same log as serial execution leaves behind.
+ */
+public class CommandPipeline {
+    private static final String[] STAGE_NAMES = {"read", "parse", "apply", "encode", "write"};
+
+    private final OutputStream out;
+    private final int chunkSize;
+    private final ForkJoinPool workers;
+    private final ExecutorService deliveries; // Threads that the queues deliver the chunks on, one per stage at a time
+    private final ConcurrentLinkedQueue<Chunk> freeChunks = new ConcurrentLinkedQueue<>();
+    private final StageMetrics[] metrics = new StageMetrics[STAGE_NAMES.length];
+    private final SubmissionPublisher<CompletableFuture<Chunk>> source;
+    private final Stage write;
+    private final long startNanos = System.nanoTime();
+    private long elapsedNanos = -1;
+    private Chunk chunk = null; // Chunk that the lines are collected in, owned by the read stage
+
+    // Owned by the apply stage
+    private final ChunkWriter chunkWriter = new ChunkWriter();
+    private final LogWriter chunkLog = new LogWriter(chunkWriter, false);
+    private final BookingSystem bookingSystem;
+    private volatile Throwable failure = null; // Failure of a command, also read by the read stage to stop collecting lines
+
+    // Owned by the encode stage's worker threads and the write stage
+    private final ThreadLocal<CharsetEncoder> encoders = ThreadLocal.withInitial(CommandPipeline::newEncoder);
+    private final byte[] newLine;
+    private boolean pendingNewLine = false;
+    private boolean writeStopped = false;
+    private boolean trouble = false;
+
+    /**
+     * Commands of consecutive lines and their output.
+     */
+    private static final class Chunk {
+        private final String[] lines;
+        private final BinaryCommand[] commands; // Created on first use and reused when the chunk is reused
+        private int size = 0;
+        private boolean zReport = false; // Print a Z report after the commands
+        private final StringBuilder text = new StringBuilder();
+        private ByteBuffer bytes = ByteBuffer.allocate(0);
+        private boolean endsWithNewLine = false; // The newline is not in the bytes
+        private boolean skipped = false; // Not executed, a command before it has failed
+        private Throwable failure = null; // Of a stage on a worker thread
+
+        private Chunk(int chunkSize) {
+            lines = new String[chunkSize];
+            commands = new BinaryCommand[chunkSize];
+        }
+    }
+
+    /**
+     * Constructor for CommandPipeline. The pipeline starts its threads at once.
+     *
+     * @param service   Registry of the voyages that the commands are executed on.
+     * @param out       Stream that the log is written to, it is neither flushed nor closed by the pipeline.
+     * @param workers   Number of threads that parse and encode the chunks.
+     * @param chunkSize Number of lines per chunk.
+     * @param queueSize Number of chunks that each queue holds before the stage before it blocks, rounded up to a power of two.
+     */
+    public CommandPipeline(BookingService service, OutputStream out, int workers, int chunkSize, int queueSize) {
+        this(service, out, workers, chunkSize, queueSize, ForkJoinPool.defaultForkJoinWorkerThreadFactory, Thread::new);
+    }
+
+    /**
+     * Constructor for CommandPipeline with the factories of its threads, for the benchmarks, which count the allocations of
+     * the threads.
+     *
+     * @param service       Registry of the voyages that the commands are executed on.
+     * @param out           Stream that the log is written to, it is neither flushed nor closed by the pipeline.
+     * @param workers       Number of threads that parse and encode the chunks.
+     * @param chunkSize     Number of lines per chunk.
+     * @param queueSize     Number of chunks that each queue holds before the stage before it blocks.
+     * @param workerFactory Factory of the threads that parse and encode the chunks.
+     * @param threadFactory Factory of the threads that pass the chunks from stage to stage.
+     */
+    CommandPipeline(BookingService service, OutputStream out, int workers, int chunkSize, int queueSize,
+                    ForkJoinPool.ForkJoinWorkerThreadFactory workerFactory, ThreadFactory threadFactory) {
+        this.out = out;
+        this.chunkSize = chunkSize;
+        this.workers = new ForkJoinPool(workers, workerFactory, null, false);
+        this.deliveries = Executors.newCachedThreadPool(task -> {
+            Thread thread = threadFactory.newThread(task);
+            thread.setName("command-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.bookingSystem = new BookingSystem(service, chunkLog);
+        this.newLine = encode(newEncoder(), "\n");
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            metrics[i] = new StageMetrics(STAGE_NAMES[i]);
+        }
+
+        source = new SubmissionPublisher<>(deliveries, queueSize);
+        Stage parse = new Stage(metrics[1], metrics[2], this::parse, true, queueSize);
+        Stage apply = new Stage(metrics[2], metrics[3], this::apply, false, queueSize);
+        Stage encode = new Stage(metrics[3], metrics[4], this::encode, true, queueSize);
+        write = new Stage(metrics[4], null, this::write, false, queueSize);
+        source.subscribe(parse);
+        parse.subscribe(apply);
+        apply.subscribe(encode);
+        encode.subscribe(write);
+    }
+
+    private static CharsetEncoder newEncoder() {
+        return Charset.defaultCharset().newEncoder() // Same as the OutputStreamWriter of FileOutput
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static byte[] encode(CharsetEncoder encoder, String text) {
+        try {
+            ByteBuffer bytes = encoder.encode(CharBuffer.wrap(text));
+            byte[] array = new byte[bytes.remaining()];
+            bytes.get(array);
+            return array;
+        } catch (IOException e) { // Cannot happen, errors are replaced
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stage of the pipeline: subscribes to the queue of the stage before it and publishes to the queue of the next one.
+     * Items are futures of the chunks, so that a parallel stage can pass them on before they are done.
+     */
+    private final class Stage extends SubmissionPublisher<CompletableFuture<Chunk>>
+            implements Flow.Processor<CompletableFuture<Chunk>, CompletableFuture<Chunk>> {
+        private final StageMetrics stageMetrics;
+        private final StageMetrics nextMetrics; // Null for the last stage
+        private final Consumer<Chunk> work;
+        private final boolean parallel;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        private Stage(StageMetrics stageMetrics, StageMetrics nextMetrics, Consumer<Chunk> work, boolean parallel, int queueSize) {
+            super(deliveries, queueSize);
+            this.stageMetrics = stageMetrics;
+            this.nextMetrics = nextMetrics;
+            this.work = work;
+            this.parallel = parallel;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(CompletableFuture<Chunk> item) {
+            stageMetrics.sampleQueue();
+            CompletableFuture<Chunk> result;
+            if (parallel) {
+                result = item.thenApplyAsync(chunk -> {
+                    run(chunk);
+                    return chunk;
+                }, workers);
+            } else {
+                Chunk chunk = item.join(); // Never completes exceptionally, failures are kept in the chunk
+                run(chunk);
+                result = CompletableFuture.completedFuture(chunk);
+            }
+            long start = System.nanoTime();
+            submit(result); // Blocks while the queue of the next stage is full
+            stageMetrics.blockedNanos += System.nanoTime() - start;
+            if (nextMetrics != null) {
+                nextMetrics.queued.incrementAndGet();
+            }
+            subscription.request(1);
+        }
+
+        private void run(Chunk chunk) {
+            int commands = chunk.size; // The write stage resets the chunk for reuse
+            long start = System.nanoTime();
+            try {
+                work.accept(chunk);
+            } catch (RuntimeException | Error e) {
+                if (chunk.failure == null) {
+                    chunk.failure = e;
+                }
+            }
+            stageMetrics.busyNanos.add(System.nanoTime() - start);
+            stageMetrics.commands.add(commands);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            closeExceptionally(throwable);
+            completion.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            close();
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * Adds a line of the command file to the current chunk, the chunk is passed to the parse stage when it is full. Lines
+     * after a failed command are ignored.
+     *
+     * @param line Line of the command file.
+     */
+    public void executeCommand(String line) {
+        if (failure != null) {
+            return;
+        }
+        if (chunk == null) {
+            chunk = newChunk();
+        }
+        chunk.lines[chunk.size++] = line;
+        if (chunk.size == chunkSize) {
+            submit(chunk);
+            chunk = null;
+        }
+    }
+
+    private Chunk newChunk() {
+        Chunk free = freeChunks.poll();
+        return free != null ? free : new Chunk(chunkSize);
+    }
+
+    private void submit(Chunk chunk) {
+        metrics[0].commands.add(chunk.size);
+        long start = System.nanoTime();
+        source.submit(CompletableFuture.completedFuture(chunk));
+        metrics[0].blockedNanos += System.nanoTime() - start;
+        metrics[1].queued.incrementAndGet();
+    }
+
+    /**
+     * Passes the last chunk on, waits until every chunk has been written and until the threads of the pipeline have stopped.
+     * It must be called after the last line.
+     *
+     * @param zReport true to print a Z report after the last command, as the end of a command file that does not end with one.
+     * @throws RuntimeException The exception of a command that has failed, after the output before it has been written.
+     */
+    public void finish(boolean zReport) {
+        Chunk last = chunk != null ? chunk : newChunk();
+        chunk = null;
+        last.zReport = zReport;
+        submit(last);
+        source.close();
+        metrics[0].busyNanos.add(System.nanoTime() - startNanos - metrics[0].blockedNanos); // Reading and collecting the lines
+        try {
+            write.completion.join();
+        } finally {
+            elapsedNanos = System.nanoTime() - startNanos;
+            workers.shutdown();
+            deliveries.shutdown();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+                deliveries.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Throwable failed = failure;
+        if (failed instanceof RuntimeException) {
+            throw (RuntimeException) failed;
+        } else if (failed instanceof Error) {
+            throw (Error) failed;
+        }
+    }
+
+    private void parse(Chunk chunk) {
+        for (int i = 0; i < chunk.size; i++) {
+            if (chunk.commands[i] == null) {
+                chunk.commands[i] = new BinaryCommand();
+            }
+            chunk.commands[i].parse(chunk.lines[i]); // Same as BinaryCommandFile converts the lines
+        }
+    }
+
+    private void apply(Chunk chunk) {
+        if (failure != null) {
+            chunk.skipped = true;
+            return;
+        }
+        if (chunk.failure != null) { // Not parsed, nothing can be executed after it
+            failure = chunk.failure;
+            chunk.skipped = true;
+            return;
+        }
+        chunkWriter.text = chunk.text;
+        try {
+            for (int i = 0; i < chunk.size; i++) {
+                bookingSystem.executeCommand(chunk.commands[i]);
+            }
+            if (chunk.zReport) {
+                bookingSystem.printZReport();
+            }
+        } catch (RuntimeException | Error e) {
+            failure = e; // Later chunks are skipped, same as in serial execution
+        } finally {
+            chunkLog.flush();
+            chunkWriter.text = null;
+        }
+    }
+
+    private void encode(Chunk chunk) {
+        if (chunk.skipped) {
+            return;
+        }
+        StringBuilder text = chunk.text;
+        int end = text.length();
+        chunk.endsWithNewLine = end > 0 && text.charAt(end - 1) == '\n';
+        if (chunk.endsWithNewLine) {
+            end--; // Held back until more output follows
+        }
+        CharsetEncoder encoder = encoders.get();
+        int capacity = (int) Math.ceil(end * (double) encoder.maxBytesPerChar());
+        if (chunk.bytes.capacity() < capacity) {
+            chunk.bytes = ByteBuffer.allocate(capacity);
+        }
+        ByteBuffer bytes = chunk.bytes;
+        bytes.clear();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(text, 0, end), bytes, true);
+        encoder.flush(bytes);
+        bytes.flip();
+    }
+
+    private void write(Chunk chunk) {
+        if (chunk.failure != null) { // Not parsed or not encoded, nothing is written from here on
+            writeStopped = true;
+            if (failure == null) {
+                failure = chunk.failure;
+            }
+        }
+        if (!writeStopped && !chunk.skipped && chunk.text.length() > 0) {
+            try {
+                if (pendingNewLine) {
+                    out.write(newLine);
+                }
+                out.write(chunk.bytes.array(), 0, chunk.bytes.limit());
+            } catch (IOException e) {
+                trouble = true; // Like LogWriter, errors are only reported by checkError
+            }
+            pendingNewLine = chunk.endsWithNewLine;
+        }
+        chunk.size = 0;
+        chunk.zReport = false;
+        chunk.text.setLength(0);
+        chunk.skipped = false;
+        chunk.failure = null;
+        freeChunks.offer(chunk);
+    }
+
+    /**
+     * @return true if the output stream has thrown an IOException at any point, false otherwise. Valid after {@link #finish(boolean)}.
+     */
+    public boolean checkError() {
+        return trouble;
+    }
+
+    /**
+     * Writer that the apply stage appends the output of the commands to, into the text of the current chunk.
+     */
+    private static final class ChunkWriter extends Writer {
+        private StringBuilder text;
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            text.append(chars, offset, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Throughput and queue depth of a stage. The commands and the busy time are summed over the threads of the stage, the
+     * chunks put into its input queue are counted by the stage before it, and the other fields are only written by the thread
+     * that delivers the chunks to the stage. The depth of the queue is counted here, because a publisher that waits for space
+     * in a queue keeps its lock, so its own estimate would wait as well.
+     */
+    private static final class StageMetrics {
+        private final String name;
+        private final LongAdder commands = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final AtomicLong queued = new AtomicLong(); // Chunks put into the input queue
+        private long received = 0; // Chunks taken from the input queue
+        private long blockedNanos = 0;
+        private long queueSamples = 0;
+        private long queueTotal = 0;
+        private int queueMax = 0;
+
+        private StageMetrics(String name) {
+            this.name = name;
+        }
+
+        private void sampleQueue() {
+            int depth = (int) Math.max(queued.get() - ++received, 0); // Waiting behind this one, counted after they are queued
+            queueSamples++;
+            queueTotal += depth;
+            queueMax = Math.max(queueMax, depth);
+        }
+    }
+
+    /**
+     * Summarizes the stages after {@link #finish(boolean)}: the commands processed by each stage, its busy time summed over
+     * its threads and its throughput while busy, the time it was blocked by the next stage, and the average and maximum number
+     * of chunks waiting in its input queue.
+     *
+     * @return Summary of the stages as a table.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.US, "Command pipeline after %.3f s, %d workers%n", elapsedNanos / 1e9, workers.getParallelism()));
+        summary.append(String.format(Locale.US, "%-8s %10s %10s %14s %10s %10s %10s%n", "Stage", "Commands", "Busy s",
+                "Commands/s", "Blocked s", "Queue avg", "Queue max"));
+        for (StageMetrics stage : metrics) {
+            double busySeconds = stage.busyNanos.sum() / 1e9;
+            long commands = stage.commands.sum();
+            summary.append(String.format(Locale.US, "%-8s %10d %10.3f %14.0f %10.3f %10.2f %10d%n", stage.name, commands, busySeconds,
+                    busySeconds > 0 ? commands / busySeconds : 0.0, stage.blockedNanos / 1e9,
+                    stage.queueSamples > 0 ? (double) stage.queueTotal / stage.queueSamples : 0.0, stage.queueMax));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Reusable cursor over the tab-separated fields of a command line, which parses numbers and seat lists straight from the line.
+ * Fields are split exactly like {@code line.split("\t")} and seat lists exactly like {@code field.split("_")}, and the numbers are
+ * accepted exactly like {@link Integer#parseInt(String)} and {@link Double#parseDouble(String)} accept them, so malformed input
+ * fails in the same way. Apart from {@link #field(int)}, nothing is allocated once the internal arrays have grown to fit the commands.
+ * <p>
+ * A tokenizer is not thread-safe, and the seat number arrays it returns are reused by the next call.
+ */
+public class CommandTokenizer {
+    private static final int CACHED_SEAT_ARRAYS = 64;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private CharSequence line = "";
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount = 0;
+    private final int[][] seatArrays = new int[CACHED_SEAT_ARRAYS + 1][]; // Indexed by length, so the arrays can be passed as varargs
+
+    /**
+     * Splits a line into its fields.
+     *
+     * @param line The command line without its line terminator.
+     */
+    public void reset(CharSequence line) {
+        this.line = line;
+        fieldCount = 0;
+        int start = 0;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) == '\t') {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        addField(start, length);
+        if (length > 0) {
+            while (fieldCount > 0 && fieldStarts[fieldCount - 1] == fieldEnds[fieldCount - 1]) { // Trailing empty fields are removed, same as split
+                fieldCount--;
+            }
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+
+    /**
+     * @return Number of fields of the line.
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param index Index of the field.
+     * @return Length of the field.
+     * @throws IndexOutOfBoundsException If there is no such field.
+     */
+    public int fieldLength(int index) {
+        checkIndex(index);
+        return fieldEnds[index] - fieldStarts[index];
+    }
+
+    /**
+     * Compares a field with a text without creating a string of the field.
+     *
+     * @param index Index of the field.
+     * @param text  Text to compare with.
+     * @return true if the field is equal to the text, false otherwise.
+     * @throws IndexOutOfBoundsException If there is no such field.
+     */
+    public boolean fieldEquals(int index, String text) {
+        checkIndex(index);
+        int start = fieldStarts[index];
+        if (fieldEnds[index] - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (line.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param index Index of the field.
+     * @return A new string of the field.
+     * @throws IndexOutOfBoundsException If there is no such field.
+     */
+    public String field(int index) {
+        checkIndex(index);
+        return line.subSequence(fieldStarts[index], fieldEnds[index]).toString();
+    }
+
+    /**
+     * Appends a field as-is.
+     *
+     * @param out   Destination of the field.
+     * @param index Index of the field.
+     * @throws IndexOutOfBoundsException If there is no such field.
+     */
+    public void appendField(Appendable out, int index) {
+        checkIndex(index);
+        try {
+            out.append(line, fieldStarts[index], fieldEnds[index]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses a field as a decimal integer.
+     *
+     * @param index Index of the field.
+     * @return The integer.
+     * @throws NumberFormatException     If the field is not accepted by {@link Integer#parseInt(String)}.
+     * @throws IndexOutOfBoundsException If there is no such field.
+     */
+    public int parseInt(int index) {
+        checkIndex(index);
+        return Integer.parseInt(line, fieldStarts[index], fieldEnds[index], 10);
+    }
+
+    /**
+     * Parses a field as a decimal long.
+     *
+     * @param index Index of the field.
+     * @return The long.
+     * @throws NumberFormatException     If the field is not accepted by {@link Long#parseLong(String)}.
+     * @throws IndexOutOfBoundsException If there is no such field.
+     */
+    public long parseLong(int index) {
+        checkIndex(index);
+        return Long.parseLong(line, fieldStarts[index], fieldEnds[index], 10);
+    }
+
+    /**
+     * Parses a field as a double. Plain decimals with up to 15 digits are parsed directly, the division by an exact power of ten
+     * giving the correctly rounded result; everything else is passed to {@link Double#parseDouble(String)}.
+     *
+     * @param index Index of the field.
+     * @return The double.
+     * @throws NumberFormatException     If the field is not accepted by {@link Double#parseDouble(String)}.
+     * @throws IndexOutOfBoundsException If there is no such field.
+     */
+    public double parseDouble(int index) {
+        checkIndex(index);
+        int position = fieldStarts[index];
+        int end = fieldEnds[index];
+        boolean negative = false;
+        if (position < end && (line.charAt(position) == '-' || line.charAt(position) == '+')) {
+            negative = line.charAt(position) == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; position < end; position++) {
+            char c = line.charAt(position);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+        }
+        if (position != end || digits == 0 || digits > 15) {
+            return Double.parseDouble(field(index)); // Exponents, whitespace, special values and errors
+        }
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a field as a list of seat numbers separated by underscores.
+     *
+     * @param index Index of the field.
+     * @return The seat numbers. Arrays of up to 64 seats are reused by later calls, so the array must not be kept.
+     * @throws NumberFormatException     If a seat number is not accepted by {@link Integer#parseInt(String)}.
+     * @throws IndexOutOfBoundsException If there is no such field.
+     */
+    public int[] parseSeatNumbers(int index) {
+        checkIndex(index);
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        if (start == end) {
+            return new int[]{Integer.parseInt(line, start, end, 10)}; // Fails, an empty field is a single empty seat number
+        }
+        while (end > start && line.charAt(end - 1) == '_') { // Trailing empty seat numbers are removed, same as split
+            end--;
+        }
+        int count = end == start ? 0 : 1;
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) == '_') {
+                count++;
+            }
+        }
+        int[] seats = seatArray(count);
+        int seat = 0;
+        int tokenStart = start;
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) == '_') {
+                seats[seat++] = Integer.parseInt(line, tokenStart, i, 10);
+                tokenStart = i + 1;
+            }
+        }
+        if (count > 0) {
+            seats[seat] = Integer.parseInt(line, tokenStart, end, 10);
+        }
+        return seats;
+    }
+
+    private int[] seatArray(int length) {
+        if (length > CACHED_SEAT_ARRAYS) {
+            return new int[length];
+        }
+        if (seatArrays[length] == null) {
+            seatArrays[length] = new int[length];
+        }
+        return seatArrays[length];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + fieldCount);
+        }
+    }
+}
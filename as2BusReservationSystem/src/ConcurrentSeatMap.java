@@ -0,0 +1,212 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Seat map of a voyage that can be sold and refunded by many threads at once without taking the voyage's monitor, for hot
+ * voyages that take most of the sales, see {@link Bus#sellSeatsLockFree(int...)}.
+ * <p>
+ * The words are kept in an {@link AtomicLongArray}. A sale whose seats are all in the same word claims their bits with a
+ * single compare-and-set, and fails without changing anything if any of them is taken. A refund releases its seats the same
+ * way. So a lock-free sale or refund is all-or-nothing, and no other thread ever sees it half done. A request whose seats span
+ * several words cannot be made atomic that way, since undoing the words it has already changed would let other claims see and
+ * take seats that it then gives back, so it is served under the voyage's monitor with the gate closed, see
+ * {@link #isClaimable(int[])}.
+ * <p>
+ * The sold count and the revenue of the lock-free sales are accumulated in {@link LongAdder}s, so that the threads do not
+ * contend on a single counter. The commands that still run under the voyage's monitor, like holds, cancellations and the sales
+ * of the best seats, close the gate of the seat map first: it keeps new lock-free claims out and waits for the claims in
+ * progress, so the monitor holder sees the seats and the revenue stand still. Closing also folds the counters into the
+ * voyage. The gate counts the claims in progress in stripes, a thread always uses the same stripe, so entering and leaving it
+ * does not make the threads contend either.
+ */
+public class ConcurrentSeatMap extends SeatMap {
+    private static final int WORD_SHIFT = 6; // 64 seats per word
+    private static final int STRIPE_SPACING = 8; // Longs per stripe, so that stripes do not share a cache line
+    private static final int MAX_STRIPES = 16;
+    private static final int STRIPES = Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1), MAX_STRIPES);
+
+    private final AtomicLongArray words;
+    private final AtomicLongArray claimsInProgress = new AtomicLongArray(STRIPES * STRIPE_SPACING); // Entered and not left yet, by stripe
+    private volatile boolean closed = false; // Written by the holder of the voyage's monitor only
+    private final LongAdder claimedSeats = new LongAdder(); // Sold count of the lock-free claims since the gate was last closed
+    private final LongAdder claimedRevenue = new LongAdder(); // Fixed point, see Money
+
+    /**
+     * Constructor for ConcurrentSeatMap, initially all seats are empty.
+     *
+     * @param size Total number of seats.
+     */
+    public ConcurrentSeatMap(int size) {
+        super(null, 0, size);
+        this.words = new AtomicLongArray(wordCount(size));
+    }
+
+    @Override
+    long word(int wordIndex) {
+        return words.get(wordIndex);
+    }
+
+    @Override
+    long setBits(int wordIndex, long bits) {
+        return words.getAndAccumulate(wordIndex, bits, (word, set) -> word | set);
+    }
+
+    @Override
+    long clearBits(int wordIndex, long bits) {
+        return words.getAndAccumulate(wordIndex, bits, (word, cleared) -> word & ~cleared);
+    }
+
+    @Override
+    void storeWord(int wordIndex, long word) {
+        words.set(wordIndex, word);
+    }
+
+    @Override
+    public int getSoldCount() {
+        return super.getSoldCount() + claimedSeats.intValue();
+    }
+
+    /**
+     * Enters the gate before a lock-free claim, which must be followed by {@link #leave()}.
+     *
+     * @return true if the claim can go on, false if the gate is closed, the caller must then take the voyage's monitor instead.
+     */
+    boolean enter() {
+        int stripe = stripe();
+        claimsInProgress.getAndIncrement(stripe);
+        if (closed) {
+            claimsInProgress.getAndDecrement(stripe);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Leaves the gate after a lock-free claim.
+     */
+    void leave() {
+        claimsInProgress.getAndDecrement(stripe());
+    }
+
+    private static int stripe() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_SPACING;
+    }
+
+    /**
+     * Closes the gate and waits until the claims in progress have left it. It must be called while the voyage's monitor is
+     * held, and the gate must be opened again before the monitor is released.
+     *
+     * @return true if the gate has been closed, false if it was closed already by an enclosing call of the same thread.
+     */
+    boolean close() {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        for (int i = 0; i < STRIPES; i++) {
+            while (claimsInProgress.get(i * STRIPE_SPACING) != 0) {
+                Thread.yield(); // A claim takes a few compare-and-sets, the thread making it may have been descheduled
+            }
+        }
+        addSoldCount((int) claimedSeats.sumThenReset());
+        return true;
+    }
+
+    /**
+     * Opens the gate that has been closed by {@link #close()}.
+     */
+    void open() {
+        closed = false;
+    }
+
+    /**
+     * Takes the revenue of the lock-free claims since the gate was last closed, while the gate is closed.
+     *
+     * @return The revenue in fixed point, which the caller adds to the revenue of the voyage.
+     */
+    long drainRevenue() {
+        return claimedRevenue.sumThenReset();
+    }
+
+    /**
+     * @return Revenue of the lock-free claims that have not been drained yet, in fixed point.
+     */
+    long pendingRevenue() {
+        return claimedRevenue.sum();
+    }
+
+    /**
+     * @param seatNumbers 1-based seat numbers.
+     * @return true if there is at least one seat and all of them are in the same word, so that they can be claimed or
+     * released with a single compare-and-set, false if the request must be served under the voyage's monitor.
+     */
+    static boolean isClaimable(int[] seatNumbers) {
+        if (seatNumbers.length == 0) {
+            return false;
+        }
+        int wordIndex = (seatNumbers[0] - 1) >>> WORD_SHIFT;
+        for (int i = 1; i < seatNumbers.length; i++) {
+            if ((seatNumbers[i] - 1) >>> WORD_SHIFT != wordIndex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Claims empty seats for a sale, all of them or none. The caller must have entered the gate.
+     *
+     * @param seatNumbers 1-based seat numbers, must be in range of [1, size] and claimable, see {@link #isClaimable(int[])}. A
+     *                    seat may be given more than once.
+     * @param revenue     Sale amount of the seats in fixed point, added to the revenue if the seats are claimed.
+     * @return true if all seats have been claimed, false if any of them is sold.
+     */
+    boolean claim(int[] seatNumbers, long revenue) {
+        int wordIndex = (seatNumbers[0] - 1) >>> WORD_SHIFT;
+        long bits = wordBits(seatNumbers);
+        long word;
+        do {
+            word = words.get(wordIndex);
+            if ((word & bits) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(wordIndex, word, word | bits));
+        claimedSeats.add(Long.bitCount(bits));
+        claimedRevenue.add(revenue);
+        return true;
+    }
+
+    /**
+     * Releases sold seats for a refund, all of them or none. The caller must have entered the gate.
+     *
+     * @param seatNumbers 1-based seat numbers, must be in range of [1, size] and claimable, see {@link #isClaimable(int[])}. A
+     *                    seat may be given more than once.
+     * @param refund      Refund amount of the seats in fixed point, subtracted from the revenue if the seats are released.
+     * @return true if all seats have been released, false if any of them is empty.
+     */
+    boolean release(int[] seatNumbers, long refund) {
+        int wordIndex = (seatNumbers[0] - 1) >>> WORD_SHIFT;
+        long bits = wordBits(seatNumbers);
+        long word;
+        do {
+            word = words.get(wordIndex);
+            if ((word & bits) != bits) {
+                return false;
+            }
+        } while (!words.compareAndSet(wordIndex, word, word & ~bits));
+        claimedSeats.add(-Long.bitCount(bits));
+        claimedRevenue.add(-refund);
+        return true;
+    }
+
+    /**
+     * @return Bits of the seats within their word, all of which must be in the same word.
+     */
+    private static long wordBits(int[] seatNumbers) {
+        long bits = 0;
+        for (int seatNumber : seatNumbers) {
+            bits |= 1L << (seatNumber - 1);
+        }
+        return bits;
+    }
+}
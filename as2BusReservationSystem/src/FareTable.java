@@ -0,0 +1,129 @@
+/**
+ * Immutable table of the sale and refund amounts of a voyage's seats, built once when the voyage is initialized.
+ * Every seat belongs to a seat class of the voyage's {@link SeatLayout}, and the amounts are kept per position within a row
+ * in fixed point (see {@link Money}), so that looking up the amount of a seat is a single array read and summing them never drifts.
+ */
+public class FareTable {
+    private final long[] classSaleAmounts;
+    private final byte[] rowSeatClasses;
+    private final long[] saleAmounts;
+    private final long[] refundAmounts;
+
+    /**
+     * Constructor for FareTable.
+     *
+     * @param layout            Seat layout of the voyage.
+     * @param price             Price of the voyage in fixed point.
+     * @param premiumFeePercent Percentage added to the price for the seat classes that apply the premium fee.
+     * @param refundCutPercent  Percentage deducted from the paid amount on refund.
+     */
+    public FareTable(SeatLayout layout, long price, long premiumFeePercent, long refundCutPercent) {
+        this.classSaleAmounts = new long[layout.getSeatClassCount()];
+        long[] classRefundAmounts = new long[classSaleAmounts.length];
+        for (int i = 0; i < classSaleAmounts.length; i++) {
+            classSaleAmounts[i] = layout.getSeatClass(i).price(price, premiumFeePercent);
+            classRefundAmounts[i] = Money.percentOf(classSaleAmounts[i], 100 - refundCutPercent);
+        }
+        this.rowSeatClasses = layout.getRowSeatClasses();
+        this.saleAmounts = new long[rowSeatClasses.length];
+        this.refundAmounts = new long[rowSeatClasses.length];
+        for (int i = 0; i < rowSeatClasses.length; i++) {
+            saleAmounts[i] = classSaleAmounts[rowSeatClasses[i]];
+            refundAmounts[i] = classRefundAmounts[rowSeatClasses[i]];
+        }
+    }
+
+    /**
+     * Checks that the fares of a voyage can be kept in fixed point, so that its fare table can be built and selling all of its
+     * seats at once does not take the revenue out of range. The sale amount of a seat class grows with the premium fee, so a
+     * price that is in range may still have fares that are not.
+     *
+     * @param layout            Seat layout of the voyage.
+     * @param numberOfRows      Number of seat rows of the voyage.
+     * @param price             Price of the voyage in lira.
+     * @param premiumFeePercent Percentage added to the price for the seat classes that apply the premium fee.
+     * @param refundCutPercent  Percentage deducted from the paid amount on refund.
+     * @return true if the price, every sale and refund amount and the sale amounts of all seats together are in range, false
+     * otherwise.
+     */
+    public static boolean isInRange(SeatLayout layout, int numberOfRows, double price, double premiumFeePercent, double refundCutPercent) {
+        try {
+            long units = Money.fromDouble(price);
+            long[] classSaleAmounts = new long[layout.getSeatClassCount()];
+            for (int i = 0; i < classSaleAmounts.length; i++) {
+                classSaleAmounts[i] = layout.getSeatClass(i).price(units, (long) premiumFeePercent);
+                Money.percentOf(classSaleAmounts[i], 100 - (long) refundCutPercent);
+            }
+            long rowTotal = 0;
+            for (byte seatClass : layout.getRowSeatClasses()) {
+                rowTotal = Math.addExact(rowTotal, classSaleAmounts[seatClass]);
+            }
+            Math.multiplyExact(rowTotal, (long) numberOfRows);
+            return true;
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param seatNumber 1-based seat number.
+     * @return Index of the seat class of the seat in the voyage's layout.
+     */
+    public int getSeatClass(int seatNumber) {
+        return rowSeatClasses[(seatNumber - 1) % rowSeatClasses.length];
+    }
+
+    /**
+     * @param seatNumber 1-based seat number.
+     * @return Amount paid for the seat in fixed point.
+     */
+    public long getSaleAmount(int seatNumber) {
+        return saleAmounts[(seatNumber - 1) % saleAmounts.length];
+    }
+
+    /**
+     * @param seatNumber 1-based seat number.
+     * @return Amount paid back when the seat is refunded, in fixed point.
+     */
+    public long getRefundAmount(int seatNumber) {
+        return refundAmounts[(seatNumber - 1) % refundAmounts.length];
+    }
+
+    /**
+     * @param seatClass Index of a seat class in the voyage's layout.
+     * @return Amount paid for a seat of the class in fixed point.
+     */
+    public long getClassSaleAmount(int seatClass) {
+        return classSaleAmounts[seatClass];
+    }
+
+    /**
+     * Sums the amounts paid for the given seats.
+     *
+     * @param seatNumbers 1-based seat numbers.
+     * @return Total sale amount in fixed point.
+     * @throws ArithmeticException If the total does not fit, which a seat given many times may cause.
+     */
+    public long saleTotal(int... seatNumbers) {
+        long total = 0;
+        for (int seatNumber : seatNumbers) {
+            total = Math.addExact(total, getSaleAmount(seatNumber));
+        }
+        return total;
+    }
+
+    /**
+     * Sums the amounts paid back for the given seats.
+     *
+     * @param seatNumbers 1-based seat numbers.
+     * @return Total refund amount in fixed point.
+     * @throws ArithmeticException If the total does not fit, which a seat given many times may cause.
+     */
+    public long refundTotal(int... seatNumbers) {
+        long total = 0;
+        for (int seatNumber : seatNumbers) {
+            total = Math.addExact(total, getRefundAmount(seatNumber));
+        }
+        return total;
+    }
+}
@@ -1,7 +1,9 @@
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class FileInput {
     /**
@@ -27,4 +29,30 @@ public class FileInput {
             return null;
         }
     }
+
+    /**
+     * Reads the file at the given path line by line and hands each line to the given consumer as soon as it is read.
+     * Unlike {@link #readFile(String, boolean, boolean)}, only the current line is held in memory, so it can be used for arbitrarily large files.
+     *
+     * @param path              Path to the file that is going to be read.
+     * @param discardEmptyLines If true, skips empty lines with respect to trim; else, it passes all the lines from the file.
+     * @param trim              Trim status; if true, trims each line before passing it; else, it passes each line as-is.
+     * @param consumer          Consumer that is called for each line in file order.
+     * @return true if the whole file has been read, false if there is not such a file or this program does not have sufficient permissions to read that file.
+     */
+    public static boolean readLines(String path, boolean discardEmptyLines, boolean trim, Consumer<String> consumer) {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path))) { //Decodes the file as UTF-8, same as readAllLines.
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (discardEmptyLines && line.trim().isEmpty()) { //Skips the lines that are empty with respect to trim.
+                    continue;
+                }
+                consumer.accept(trim ? line.trim() : line);
+            }
+            return true;
+        } catch (IOException e) { //Returns false if there is no such a file or it cannot be decoded.
+            e.printStackTrace();
+            return false;
+        }
+    }
 }
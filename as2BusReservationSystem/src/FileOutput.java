@@ -1,6 +1,9 @@
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
 
 public class FileOutput {
     /**
@@ -25,4 +28,37 @@ public class FileOutput {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * This method opens a writer to the file at given path, so that content can be written to it piece by piece.
+     * Characters are encoded with the platform default charset, same as {@link #writeToFile(String, String, boolean, boolean)}.
+     *
+     * @param path   Path for the file content is going to be written.
+     * @param append Append status, true if wanted to append to file if it exists, false if wanted to create file from zero.
+     * @return Writer to the file, returns null if the file cannot be created or opened for writing.
+     */
+    public static Writer openWriter(String path, boolean append) {
+        try {
+            return new OutputStreamWriter(new FileOutputStream(path, append));
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * This method opens a stream to the file at given path, for content that has already been encoded, see {@link CommandPipeline}.
+     *
+     * @param path   Path for the file content is going to be written.
+     * @param append Append status, true if wanted to append to file if it exists, false if wanted to create file from zero.
+     * @return Stream to the file, returns null if the file cannot be created or opened for writing.
+     */
+    public static OutputStream openStream(String path, boolean append) {
+        try {
+            return new FileOutputStream(path, append);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
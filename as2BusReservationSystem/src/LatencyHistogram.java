@@ -0,0 +1,126 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds that many threads can record into without locking.
+ * <p>
+ * The buckets are laid out like an HDR histogram with two significant decimal digits: values below 64 have a bucket each,
+ * and every following power of two is split into 32 equal buckets, so a value is reported at most about 3% above its real
+ * value, whatever its magnitude. The whole range of a long fits in 1888 buckets.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+    private static final int BUCKET_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos Latency in nanoseconds, negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.getAndIncrement(indexOf(nanos));
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Copies the histogram. Recordings that happen during the copy may be left out.
+     *
+     * @return The copy.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, total.sum(), max.get());
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Point-in-time copy of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**
+         * @return Number of recorded latencies.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return Mean latency in nanoseconds, 0 if nothing is recorded.
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @return Highest recorded latency in nanoseconds.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Finds the latency that the given percentage of the recorded latencies do not exceed.
+         *
+         * @param percentile Percentage in the range of [0, 100].
+         * @return The highest latency of the bucket that the percentile falls into, at most the highest recorded latency.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Output sink that the booking system appends its log to.
+ * Characters are collected in a fixed size buffer and handed to the underlying writer whenever the buffer fills up,
+ * so the log is written while the commands are being processed instead of being kept in memory as a whole.
+ * Like {@link java.io.PrintStream}, it never throws an IOException; errors can be queried with {@link #checkError()}.
+ */
+public class LogWriter implements Appendable, Closeable, Flushable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Writer out;
+    private final boolean dropTrailingNewLine;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+    private boolean pendingNewLine = false;
+    private boolean trouble = false;
+
+    /**
+     * Constructor for LogWriter.
+     *
+     * @param out                 Writer that the buffered content is passed to.
+     * @param dropTrailingNewLine If true, a newline at the very end of the log is not written; else, the content is written as-is.
+     */
+    public LogWriter(Writer out, boolean dropTrailingNewLine) {
+        this.out = out;
+        this.dropTrailingNewLine = dropTrailingNewLine;
+    }
+
+    @Override
+    public LogWriter append(CharSequence csq) {
+        if (csq == null) {
+            return append("null");
+        }
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public LogWriter append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            return append("null", start, end);
+        }
+        if (start == end) {
+            return this;
+        }
+        writePendingNewLine();
+        if (dropTrailingNewLine && csq.charAt(end - 1) == '\n') { //Holds the last newline back until something else is written.
+            end--;
+            pendingNewLine = true;
+        }
+        while (start < end) {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            int count = Math.min(end - start, buffer.length - position);
+            if (csq instanceof String) {
+                ((String) csq).getChars(start, start + count, buffer, position);
+            } else if (csq instanceof StringBuilder) {
+                ((StringBuilder) csq).getChars(start, start + count, buffer, position);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    buffer[position + i] = csq.charAt(start + i);
+                }
+            }
+            position += count;
+            start += count;
+        }
+        return this;
+    }
+
+    @Override
+    public LogWriter append(char c) {
+        writePendingNewLine();
+        if (dropTrailingNewLine && c == '\n') {
+            pendingNewLine = true;
+        } else {
+            put(c);
+        }
+        return this;
+    }
+
+    /**
+     * Appends the decimal representation of the given integer without creating an intermediate string.
+     *
+     * @param value Value to append.
+     * @return This writer.
+     */
+    public LogWriter append(int value) {
+        return append((long) value);
+    }
+
+    /**
+     * Appends the decimal representation of the given long without creating an intermediate string.
+     *
+     * @param value Value to append.
+     * @return This writer.
+     */
+    public LogWriter append(long value) {
+        writePendingNewLine();
+        if (value == Long.MIN_VALUE) { //Its absolute value does not fit into a long.
+            return append("-9223372036854775808");
+        }
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        if (buffer.length - position < 19) {
+            flushBuffer();
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+        return this;
+    }
+
+    /**
+     * Appends the decimal representation of a long to any destination, without an intermediate string when it is a LogWriter or a StringBuilder.
+     *
+     * @param out   Destination of the text.
+     * @param value Value to append.
+     */
+    public static void appendDecimal(Appendable out, long value) {
+        if (out instanceof LogWriter) {
+            ((LogWriter) out).append(value);
+        } else if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(value);
+        } else {
+            try {
+                out.append(Long.toString(value));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Passes the buffered content to the underlying writer and flushes it. A held back trailing newline stays held back.
+     */
+    @Override
+    public void flush() {
+        flushBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            trouble = true;
+        }
+    }
+
+    /**
+     * Flushes the buffered content and closes the underlying writer. A held back trailing newline is discarded.
+     */
+    @Override
+    public void close() {
+        flush();
+        try {
+            out.close();
+        } catch (IOException e) {
+            trouble = true;
+        }
+    }
+
+    /**
+     * Flushes the writer and returns its error state.
+     *
+     * @return true if the underlying writer has thrown an IOException at any point, false otherwise.
+     */
+    public boolean checkError() {
+        flush();
+        return trouble;
+    }
+
+    private void writePendingNewLine() {
+        if (pendingNewLine) {
+            pendingNewLine = false;
+            put('\n');
+        }
+    }
+
+    private void put(char c) {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = c;
+    }
+
+    private void flushBuffer() {
+        if (position == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, position);
+        } catch (IOException e) {
+            trouble = true;
+        }
+        position = 0;
+    }
+}
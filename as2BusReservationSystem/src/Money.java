@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Helper methods for the Turkish lira amounts used by the booking system.
+ * Amounts are kept in fixed point as a long number of millionths of a lira, from prices through fares to revenues. This is finer than a kurus on purpose:
+ * prices have at most two decimals, and applying an integer premium fee percentage and then an integer refund cut
+ * percentage adds two decimals each, so sale and refund amounts stay exact.
+ */
+public class Money {
+    /**
+     * Number of fixed point units in a lira.
+     */
+    public static final long SCALE = 1_000_000;
+
+    private static final double MAX_UNITS = 0x1p63;
+    private static final long UNITS_PER_HUNDREDTH = SCALE / 100;
+    private static final long HALF_HUNDREDTH = UNITS_PER_HUNDREDTH / 2;
+
+    private Money() {
+    }
+
+    /**
+     * Converts an amount to fixed point, rounding to the nearest unit.
+     *
+     * @param lira Amount in lira.
+     * @return Amount in fixed point units.
+     * @throws ArithmeticException If the amount does not fit, which is the case from about 9.2 trillion lira on.
+     */
+    public static long fromDouble(double lira) {
+        double units = lira * SCALE;
+        if (!(Math.abs(units) < MAX_UNITS)) { // Also true for NaN
+            throw new ArithmeticException("Amount " + lira + " is out of the range of fixed point amounts");
+        }
+        return Math.round(units);
+    }
+
+    /**
+     * Converts a fixed point amount to lira.
+     *
+     * @param units Amount in fixed point units.
+     * @return The closest double to the amount in lira.
+     */
+    public static double toDouble(long units) {
+        return (double) units / SCALE;
+    }
+
+    /**
+     * Calculates a percentage of a fixed point amount, rounding half up in the rare case that it is not exact. The amount is
+     * split into hundreds and a remainder first, so any amount whose percentage fits can be taken.
+     *
+     * @param units   Amount in fixed point units.
+     * @param percent Percentage to take, for example 115 to add a 15% fee or 90 to deduct a 10% cut.
+     * @return The percentage of the amount in fixed point units.
+     * @throws ArithmeticException If the result does not fit.
+     */
+    public static long percentOf(long units, long percent) {
+        long hundreds = Math.floorDiv(units, 100);
+        long remainder = Math.floorMod(units, 100);
+        return Math.addExact(Math.multiplyExact(hundreds, percent), Math.floorDiv(remainder * percent + 50, 100));
+    }
+
+    /**
+     * Appends a fixed point amount with two decimal places, rounding half up like {@code String.format(Locale.US, "%.2f", amount)}.
+     * Only integer arithmetic is used and nothing is allocated when the destination is a LogWriter or a StringBuilder.
+     *
+     * @param out   Destination of the text.
+     * @param units Amount in fixed point units.
+     */
+    public static void append(Appendable out, long units) {
+        try {
+            if (units < 0) { // Negative amounts print their sign even when they round to zero, same as %.2f
+                out.append('-');
+            }
+            long hundredths = (Math.abs(units) + HALF_HUNDREDTH) / UNITS_PER_HUNDREDTH;
+            LogWriter.appendDecimal(out, hundredths / 100);
+            out.append('.');
+            int cents = (int) (hundredths % 100);
+            out.append((char) ('0' + cents / 10));
+            out.append((char) ('0' + cents % 10));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a fixed point amount exactly, with as many decimal places as it needs and no trailing zeros, for example
+     * "25.5" or "100". This is how prices are written in the command files.
+     *
+     * @param out   Destination of the text.
+     * @param units Amount in fixed point units.
+     */
+    public static void appendExact(Appendable out, long units) {
+        try {
+            if (units < 0) {
+                out.append('-');
+            }
+            long magnitude = Math.abs(units); // Long.MIN_VALUE is not a valid amount, see fromDouble
+            LogWriter.appendDecimal(out, magnitude / SCALE);
+            long fraction = magnitude % SCALE;
+            if (fraction != 0) {
+                out.append('.');
+                for (long digit = SCALE / 10; fraction != 0; digit /= 10) {
+                    out.append((char) ('0' + fraction / digit));
+                    fraction %= digit;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
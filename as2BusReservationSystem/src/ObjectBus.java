@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Voyage that keeps its state in its own fields and objects: its seat map, its fare table, and a cache of its rendered details.
+ */
+public class ObjectBus extends Bus {
+    private int id;
+    private String from;
+    private String to;
+    private int numberOfRows;
+    private long price; // Fixed point, see Money
+    private double refundCut;
+    private double premiumFee;
+    private FareTable fareTable;
+    private SeatMap seats;
+    private long revenue = 0; // Fixed point, see Money
+    private boolean cancelled = false;
+    private final StringBuilder renderedDetails = new StringBuilder(); // Cache of the voyage details, reused when re-rendered
+    private boolean detailsDirty = true;
+
+    /**
+     * Constructor for ObjectBus.
+     *
+     * @param layout Seat layout of the bus.
+     * @param id The unique identifier for the bus.
+     * @param from Starting point of the voyage.
+     * @param to Destination of the voyage.
+     * @param numberOfRows Number of rows in the bus.
+     * @param price Price per seat.
+     * @param refundCut Percentage of the price deducted on refund, 0 if the layout is not refundable.
+     * @param premiumFee Percentage added to the price for premium seats, 0 if the layout has none.
+     */
+    public ObjectBus(SeatLayout layout, int id, String from, String to, int numberOfRows, double price, double refundCut, double premiumFee) {
+        this(layout, id, from, to, numberOfRows, price, refundCut, premiumFee, null);
+    }
+
+    /**
+     * Constructor for ObjectBus with seats that have been allocated elsewhere, for example off the heap.
+     *
+     * @param seats Empty seats of the bus, numberOfRows times the seats of a row of the layout, null to allocate them on the heap.
+     */
+    ObjectBus(SeatLayout layout, int id, String from, String to, int numberOfRows, double price, double refundCut, double premiumFee,
+              SeatMap seats) {
+        super(layout);
+        setId(id);
+        setFrom(from);
+        setTo(to);
+        if (seats == null) {
+            setNumberOfRows(numberOfRows);
+        } else {
+            this.numberOfRows = numberOfRows;
+            this.seats = seats;
+        }
+        setPrice(price);
+        setRefundCut(refundCut);
+        setPremiumFee(premiumFee);
+    }
+
+    @Override
+    protected SeatMap seats() {
+        return seats;
+    }
+
+    @Override
+    protected void storeSeats(SeatMap seats) {
+        this.seats = seats;
+    }
+
+    @Override
+    protected long revenueUnits() {
+        return revenue;
+    }
+
+    @Override
+    protected void storeRevenueUnits(long revenue) {
+        this.revenue = revenue;
+    }
+
+    @Override
+    protected boolean cancelledFlag() {
+        return cancelled;
+    }
+
+    @Override
+    protected void storeCancelled() {
+        cancelled = true;
+    }
+
+    @Override
+    protected void detailsChanged() {
+        detailsDirty = true;
+    }
+
+    /**
+     * Appends details of the current voyage to the given destination.
+     * It is rendered once and cached until the seats, the revenue or the route of the voyage change, so that printing an
+     * unchanged voyage again, as every Z report does, only copies the cached text. Voyages with a {@link ConcurrentSeatMap}
+     * are rendered every time, their seats and revenue change without the monitor.
+     *
+     * @param out Destination of the voyage details.
+     */
+    @Override
+    public synchronized void appendVoyageDetails(Appendable out) {
+        if (seats instanceof ConcurrentSeatMap) {
+            super.appendVoyageDetails(out);
+            return;
+        }
+        try {
+            if (detailsDirty) {
+                renderedDetails.setLength(0);
+                renderVoyageDetails(renderedDetails, false);
+                detailsDirty = false;
+            }
+            out.append(renderedDetails);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Fare table of the voyage, which is rebuilt whenever a pricing parameter changes.
+     */
+    @Override
+    public FareTable getFareTable() {
+        return fareTable;
+    }
+
+    /**
+     * Rebuilds the fare table from the current pricing parameters, it is called whenever one of them changes.
+     */
+    private void updateFareTable() {
+        fareTable = new FareTable(getLayout(), price, (long) premiumFee, (long) refundCut);
+    }
+
+    // Getter and setter methods
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+        detailsDirty = true;
+    }
+
+    @Override
+    public String getFrom() {
+        return from;
+    }
+
+    @Override
+    public void setFrom(String from) {
+        this.from = from;
+        detailsDirty = true;
+    }
+
+    @Override
+    public String getTo() {
+        return to;
+    }
+
+    @Override
+    public void setTo(String to) {
+        this.to = to;
+        detailsDirty = true;
+    }
+
+    @Override
+    public int getNumberOfRows() {
+        return numberOfRows;
+    }
+
+    public void setNumberOfRows(int numberOfRows) {
+        this.numberOfRows = numberOfRows;
+        this.seats = new SeatMap(numberOfRows * getLayout().getSeatsPerRow()); // Reinitialize seat map if number of rows changes
+        clearHolds();
+        detailsDirty = true;
+    }
+
+    public void setPrice(double price) {
+        this.price = Money.fromDouble(price);
+        updateFareTable();
+    }
+
+    @Override
+    public long getPriceUnits() {
+        return price;
+    }
+
+    @Override
+    public double getRefundCut() {
+        return refundCut;
+    }
+
+    public void setRefundCut(double refundCut) {
+        this.refundCut = refundCut;
+        updateFareTable();
+    }
+
+    @Override
+    public double getPremiumFee() {
+        return premiumFee;
+    }
+
+    /**
+     * Sets the additional fee percentage for premium seats.
+     *
+     * @param premiumFee The premium fee percentage to set.
+     */
+    public void setPremiumFee(double premiumFee) {
+        this.premiumFee = premiumFee;
+        updateFareTable();
+    }
+
+    public synchronized void setSeatsSold(boolean[] seatsSold) {
+        this.seats = SeatMap.fromArray(seatsSold);
+        clearHolds();
+        detailsDirty = true;
+    }
+}
@@ -0,0 +1,139 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Seat inventory that keeps the seat bits of the voyages outside of the Java heap, so that the garbage collector neither
+ * copies nor scans them, however many seats there are.
+ * <p>
+ * Seat maps are allocated from slabs of 64 MB of direct memory, one range of words after another, and voyages with more seats
+ * than a slab holds get a buffer of their own. Bits are set and cleared through a {@link VarHandle} view of the slabs with
+ * atomic bitwise operations, and read with plain reads, since every change and every read of a voyage's seats happens under
+ * the voyage's monitor anyway.
+ * <p>
+ * The range of a voyage is released when the voyage is cancelled: its final occupancy is copied to a seat map on the heap,
+ * which the voyage keeps printing from, and the words are cleared and kept for the next seat map of the same number of words.
+ * Slabs themselves are never released while the inventory is in use, the direct memory is returned once the inventory and its
+ * seat maps are unreachable. Allocating and releasing are serialized by the inventory's monitor.
+ */
+public class OffHeapSeatInventory {
+    private static final int SLAB_WORDS = 1 << 23; // 64 MB
+    private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private ByteBuffer slab = null; // Slab that new seat maps are allocated from, null until the first one
+    private int slabWords = SLAB_WORDS; // Used words of the slab
+    private final HashMap<Integer, ArrayDeque<OffHeapSeatMap>> released = new HashMap<>(); // By number of words, cleared
+    private long allocatedBytes = 0;
+    private long usedBytes = 0;
+
+    /**
+     * Seat map whose words are a range of a slab. After its voyage is cancelled, its words belong to another seat map.
+     */
+    private static final class OffHeapSeatMap extends SeatMap {
+        private final OffHeapSeatInventory inventory;
+        private final ByteBuffer buffer;
+        private final int byteOffset;
+        private boolean detached = false; // Guarded by the monitor of the voyage
+
+        private OffHeapSeatMap(OffHeapSeatInventory inventory, ByteBuffer buffer, int byteOffset, int size) {
+            super(null, 0, size);
+            this.inventory = inventory;
+            this.buffer = buffer;
+            this.byteOffset = byteOffset;
+        }
+
+        @Override
+        long word(int wordIndex) {
+            return (long) WORDS.get(buffer, byteOffset + 8 * wordIndex);
+        }
+
+        @Override
+        long setBits(int wordIndex, long bits) {
+            return (long) WORDS.getAndBitwiseOr(buffer, byteOffset + 8 * wordIndex, bits);
+        }
+
+        @Override
+        long clearBits(int wordIndex, long bits) {
+            return (long) WORDS.getAndBitwiseAnd(buffer, byteOffset + 8 * wordIndex, ~bits);
+        }
+
+        @Override
+        void storeWord(int wordIndex, long word) {
+            WORDS.setVolatile(buffer, byteOffset + 8 * wordIndex, word);
+        }
+
+        @Override
+        SeatMap detach() {
+            if (detached) {
+                throw new IllegalStateException("seat map has already been detached");
+            }
+            SeatMap copy = SeatMap.fromWords(size(), toWords());
+            detached = true;
+            inventory.release(this);
+            return copy;
+        }
+    }
+
+    /**
+     * Allocates the seat map of a new voyage, all seats are empty.
+     *
+     * @param totalSeats Number of seats of the voyage.
+     * @return The seat map.
+     */
+    public synchronized SeatMap allocate(int totalSeats) {
+        int wordCount = SeatMap.wordCount(totalSeats);
+        usedBytes += 8L * wordCount;
+        ArrayDeque<OffHeapSeatMap> reusable = released.get(wordCount);
+        if (reusable != null && !reusable.isEmpty()) {
+            OffHeapSeatMap previous = reusable.pop();
+            return new OffHeapSeatMap(this, previous.buffer, previous.byteOffset, totalSeats);
+        }
+        if (wordCount > SLAB_WORDS / 4) { // Too large to share a slab
+            allocatedBytes += 8L * wordCount;
+            return new OffHeapSeatMap(this, newBuffer(wordCount), 0, totalSeats);
+        }
+        if (slabWords + wordCount > SLAB_WORDS) {
+            slab = newBuffer(SLAB_WORDS);
+            slabWords = 0;
+            allocatedBytes += 8L * SLAB_WORDS;
+        }
+        OffHeapSeatMap seats = new OffHeapSeatMap(this, slab, 8 * slabWords, totalSeats);
+        slabWords += wordCount;
+        return seats;
+    }
+
+    private static ByteBuffer newBuffer(int wordCount) {
+        return ByteBuffer.allocateDirect(8 * wordCount + 7).alignedSlice(8).order(ByteOrder.nativeOrder()); // Atomics need aligned words
+    }
+
+    /**
+     * Clears the words of a detached seat map and keeps them for the next seat map of the same size.
+     *
+     * @param seats The seat map, which must not be used any more.
+     */
+    private synchronized void release(OffHeapSeatMap seats) {
+        int wordCount = seats.wordCount();
+        for (int i = 0; i < wordCount; i++) {
+            seats.storeWord(i, 0);
+        }
+        released.computeIfAbsent(wordCount, count -> new ArrayDeque<>()).push(seats);
+        usedBytes -= 8L * wordCount;
+    }
+
+    /**
+     * @return Bytes of direct memory allocated for the slabs and the large seat maps.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return Bytes of direct memory in use by the seat maps of voyages that have not been cancelled.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+}
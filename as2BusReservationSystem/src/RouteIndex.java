@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the voyages by their route, from departure to destination, so that the voyages between two cities can be found
+ * without scanning every voyage. City names are interned, so all voyages of a route share the same two strings.
+ * <p>
+ * Every route keeps its voyages in an array sorted by ID, which is updated when a voyage is initialized or cancelled and
+ * guarded by the route's monitor. Lookups take the monitor of a route and then the monitors of its voyages, never the other way around.
+ */
+public class RouteIndex {
+    private final ConcurrentHashMap<String, String> cities = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Route>> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Voyages of a single route in ascending ID order.
+     */
+    private static final class Route {
+        private Bus[] voyages = new Bus[4];
+        private int size = 0;
+
+        private synchronized void add(Bus bus) {
+            int index = find(bus.getId());
+            if (index >= 0) {
+                voyages[index] = bus;
+                return;
+            }
+            index = -index - 1;
+            if (size == voyages.length) {
+                voyages = Arrays.copyOf(voyages, size * 2);
+            }
+            System.arraycopy(voyages, index, voyages, index + 1, size - index);
+            voyages[index] = bus;
+            size++;
+        }
+
+        private synchronized void remove(Bus bus) {
+            int index = find(bus.getId());
+            if (index >= 0 && voyages[index] == bus) {
+                System.arraycopy(voyages, index + 1, voyages, index, size - index - 1);
+                voyages[--size] = null;
+            }
+        }
+
+        private synchronized void collect(int minFreeSeats, List<Bus> result) {
+            for (int i = 0; i < size; i++) {
+                Bus bus = voyages[i];
+                if (bus.getFreeSeatCount() >= minFreeSeats && !bus.isCancelled()) {
+                    result.add(bus);
+                }
+            }
+        }
+
+        private int find(int id) { // Same contract as Arrays.binarySearch
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int middleId = voyages[middle].getId();
+                if (middleId < id) {
+                    low = middle + 1;
+                } else if (middleId > id) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    /**
+     * Returns the canonical instance of a city name, so that equal names share one string.
+     *
+     * @param city Name of a city.
+     * @return The interned name.
+     */
+    public String intern(String city) {
+        String interned = cities.putIfAbsent(city, city);
+        return interned != null ? interned : city;
+    }
+
+    /**
+     * Adds a voyage to the index of its route.
+     *
+     * @param bus The voyage.
+     */
+    public void add(Bus bus) {
+        routes.computeIfAbsent(intern(bus.getFrom()), from -> new ConcurrentHashMap<>())
+                .computeIfAbsent(intern(bus.getTo()), to -> new Route())
+                .add(bus);
+    }
+
+    /**
+     * Removes a voyage from the index of its route.
+     *
+     * @param bus The voyage.
+     */
+    public void remove(Bus bus) {
+        Route route = getRoute(bus.getFrom(), bus.getTo());
+        if (route != null) {
+            route.remove(bus);
+        }
+    }
+
+    /**
+     * Finds the voyages of a route that have enough empty seats, using the sold seat counters of the voyages.
+     *
+     * @param from         Departure city.
+     * @param to           Destination city.
+     * @param minFreeSeats Minimum number of empty seats.
+     * @return The voyages in ascending ID order, empty if there are none.
+     */
+    public List<Bus> search(String from, String to, int minFreeSeats) {
+        List<Bus> result = new ArrayList<>();
+        Route route = getRoute(from, to);
+        if (route != null) {
+            route.collect(minFreeSeats, result);
+        }
+        return result;
+    }
+
+    private Route getRoute(String from, String to) {
+        ConcurrentHashMap<String, Route> destinations = routes.get(from);
+        return destinations != null ? destinations.get(to) : null;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Seats of a voyage that are held for a customer until they are confirmed, released, or the hold expires.
+ * A hold is resolved exactly once, by whichever of these happens first, see {@link BookingService#confirmHold(SeatHold)}.
+ */
+public final class SeatHold {
+    private final long id;
+    private final Bus voyage;
+    private final int[] seatNumbers;
+    private final long deadlineNanos;
+    TimerWheel.Timer<SeatHold> timer; // Guarded by the timer wheel of the booking service, null until the hold is scheduled
+
+    /**
+     * Constructor for SeatHold.
+     *
+     * @param id            Unique ID of the hold.
+     * @param voyage        The voyage.
+     * @param seatNumbers   The held seat numbers.
+     * @param deadlineNanos Time on the clock of the booking service when the hold expires.
+     */
+    SeatHold(long id, Bus voyage, int[] seatNumbers, long deadlineNanos) {
+        this.id = id;
+        this.voyage = voyage;
+        this.seatNumbers = seatNumbers;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return Unique ID of the hold.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return The voyage whose seats are held.
+     */
+    public Bus getVoyage() {
+        return voyage;
+    }
+
+    /**
+     * @return The held seat numbers, the array must not be modified.
+     */
+    public int[] getSeatNumbers() {
+        return seatNumbers;
+    }
+
+    /**
+     * @return Time on the clock of the booking service when the hold expires.
+     */
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    /**
+     * @param nowNanos Current time on the clock of the booking service.
+     * @return true if the deadline has passed, false otherwise.
+     */
+    public boolean isExpired(long nowNanos) {
+        return nowNanos - deadlineNanos >= 0;
+    }
+}
@@ -0,0 +1,416 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Declarative seat layout of a vehicle type: the seats of a row, the class of every seat, and how the voyages of the type are
+ * initialized, priced and printed. A voyage's seats repeat the row of its layout as many times as the voyage has rows.
+ * <p>
+ * A layout is declared with a row specification, for example {@code "P | R R"}, in which every character that is the symbol
+ * of one of the layout's seat classes is a seat of that class, and every other character is printed as it is. The
+ * specification is compiled into flat arrays indexed by the position of a seat within its row, so pricing a seat is two
+ * array reads and rendering a seat is one, without any branches on the seat class.
+ * <p>
+ * The built-in layouts are the three vehicle types of the command file, {@link #STANDARD}, {@link #PREMIUM} and {@link #MINIBUS}.
+ * A new vehicle type only needs a new layout passed to {@link #register(SeatLayout)}, the INIT_VOYAGE command, the pricing,
+ * the journal and the printouts all work from the layout.
+ */
+public final class SeatLayout {
+    /**
+     * Class of a seat, which determines its price and how it is printed.
+     */
+    public static final class SeatClass {
+        private final String name;
+        private final char symbol;
+        private final long pricePercent;
+        private final boolean premiumFeeApplied;
+        private final char emptyGlyph;
+        private final char soldGlyph;
+        private final char heldGlyph;
+
+        /**
+         * Constructor for SeatClass.
+         *
+         * @param name              Name of the class as printed in the voyage initialization, for example "regular".
+         * @param symbol            Character that marks a seat of the class in a row specification.
+         * @param pricePercent      Price of the seat as a percentage of the voyage's price.
+         * @param premiumFeeApplied true if the voyage's premium fee is added to the percentage, false otherwise.
+         * @param emptyGlyph        Character that is printed for an empty seat of the class.
+         * @param soldGlyph         Character that is printed for a sold seat of the class.
+         * @param heldGlyph         Character that is printed for a held seat of the class, when holds are shown.
+         */
+        public SeatClass(String name, char symbol, long pricePercent, boolean premiumFeeApplied, char emptyGlyph, char soldGlyph,
+                         char heldGlyph) {
+            this.name = name;
+            this.symbol = symbol;
+            this.pricePercent = pricePercent;
+            this.premiumFeeApplied = premiumFeeApplied;
+            this.emptyGlyph = emptyGlyph;
+            this.soldGlyph = soldGlyph;
+            this.heldGlyph = heldGlyph;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Calculates the price of a seat of the class.
+         *
+         * @param price             Price of the voyage in fixed point.
+         * @param premiumFeePercent Premium fee percentage of the voyage.
+         * @return Price of the seat in fixed point.
+         */
+        long price(long price, long premiumFeePercent) {
+            return Money.percentOf(price, premiumFeeApplied ? pricePercent + premiumFeePercent : pricePercent);
+        }
+    }
+
+    public static final SeatClass REGULAR_SEAT = new SeatClass("regular", 'R', 100, false, '*', 'X', 'H');
+    public static final SeatClass PREMIUM_SEAT = new SeatClass("premium", 'P', 100, true, '*', 'X', 'H');
+
+    private static volatile SeatLayout[] layouts = new SeatLayout[0]; // Replaced on registration, so lookups need no lock
+
+    // Codes of the built-in layouts are stored in journals and snapshots, they must not change
+    public static final SeatLayout STANDARD = register(new SeatLayout(1, "Standard", "standard", "R R | R R", true, REGULAR_SEAT));
+    public static final SeatLayout MINIBUS = register(new SeatLayout(2, "Minibus", "minibus", "R R", false, REGULAR_SEAT));
+    public static final SeatLayout PREMIUM = register(new SeatLayout(3, "Premium", "premium", "P | R R", true, REGULAR_SEAT, PREMIUM_SEAT));
+
+    private final byte code;
+    private final String name;
+    private final String kind;
+    private final String arrangement;
+    private final boolean refundable;
+    private final boolean premiumFeeUsed;
+    private final SeatClass[] seatClasses;
+    private final byte[] rowSeatClasses;
+    private final int[] classSeatsPerRow;
+    private final String emptyRow;
+    private final int[] seatPositions;
+    private final char[] glyphs;
+    private final long[] classMasks;
+    private final long[] blockStartMasks;
+
+    /**
+     * Constructor for SeatLayout, compiles the row specification.
+     *
+     * @param code        Code of the layout in journals and snapshots, in range of [1, 127].
+     * @param name        Name of the layout in the INIT_VOYAGE command, for example "Premium".
+     * @param kind        Name of the layout in the printouts, for example "premium".
+     * @param rowSpec     Row specification, seats are the symbols of the seat classes and groups of seats are separated by '|'.
+     * @param refundable  true if the INIT_VOYAGE command takes a refund cut and tickets can be refunded, false otherwise.
+     * @param seatClasses Seat classes of the layout, in the order they are listed in the voyage initialization.
+     */
+    public SeatLayout(int code, String name, String kind, String rowSpec, boolean refundable, SeatClass... seatClasses) {
+        if (code < 1 || code > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Layout code must be in range of [1, 127]: " + code);
+        }
+        this.code = (byte) code;
+        this.name = name;
+        this.kind = kind;
+        this.refundable = refundable;
+        this.seatClasses = seatClasses.clone();
+
+        StringBuilder row = new StringBuilder(rowSpec.length());
+        List<Integer> positions = new ArrayList<>();
+        List<Byte> classes = new ArrayList<>();
+        List<Integer> seatGroups = new ArrayList<>();
+        StringBuilder groups = new StringBuilder();
+        int group = 0;
+        int groupSeats = 0;
+        for (int i = 0; i < rowSpec.length(); i++) {
+            char c = rowSpec.charAt(i);
+            int seatClass = classOfSymbol(c);
+            if (seatClass >= 0) {
+                positions.add(i);
+                classes.add((byte) seatClass);
+                seatGroups.add(group);
+                row.append(seatClasses[seatClass].emptyGlyph);
+                groupSeats++;
+            } else {
+                if (c == '|') {
+                    groups.append(groupSeats).append('+');
+                    group++;
+                    groupSeats = 0;
+                }
+                row.append(c);
+            }
+        }
+        if (positions.isEmpty() || positions.size() > Long.SIZE) {
+            throw new IllegalArgumentException("Row specification must have 1 to 64 seats: " + rowSpec);
+        }
+        this.arrangement = groups.append(groupSeats).toString();
+        this.emptyRow = row.toString();
+
+        this.seatPositions = new int[positions.size()];
+        this.rowSeatClasses = new byte[positions.size()];
+        this.classSeatsPerRow = new int[seatClasses.length];
+        this.glyphs = new char[3 * positions.size()];
+        boolean premiumFee = false;
+        for (int i = 0; i < seatPositions.length; i++) {
+            seatPositions[i] = positions.get(i);
+            rowSeatClasses[i] = classes.get(i);
+            SeatClass seatClass = seatClasses[rowSeatClasses[i]];
+            classSeatsPerRow[rowSeatClasses[i]]++;
+            glyphs[3 * i] = seatClass.emptyGlyph;
+            glyphs[3 * i + 1] = seatClass.soldGlyph;
+            glyphs[3 * i + 2] = seatClass.heldGlyph;
+            premiumFee |= seatClass.premiumFeeApplied;
+        }
+        this.premiumFeeUsed = premiumFee;
+
+        // Bit i of a row mask belongs to the i-th seat of a row, see SeatMap#rowBits(int, int)
+        this.classMasks = new long[seatClasses.length];
+        for (int i = 0; i < seatPositions.length; i++) {
+            classMasks[rowSeatClasses[i]] |= 1L << i;
+        }
+        this.blockStartMasks = new long[seatPositions.length + 1];
+        for (int length = 1; length <= seatPositions.length; length++) {
+            for (int start = 0; start + length <= seatPositions.length; start++) {
+                if (seatGroups.get(start).equals(seatGroups.get(start + length - 1))) {
+                    blockStartMasks[length] |= 1L << start;
+                }
+            }
+        }
+    }
+
+    private int classOfSymbol(char symbol) {
+        for (int i = 0; i < seatClasses.length; i++) {
+            if (seatClasses[i].symbol == symbol) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Makes a layout available to the INIT_VOYAGE command, the journal and the snapshots.
+     *
+     * @param layout The layout.
+     * @return The registered layout.
+     * @throws IllegalArgumentException If a layout with the same code or name is already registered.
+     */
+    public static synchronized SeatLayout register(SeatLayout layout) {
+        if (forCode(layout.code) != null || forName(layout.name) != null) {
+            throw new IllegalArgumentException("There is already a layout " + layout.code + " or " + layout.name);
+        }
+        SeatLayout[] registered = Arrays.copyOf(layouts, layouts.length + 1);
+        registered[registered.length - 1] = layout;
+        layouts = registered;
+        return layout;
+    }
+
+    /**
+     * @return The registered layouts in the order they were registered.
+     */
+    public static List<SeatLayout> values() {
+        return List.of(layouts);
+    }
+
+    /**
+     * @param name Name of a layout in the INIT_VOYAGE command.
+     * @return The registered layout, null if there is none with the name.
+     */
+    public static SeatLayout forName(String name) {
+        for (SeatLayout layout : layouts) {
+            if (layout.name.equals(name)) {
+                return layout;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the layout named by a field of a command.
+     *
+     * @param tokens Tokenized command.
+     * @param field  Index of the field.
+     * @return The registered layout, null if there is none with the name.
+     */
+    static SeatLayout forField(CommandTokenizer tokens, int field) {
+        for (SeatLayout layout : layouts) {
+            if (tokens.fieldEquals(field, layout.name)) {
+                return layout;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param code Code of a layout in journals and snapshots.
+     * @return The registered layout, null if there is none with the code.
+     */
+    public static SeatLayout forCode(byte code) {
+        for (SeatLayout layout : layouts) {
+            if (layout.code == code) {
+                return layout;
+            }
+        }
+        return null;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if tickets can be refunded, in which case the INIT_VOYAGE command takes a refund cut.
+     */
+    public boolean isRefundable() {
+        return refundable;
+    }
+
+    /**
+     * @return true if a seat class of the layout is priced with a premium fee, in which case the INIT_VOYAGE command takes one.
+     */
+    public boolean isPremiumFeeUsed() {
+        return premiumFeeUsed;
+    }
+
+    /**
+     * @return Number of fields of the INIT_VOYAGE command of the layout.
+     */
+    public int getCommandFieldCount() {
+        return 7 + (refundable ? 1 : 0) + (premiumFeeUsed ? 1 : 0);
+    }
+
+    /**
+     * @return Number of seats in a row.
+     */
+    public int getSeatsPerRow() {
+        return seatPositions.length;
+    }
+
+    /**
+     * @return Number of seat classes of the layout.
+     */
+    public int getSeatClassCount() {
+        return seatClasses.length;
+    }
+
+    /**
+     * @param seatClass Index of a seat class of the layout.
+     * @return The seat class.
+     */
+    public SeatClass getSeatClass(int seatClass) {
+        return seatClasses[seatClass];
+    }
+
+    /**
+     * Finds the seat class named by a field of a command.
+     *
+     * @param tokens Tokenized command.
+     * @param field  Index of the field.
+     * @return Index of the seat class, -1 if the layout has no class with the name.
+     */
+    int seatClassOf(CommandTokenizer tokens, int field) {
+        for (int i = 0; i < seatClasses.length; i++) {
+            if (tokens.fieldEquals(field, seatClasses[i].name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param seatClass Index of a seat class of the layout, -1 for all seats.
+     * @return Mask of the seats of the class within a row, bit i belongs to the i-th seat of the row.
+     */
+    long getRowMask(int seatClass) {
+        if (seatClass < 0) {
+            return seatPositions.length == Long.SIZE ? -1L : (1L << seatPositions.length) - 1;
+        }
+        return classMasks[seatClass];
+    }
+
+    /**
+     * Gives the seats of a row where a block of adjacent seats can start, seats are adjacent if they are next to each other in
+     * the same group, between the same aisles.
+     *
+     * @param length Number of seats in the block.
+     * @return Mask of the first seats of the blocks within a row, 0 if no group of a row is long enough.
+     */
+    long getBlockStartMask(int length) {
+        return length < blockStartMasks.length ? blockStartMasks[length] : 0;
+    }
+
+    /**
+     * @return Index of the seat class of every position within a row. The array must not be modified.
+     */
+    byte[] getRowSeatClasses() {
+        return rowSeatClasses;
+    }
+
+    /**
+     * Appends the text that the INIT_VOYAGE command prints for a new voyage, for example "Voyage 1 was initialized as a
+     * standard (2+2) voyage from A to B with 25.00 TL priced 8 regular seats. Note that refunds will be 10% less than the paid amount."
+     *
+     * @param out Destination of the text.
+     * @param bus The new voyage.
+     */
+    void appendInitialization(StringBuilder out, Bus bus) {
+        out.append("Voyage ").append(bus.getId()).append(" was initialized as a ").append(kind).append(" (").append(arrangement)
+                .append(") voyage from ").append(bus.getFrom()).append(" to ").append(bus.getTo()).append(" with ");
+        for (int i = 0; i < seatClasses.length; i++) {
+            if (i > 0) {
+                out.append(" and ");
+            }
+            Money.append(out, bus.getFareTable().getClassSaleAmount(i));
+            out.append(" TL priced ").append(classSeatsPerRow[i] * bus.getNumberOfRows()).append(' ').append(seatClasses[i].name)
+                    .append(" seats");
+        }
+        if (refundable) {
+            out.append(". Note that refunds will be ").append((int) bus.getRefundCut()).append("% less than the paid amount.");
+        } else {
+            out.append(". Note that ").append(kind).append(" tickets are not refundable.");
+        }
+    }
+
+    /**
+     * Appends the seat map of a voyage row by row, each seat printed with the glyph of its class for an empty or a sold seat.
+     * Rows are separated by a newline, there is no newline after the last row.
+     *
+     * @param out   Destination of the seat map.
+     * @param seats Seat occupancy of the voyage, its size must be a multiple of the seats per row.
+     */
+    void appendSeats(StringBuilder out, SeatMap seats) {
+        int seatsPerRow = seatPositions.length;
+        for (int rowStart = 1; rowStart <= seats.size(); rowStart += seatsPerRow) {
+            if (rowStart != 1) {
+                out.append('\n');
+            }
+            int rowOffset = out.length();
+            out.append(emptyRow);
+            for (int i = 0; i < seatsPerRow; i++) {
+                out.setCharAt(rowOffset + seatPositions[i], glyphs[3 * i + seats.soldBit(rowStart + i)]);
+            }
+        }
+    }
+
+    /**
+     * Appends the seat map of a voyage like {@link #appendSeats(StringBuilder, SeatMap)}, printing held seats with the held
+     * glyph of their class. A seat is never both sold and held, so the glyph is still picked without a branch.
+     *
+     * @param out   Destination of the seat map.
+     * @param seats Seat occupancy of the voyage, its size must be a multiple of the seats per row.
+     * @param held  Held seats of the voyage, same size as the occupancy.
+     */
+    void appendSeats(StringBuilder out, SeatMap seats, SeatMap held) {
+        int seatsPerRow = seatPositions.length;
+        for (int rowStart = 1; rowStart <= seats.size(); rowStart += seatsPerRow) {
+            if (rowStart != 1) {
+                out.append('\n');
+            }
+            int rowOffset = out.length();
+            out.append(emptyRow);
+            for (int i = 0; i < seatsPerRow; i++) {
+                int glyph = 3 * i + seats.soldBit(rowStart + i) + 2 * held.soldBit(rowStart + i);
+                out.setCharAt(rowOffset + seatPositions[i], glyphs[glyph]);
+            }
+        }
+    }
+}
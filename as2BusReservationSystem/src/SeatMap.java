@@ -0,0 +1,337 @@
+import java.util.Arrays;
+
+/**
+ * Compact seat occupancy map of a bus that keeps one bit per seat in an array of longs.
+ * Seat numbers are 1-based, same as the seat numbers used in the commands.
+ * <p>
+ * A seat map either owns its array, or is a view of a range of an array that is shared with the seat maps of other voyages,
+ * see {@link VoyageColumns}. Subclasses may keep the words elsewhere by overriding the word accessors, see
+ * {@link OffHeapSeatInventory} and {@link ConcurrentSeatMap}.
+ */
+public class SeatMap {
+    private static final int WORD_SHIFT = 6; // 64 seats per word
+
+    private final long[] words; // Null if a subclass keeps the words
+    private final int offset; // Index of the first word of the seat map in the array
+    private final int wordCount;
+    private final int size;
+    private int soldCount = 0;
+
+    /**
+     * Constructor for SeatMap, initially all seats are empty.
+     *
+     * @param size Total number of seats.
+     */
+    public SeatMap(int size) {
+        this(new long[wordCount(size)], 0, size);
+    }
+
+    /**
+     * Constructor for a seat map that is a view of a range of words. The words must be 0, all seats are initially empty.
+     *
+     * @param words  Array that holds the words of the seat map, null for a subclass that keeps them elsewhere.
+     * @param offset Index of the first word of the seat map, followed by {@link #wordCount(int)} words of the seat map.
+     * @param size   Total number of seats.
+     */
+    SeatMap(long[] words, int offset, int size) {
+        this.words = words;
+        this.offset = offset;
+        this.wordCount = wordCount(size);
+        this.size = size;
+    }
+
+    /**
+     * @param size Total number of seats.
+     * @return Number of words that hold the bits of that many seats.
+     */
+    static int wordCount(int size) {
+        return (size + 63) >>> WORD_SHIFT;
+    }
+
+    /**
+     * @return Number of words of the seat map.
+     */
+    int wordCount() {
+        return wordCount;
+    }
+
+    /**
+     * @param wordIndex Index of a word of the seat map, in range of [0, wordCount()).
+     * @return The word.
+     */
+    long word(int wordIndex) {
+        return words[offset + wordIndex];
+    }
+
+    /**
+     * Sets bits of a word.
+     *
+     * @param wordIndex Index of a word of the seat map.
+     * @param bits      Bits to set.
+     * @return The word before the bits were set.
+     */
+    long setBits(int wordIndex, long bits) {
+        long word = words[offset + wordIndex];
+        words[offset + wordIndex] = word | bits;
+        return word;
+    }
+
+    /**
+     * Clears bits of a word.
+     *
+     * @param wordIndex Index of a word of the seat map.
+     * @param bits      Bits to clear.
+     * @return The word before the bits were cleared.
+     */
+    long clearBits(int wordIndex, long bits) {
+        long word = words[offset + wordIndex];
+        words[offset + wordIndex] = word & ~bits;
+        return word;
+    }
+
+    /**
+     * @param wordIndex Index of a word of the seat map.
+     * @param word      New value of the word.
+     */
+    void storeWord(int wordIndex, long word) {
+        words[offset + wordIndex] = word;
+    }
+
+    /**
+     * Detaches the seat map from memory that it does not own, which is when its voyage is cancelled and its occupancy never
+     * changes again. The seat maps on the heap stay as they are.
+     *
+     * @return A seat map with the same occupancy that lives on the heap, this seat map if it already does.
+     */
+    SeatMap detach() {
+        return this;
+    }
+
+    /**
+     * Creates a seat map from an array of sold flags.
+     *
+     * @param seatsSold Sold flags, index i belongs to seat i + 1.
+     * @return Seat map with the same occupancy.
+     */
+    public static SeatMap fromArray(boolean[] seatsSold) {
+        SeatMap map = new SeatMap(seatsSold.length);
+        for (int i = 0; i < seatsSold.length; i++) {
+            if (seatsSold[i]) {
+                map.words[map.offset + (i >>> WORD_SHIFT)] |= 1L << i;
+            }
+        }
+        map.soldCount = map.countSold();
+        return map;
+    }
+
+    /**
+     * @return Total number of seats.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether a seat is sold.
+     *
+     * @param seatNumber 1-based seat number, must be in range of [1, size].
+     * @return true if the seat is sold, false if it is empty.
+     */
+    public boolean isSold(int seatNumber) {
+        int index = seatNumber - 1;
+        return (word(index >>> WORD_SHIFT) & (1L << index)) != 0;
+    }
+
+    /**
+     * Reads the bit of a seat, for lookups that are indexed by the occupancy of a seat.
+     *
+     * @param seatNumber 1-based seat number, must be in range of [1, size].
+     * @return 1 if the seat is sold, 0 if it is empty.
+     */
+    public int soldBit(int seatNumber) {
+        int index = seatNumber - 1;
+        return (int) (word(index >>> WORD_SHIFT) >>> index) & 1;
+    }
+
+    /**
+     * Reads the bits of consecutive seats, for example the seats of a row.
+     *
+     * @param fromSeat 1-based number of the first seat.
+     * @param count    Number of seats, in range of [1, 64]. The seats must be in range of [1, size].
+     * @return Bits of the seats, bit i is set if seat fromSeat + i is sold.
+     */
+    public long rowBits(int fromSeat, int count) {
+        int index = fromSeat - 1;
+        int wordIndex = index >>> WORD_SHIFT;
+        int shift = index & 63;
+        long bits = word(wordIndex) >>> shift;
+        if (shift + count > 64) {
+            bits |= word(wordIndex + 1) << (64 - shift);
+        }
+        return count == 64 ? bits : bits & ((1L << count) - 1);
+    }
+
+    /**
+     * Marks a seat as sold. Marking an already sold seat has no effect.
+     *
+     * @param seatNumber 1-based seat number, must be in range of [1, size].
+     */
+    void sell(int seatNumber) {
+        int index = seatNumber - 1;
+        long bit = 1L << index;
+        if ((setBits(index >>> WORD_SHIFT, bit) & bit) == 0) {
+            soldCount++;
+        }
+    }
+
+    /**
+     * Marks a seat as empty. Marking an already empty seat has no effect.
+     *
+     * @param seatNumber 1-based seat number, must be in range of [1, size].
+     */
+    void refund(int seatNumber) {
+        int index = seatNumber - 1;
+        long bit = 1L << index;
+        if ((clearBits(index >>> WORD_SHIFT, bit) & bit) != 0) {
+            soldCount--;
+        }
+    }
+
+    /**
+     * @return Number of sold seats, kept up to date on every change.
+     */
+    public int getSoldCount() {
+        return soldCount;
+    }
+
+    /**
+     * Adjusts the sold count for seats that a subclass has sold or refunded without {@link #sell(int)} and {@link #refund(int)}.
+     *
+     * @param delta Number of seats sold, negative for seats refunded.
+     */
+    void addSoldCount(int delta) {
+        soldCount += delta;
+    }
+
+    /**
+     * @return Number of empty seats.
+     */
+    public int getFreeCount() {
+        return size - getSoldCount();
+    }
+
+    /**
+     * Finds the first sold seat whose number is greater than or equal to the given seat number.
+     *
+     * @param fromSeat 1-based seat number to start from.
+     * @return Seat number of the sold seat, -1 if there is none.
+     */
+    public int nextSold(int fromSeat) {
+        int index = Math.max(fromSeat, 1) - 1;
+        if (index >= size) {
+            return -1;
+        }
+        int wordIndex = index >>> WORD_SHIFT;
+        long word = word(wordIndex) & (-1L << index);
+        while (true) {
+            if (word != 0) {
+                int found = (wordIndex << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+                return found < size ? found + 1 : -1;
+            }
+            if (++wordIndex == wordCount) {
+                return -1;
+            }
+            word = word(wordIndex);
+        }
+    }
+
+    /**
+     * Finds the first empty seat whose number is greater than or equal to the given seat number.
+     *
+     * @param fromSeat 1-based seat number to start from.
+     * @return Seat number of the empty seat, -1 if there is none.
+     */
+    public int nextFree(int fromSeat) {
+        int index = Math.max(fromSeat, 1) - 1;
+        if (index >= size) {
+            return -1;
+        }
+        int wordIndex = index >>> WORD_SHIFT;
+        long word = ~word(wordIndex) & (-1L << index);
+        while (true) {
+            if (word != 0) {
+                int found = (wordIndex << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+                return found < size ? found + 1 : -1; // Bits past the last seat are never set, so they look empty
+            }
+            if (++wordIndex == wordCount) {
+                return -1;
+            }
+            word = ~word(wordIndex);
+        }
+    }
+
+    /**
+     * Copies the occupancy into a new array of sold flags.
+     *
+     * @return Sold flags, index i belongs to seat i + 1.
+     */
+    public boolean[] toArray() {
+        boolean[] seatsSold = new boolean[size];
+        for (int seat = nextSold(1); seat != -1; seat = nextSold(seat + 1)) {
+            seatsSold[seat - 1] = true;
+        }
+        return seatsSold;
+    }
+
+    /**
+     * Creates a seat map from the words of another seat map, see {@link #toWords()}.
+     *
+     * @param size  Total number of seats.
+     * @param words Bit words, bit i of word w belongs to seat 64 * w + i + 1. Bits past the last seat must not be set.
+     * @return Seat map with the same occupancy.
+     */
+    public static SeatMap fromWords(int size, long[] words) {
+        SeatMap map = new SeatMap(size);
+        map.setWords(words);
+        return map;
+    }
+
+    /**
+     * Replaces the occupancy with the words of another seat map of the same size, see {@link #toWords()}.
+     *
+     * @param words Bit words, bit i of word w belongs to seat 64 * w + i + 1. Bits past the last seat must not be set.
+     */
+    void setWords(long[] words) {
+        if (words.length != wordCount) {
+            throw new IllegalArgumentException(words.length + " words do not fit " + size + " seats");
+        }
+        for (int i = 0; i < wordCount; i++) {
+            storeWord(i, words[i]);
+        }
+        soldCount = countSold();
+    }
+
+    /**
+     * Copies the occupancy into a new array of bit words, which is the most compact form of the seat map.
+     *
+     * @return Bit words, bit i of word w belongs to seat 64 * w + i + 1.
+     */
+    public long[] toWords() {
+        if (words != null) {
+            return Arrays.copyOfRange(words, offset, offset + wordCount);
+        }
+        long[] copy = new long[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            copy[i] = word(i);
+        }
+        return copy;
+    }
+
+    private int countSold() {
+        int count = 0;
+        for (int i = 0; i < wordCount; i++) {
+            count += Long.bitCount(word(i));
+        }
+        return count;
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel that expires values at their deadlines.
+ * <p>
+ * Time is divided into ticks of a fixed length, and the wheel has a power of two buckets, each a doubly linked list of the
+ * timers whose deadline falls into a tick of that bucket. Scheduling and cancelling a timer are O(1) whatever the number of
+ * pending timers, and advancing the wheel only visits the buckets of the ticks that have passed. A deadline more than a
+ * rotation away stays in its bucket until the rotation it belongs to comes around. Timers never fire early, but they may fire
+ * up to one tick late.
+ * <p>
+ * The wheel is not thread-safe, its owner has to guard it.
+ *
+ * @param <T> Type of the values of the timers.
+ */
+public class TimerWheel<T> {
+    private final Timer<T>[] buckets; // Head of the list of every bucket, null if it is empty
+    private final int mask;
+    private final long tickNanos;
+    private final long startNanos;
+    private long currentTick = 0; // Every tick up to and including this one has been expired
+    private int size = 0;
+
+    /**
+     * A scheduled value, which can be cancelled until it expires.
+     *
+     * @param <T> Type of the value.
+     */
+    public static final class Timer<T> {
+        private final T value;
+        private final long deadlineTick;
+        private Timer<T> previous;
+        private Timer<T> next;
+        private int bucket = -1; // -1 once the timer has expired or has been cancelled
+
+        private Timer(T value, long deadlineTick) {
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * @return The scheduled value.
+         */
+        public T getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Constructor for TimerWheel.
+     *
+     * @param bucketCount Number of buckets, must be a power of two.
+     * @param tickNanos   Length of a tick in nanoseconds.
+     * @param startNanos  Time of tick 0, on the same clock as the deadlines.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(int bucketCount, long tickNanos, long startNanos) {
+        if (bucketCount <= 0 || Integer.bitCount(bucketCount) != 1) {
+            throw new IllegalArgumentException("Bucket count must be a power of two: " + bucketCount);
+        }
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick must be positive: " + tickNanos);
+        }
+        this.buckets = (Timer<T>[]) new Timer[bucketCount];
+        this.mask = bucketCount - 1;
+        this.tickNanos = tickNanos;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Schedules a value to expire at a deadline. A deadline that has already passed expires on the next advance.
+     *
+     * @param value         Value to expire.
+     * @param deadlineNanos Deadline on the clock of the wheel.
+     * @return The timer, to cancel it with.
+     */
+    public Timer<T> schedule(T value, long deadlineNanos) {
+        long elapsed = Math.max(0, deadlineNanos - startNanos);
+        long deadlineTick = Math.max(currentTick + 1, elapsed / tickNanos + (elapsed % tickNanos != 0 ? 1 : 0)); // Rounded up
+        Timer<T> timer = new Timer<>(value, deadlineTick);
+        timer.bucket = (int) (deadlineTick & mask);
+        timer.next = buckets[timer.bucket];
+        if (timer.next != null) {
+            timer.next.previous = timer;
+        }
+        buckets[timer.bucket] = timer;
+        size++;
+        return timer;
+    }
+
+    /**
+     * Cancels a timer so that it never expires.
+     *
+     * @param timer The timer.
+     * @return true if the timer is cancelled, false if it has already expired or has been cancelled.
+     */
+    public boolean cancel(Timer<T> timer) {
+        if (timer.bucket < 0) {
+            return false;
+        }
+        unlink(timer);
+        return true;
+    }
+
+    private void unlink(Timer<T> timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            buckets[timer.bucket] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.bucket = -1;
+        size--;
+    }
+
+    /**
+     * Expires every timer whose deadline tick has passed. After a pause of more than a rotation, every bucket is visited once.
+     *
+     * @param nowNanos Current time on the clock of the wheel.
+     * @param expired  Action that is called with the value of every expired timer.
+     * @return Number of expired timers.
+     */
+    public int advance(long nowNanos, Consumer<? super T> expired) {
+        long nowTick = Math.max(0, nowNanos - startNanos) / tickNanos;
+        if (nowTick <= currentTick) {
+            return 0;
+        }
+        int count = 0;
+        long lastTick = Math.min(nowTick, currentTick + buckets.length);
+        for (long tick = currentTick + 1; tick <= lastTick && size > 0; tick++) {
+            Timer<T> timer = buckets[(int) (tick & mask)];
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                if (timer.deadlineTick <= nowTick) {
+                    unlink(timer);
+                    expired.accept(timer.value);
+                    count++;
+                }
+                timer = next;
+            }
+        }
+        currentTick = nowTick;
+        return count;
+    }
+
+    /**
+     * @return Number of pending timers.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,451 @@
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Store that keeps the state of many voyages column-wise instead of in objects of their own, for deployments with millions of
+ * voyages, where the heap and the pauses of the garbage collector are dominated by the voyage objects.
+ * <p>
+ * Voyages are kept in chunks of 4096 slots, and every chunk has a primitive array for each field: the ID, the departure and
+ * destination as IDs of interned city names, the revenue, the cancelled flag, and a reference to the pricing, which is
+ * interned as well, so voyages with the same layout and prices share one fare table. The seat bits of the voyages are packed
+ * one after another into shared pages of 65536 words, only voyages with more than 4096 words of seats get an array of their
+ * own. Chunks and pages are never moved once allocated, so the fields of a voyage stay where they are.
+ * <p>
+ * Every voyage is represented by a small view that extends {@link Bus}, so the commands work and print exactly the same. A view
+ * holds its chunk, its slot and a seat map over its range of a page, and the view's monitor guards its slot, just like the
+ * monitor of a {@link ObjectBus} guards its fields. The details of a voyage are rendered every time they are printed instead
+ * of being cached, which trades Z report speed for memory.
+ * <p>
+ * When a voyage is cancelled, its slot and its seat words are released and reused by the next voyages, so a store whose voyages
+ * are initialized and cancelled over and over does not grow. The view of the cancelled voyage keeps a copy of its fields and
+ * of its seats, which it prints from from then on, since threads may still hold it. Its synchronized methods switch to the
+ * copy under its monitor, and its other getters read the slot first and then check whether the view has been detached in the
+ * meantime, like an optimistic read of a {@link java.util.concurrent.locks.StampedLock}, so a value that has been read from a
+ * slot that already belongs to another voyage is never returned. Creating voyages, releasing slots and seat words, interning
+ * city names and interning prices is serialized by the store's monitor.
+ */
+public class VoyageColumns {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int WORD_PAGE_SIZE = 1 << 16; // 512 KB of seat bits
+    private static final int MAX_SHARED_WORDS = WORD_PAGE_SIZE / 16; // Voyages with more seat words get an array of their own
+
+    private Chunk chunk = null; // Chunk that new voyages are added to, null until the first voyage
+    private int chunkSize = CHUNK_SIZE; // Used slots of the chunk
+    private int slots = 0; // Slots of all chunks that have been used, including the released ones
+    private int wordPages = 0; // Shared pages of seat words
+    private long[] wordPage = null; // Page that the seat words of new voyages are allocated from
+    private int wordPageSize = WORD_PAGE_SIZE; // Used words of the page
+    private final ArrayDeque<View> releasedSlots = new ArrayDeque<>(); // Views of cancelled voyages whose slots can be reused
+    private final HashMap<Integer, ArrayDeque<PageSeatMap>> releasedWords = new HashMap<>(); // By number of words, cleared
+    private volatile String[] cities = new String[16]; // Replaced when it grows, so views read it without a lock
+    private int cityCount = 0;
+    private final HashMap<String, Integer> cityIds = new HashMap<>();
+    private final HashMap<Pricing, Pricing> pricings = new HashMap<>();
+    private int size = 0;
+    private long seatWords = 0;
+
+    /**
+     * Columns of up to 4096 voyages, indexed by the slot of a voyage within the chunk.
+     */
+    private static final class Chunk {
+        private final VoyageColumns columns;
+        private final int[] ids = new int[CHUNK_SIZE];
+        private final int[] fromCities = new int[CHUNK_SIZE];
+        private final int[] toCities = new int[CHUNK_SIZE];
+        private final Pricing[] pricings = new Pricing[CHUNK_SIZE];
+        private final long[] revenues = new long[CHUNK_SIZE]; // Fixed point, see Money
+        private final boolean[] cancelled = new boolean[CHUNK_SIZE];
+
+        private Chunk(VoyageColumns columns) {
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Pricing parameters of a voyage together with the fare table that is built from them, shared by all voyages with the same.
+     */
+    private static final class Pricing {
+        private final SeatLayout layout;
+        private final long price; // Fixed point, see Money
+        private final double refundCut;
+        private final double premiumFee;
+        private FareTable fareTable; // Built once the pricing is interned
+
+        private Pricing(SeatLayout layout, long price, double refundCut, double premiumFee) {
+            this.layout = layout;
+            this.price = price;
+            this.refundCut = refundCut;
+            this.premiumFee = premiumFee;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Pricing)) {
+                return false;
+            }
+            Pricing pricing = (Pricing) other;
+            return layout == pricing.layout && price == pricing.price && Double.compare(refundCut, pricing.refundCut) == 0
+                    && Double.compare(premiumFee, pricing.premiumFee) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(layout.getCode(), price, refundCut, premiumFee);
+        }
+    }
+
+    /**
+     * Fields of a cancelled voyage, which its view keeps once its slot has been released.
+     */
+    private static final class Detached {
+        private final int id;
+        private String from;
+        private String to;
+        private final Pricing pricing;
+        private long revenue; // Fixed point, see Money, guarded by the monitor of the view
+
+        private Detached(int id, String from, String to, Pricing pricing, long revenue) {
+            this.id = id;
+            this.from = from;
+            this.to = to;
+            this.pricing = pricing;
+            this.revenue = revenue;
+        }
+    }
+
+    /**
+     * Seat map whose words are a range of a shared page. After its voyage is cancelled, its words belong to another seat map.
+     */
+    private static final class PageSeatMap extends SeatMap {
+        private final VoyageColumns columns;
+        private final long[] page;
+        private final int offset;
+        private boolean detached = false; // Guarded by the monitor of the voyage
+
+        private PageSeatMap(VoyageColumns columns, long[] page, int offset, int size) {
+            super(page, offset, size);
+            this.columns = columns;
+            this.page = page;
+            this.offset = offset;
+        }
+
+        @Override
+        SeatMap detach() {
+            if (detached) {
+                throw new IllegalStateException("seat map has already been detached");
+            }
+            SeatMap copy = SeatMap.fromWords(size(), toWords());
+            detached = true;
+            columns.releaseWords(this);
+            return copy;
+        }
+    }
+
+    /**
+     * View of a voyage in the columns of a chunk.
+     */
+    private static final class View extends Bus {
+        private final Chunk chunk;
+        private final int slot;
+        private SeatMap seats;
+        private volatile Detached detached = null; // Set when the voyage is cancelled, the slot is reused after that
+
+        private View(SeatLayout layout, Chunk chunk, int slot, SeatMap seats) {
+            super(layout);
+            this.chunk = chunk;
+            this.slot = slot;
+            this.seats = seats;
+        }
+
+        @Override
+        protected SeatMap seats() {
+            return seats;
+        }
+
+        @Override
+        protected void storeSeats(SeatMap seats) {
+            this.seats = seats;
+        }
+
+        /**
+         * @return Fields of the cancelled voyage, null if it has not been cancelled. Getters that do not hold the monitor call
+         * it after reading the slot, the fence keeps those reads before it, so if the slot has been reused by the time they
+         * read it, the view has already been detached.
+         */
+        private Detached detached() {
+            VarHandle.acquireFence();
+            return detached;
+        }
+
+        @Override
+        protected long revenueUnits() {
+            long revenue = chunk.revenues[slot];
+            Detached detached = detached();
+            return detached != null ? detached.revenue : revenue;
+        }
+
+        @Override
+        protected void storeRevenueUnits(long revenue) {
+            Detached detached = this.detached;
+            if (detached != null) {
+                detached.revenue = revenue;
+            } else {
+                chunk.revenues[slot] = revenue;
+            }
+        }
+
+        @Override
+        protected boolean cancelledFlag() {
+            boolean cancelled = chunk.cancelled[slot];
+            return detached() != null || cancelled;
+        }
+
+        @Override
+        protected void storeCancelled() {
+            if (detached == null) {
+                chunk.cancelled[slot] = true;
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            super.cancel(); // Detaches the seats
+            if (detached == null) {
+                detached = new Detached(chunk.ids[slot], getFrom(), getTo(), chunk.pricings[slot], chunk.revenues[slot]);
+                chunk.columns.releaseSlot(this);
+            }
+        }
+
+        private Pricing pricing() {
+            Pricing pricing = chunk.pricings[slot];
+            Detached detached = detached();
+            return detached != null ? detached.pricing : pricing;
+        }
+
+        @Override
+        public FareTable getFareTable() {
+            return pricing().fareTable;
+        }
+
+        @Override
+        public int getId() {
+            int id = chunk.ids[slot];
+            Detached detached = detached();
+            return detached != null ? detached.id : id;
+        }
+
+        @Override
+        public String getFrom() {
+            int city = chunk.fromCities[slot];
+            Detached detached = detached();
+            return detached != null ? detached.from : chunk.columns.cities[city];
+        }
+
+        @Override
+        public synchronized void setFrom(String from) {
+            if (detached != null) {
+                detached.from = from;
+            } else {
+                chunk.fromCities[slot] = chunk.columns.cityId(from);
+            }
+        }
+
+        @Override
+        public String getTo() {
+            int city = chunk.toCities[slot];
+            Detached detached = detached();
+            return detached != null ? detached.to : chunk.columns.cities[city];
+        }
+
+        @Override
+        public synchronized void setTo(String to) {
+            if (detached != null) {
+                detached.to = to;
+            } else {
+                chunk.toCities[slot] = chunk.columns.cityId(to);
+            }
+        }
+
+        @Override
+        public int getNumberOfRows() {
+            return seats.size() / getLayout().getSeatsPerRow();
+        }
+
+        @Override
+        public long getPriceUnits() {
+            return pricing().price;
+        }
+
+        @Override
+        public double getRefundCut() {
+            return pricing().refundCut;
+        }
+
+        @Override
+        public double getPremiumFee() {
+            return pricing().premiumFee;
+        }
+    }
+
+    /**
+     * Creates a voyage in the store, in the slot of a cancelled voyage if there is one. The voyage is not registered anywhere,
+     * and its slot is kept until it is cancelled, even if it is never registered.
+     *
+     * @param layout       Seat layout of the bus.
+     * @param id           The unique identifier for the bus.
+     * @param from         Starting point of the voyage.
+     * @param to           Destination of the voyage.
+     * @param numberOfRows Number of rows in the bus.
+     * @param price        Price per seat.
+     * @param refundCut    Percentage of the price deducted on refund, 0 if the layout is not refundable.
+     * @param premiumFee   Percentage added to the price for premium seats, 0 if the layout has none.
+     * @param seats        Empty seats of the voyage that have been allocated elsewhere, for example off the heap, null to
+     *                     allocate them in the pages of the store.
+     * @return View of the voyage.
+     */
+    public synchronized Bus newVoyage(SeatLayout layout, int id, String from, String to, int numberOfRows, double price,
+                                      double refundCut, double premiumFee, SeatMap seats) {
+        View released = releasedSlots.poll();
+        Chunk chunk;
+        int slot;
+        if (released != null) {
+            chunk = released.chunk;
+            slot = released.slot;
+        } else {
+            if (chunkSize == CHUNK_SIZE) {
+                this.chunk = new Chunk(this);
+                chunkSize = 0;
+            }
+            chunk = this.chunk;
+            slot = chunkSize++;
+            slots++;
+        }
+        chunk.ids[slot] = id;
+        chunk.fromCities[slot] = cityId(from);
+        chunk.toCities[slot] = cityId(to);
+        chunk.pricings[slot] = pricing(layout, Money.fromDouble(price), refundCut, premiumFee);
+        chunk.revenues[slot] = 0;
+        chunk.cancelled[slot] = false;
+        size++;
+        return new View(layout, chunk, slot, seats != null ? seats : newSeatMap(numberOfRows * layout.getSeatsPerRow()));
+    }
+
+    /**
+     * Allocates the seat words of a voyage, the released words of a cancelled voyage of the same number of words if there
+     * are any, from the current page otherwise if they fit in it.
+     *
+     * @param totalSeats Number of seats of the voyage.
+     * @return Seat map over the allocated words.
+     */
+    private SeatMap newSeatMap(int totalSeats) {
+        int wordCount = SeatMap.wordCount(totalSeats);
+        seatWords += wordCount;
+        if (wordCount > MAX_SHARED_WORDS) {
+            return new SeatMap(totalSeats);
+        }
+        ArrayDeque<PageSeatMap> reusable = releasedWords.get(wordCount);
+        if (reusable != null && !reusable.isEmpty()) {
+            PageSeatMap previous = reusable.pop();
+            return new PageSeatMap(this, previous.page, previous.offset, totalSeats);
+        }
+        if (wordPageSize + wordCount > WORD_PAGE_SIZE) {
+            wordPage = new long[WORD_PAGE_SIZE];
+            wordPageSize = 0;
+            wordPages++;
+        }
+        SeatMap seats = new PageSeatMap(this, wordPage, wordPageSize, totalSeats);
+        wordPageSize += wordCount;
+        return seats;
+    }
+
+    /**
+     * Clears the words of a detached seat map and keeps them for the next seat map of the same number of words.
+     *
+     * @param seats The seat map, which must not be used any more.
+     */
+    private synchronized void releaseWords(PageSeatMap seats) {
+        int wordCount = seats.wordCount();
+        Arrays.fill(seats.page, seats.offset, seats.offset + wordCount, 0);
+        releasedWords.computeIfAbsent(wordCount, count -> new ArrayDeque<>()).push(seats);
+        seatWords -= wordCount;
+    }
+
+    /**
+     * Keeps the slot of a cancelled voyage for the next voyage.
+     *
+     * @param view View of the cancelled voyage, which has been detached from its slot.
+     */
+    private synchronized void releaseSlot(View view) {
+        releasedSlots.push(view);
+        size--;
+    }
+
+    /**
+     * @param city Name of a city.
+     * @return ID of the city, which is assigned on its first use.
+     */
+    private synchronized int cityId(String city) {
+        Integer id = cityIds.get(city);
+        if (id != null) {
+            return id;
+        }
+        String[] cities = this.cities;
+        if (cityCount == cities.length) {
+            cities = Arrays.copyOf(cities, 2 * cityCount);
+        }
+        cities[cityCount] = city;
+        this.cities = cities; // Volatile write, publishes the new city before its ID is stored in a column
+        cityIds.put(city, cityCount);
+        return cityCount++;
+    }
+
+    private Pricing pricing(SeatLayout layout, long price, double refundCut, double premiumFee) {
+        Pricing pricing = new Pricing(layout, price, refundCut, premiumFee);
+        Pricing interned = pricings.get(pricing);
+        if (interned != null) {
+            return interned;
+        }
+        pricing.fareTable = new FareTable(layout, price, (long) premiumFee, (long) refundCut);
+        pricings.put(pricing, pricing);
+        return pricing;
+    }
+
+    /**
+     * @return Number of voyages in the store, that is the voyages that have been created and not cancelled yet.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of seat words that are allocated for the voyages that have not been cancelled.
+     */
+    public synchronized long getSeatWordCount() {
+        return seatWords;
+    }
+
+    /**
+     * @return Number of slots that have been taken by voyages, whether they are in use or released for the next voyages.
+     */
+    public synchronized int getSlotCount() {
+        return slots;
+    }
+
+    /**
+     * @return Number of pages of 65536 words that the seats of voyages with up to 4096 seat words share.
+     */
+    public synchronized int getWordPageCount() {
+        return wordPages;
+    }
+
+    /**
+     * @return Number of distinct pricings, that is the number of fare tables that the voyages share.
+     */
+    public synchronized int getPricingCount() {
+        return pricings.size();
+    }
+}
@@ -0,0 +1,377 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Map from voyage IDs to voyages that is keyed by primitive ints, so that looking up a voyage boxes nothing.
+ * <p>
+ * Voyage IDs are mostly compact, so voyages are kept in pages of 1024 slots that are indexed by the ID itself: finding a
+ * voyage or finding out that there is none is a single probe of a page, and visiting the pages in order visits the voyages
+ * in ID order without sorting them. A page is only allocated while the pages stay at least a quarter full on average. The
+ * IDs outside of the allocated pages, such as negative IDs or a few very large ones, are kept in an open-addressing hash
+ * table instead, and their sorted keys are merged with the pages when the voyages are visited. When a page is allocated,
+ * the voyages of the table that belong to it move into it, so an ID is never in both.
+ * <p>
+ * Lookups and visits take no lock and may run while the registry is changed, which is serialized by the registry's monitor.
+ * Slots are written with release and read with acquire semantics, and an array that grows is replaced, never changed in
+ * place, so readers see either the old or the new state of every voyage.
+ */
+public class VoyageRegistry {
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int MIN_PAGES = 16; // The pages of IDs 0 to 16383 are allocated however few voyages they hold
+    private static final int MIN_TABLE_CAPACITY = 16;
+    private static final long USED = 1L << 32; // Set in every key of the table that belongs to an ID, so 0 marks an empty slot
+    private static final VarHandle VOYAGES = MethodHandles.arrayElementVarHandle(Bus[].class);
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private volatile Bus[][] pages = new Bus[MIN_PAGES][];
+    private volatile Table table = null; // Null until an ID needs it
+    private volatile int size = 0;
+    private int allocatedPages = 0; // Guarded by this
+    private int pagedSize = 0; // Guarded by this, number of voyages in the pages
+    private volatile int[] sortedTableKeys = new int[0]; // IDs of the table in ascending order, null when they have to be sorted again
+
+    /**
+     * Open-addressing hash table with linear probing. Its capacity is a power of two and it is at most half full. A key stays
+     * in its slot when its voyage is removed, so the probe sequences of the other keys are not broken, and the slot is
+     * reused if a voyage with the same ID is added again. The table is rebuilt without those slots when it fills up.
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final Bus[] voyages;
+        private final int mask;
+        private int usedSlots = 0; // Guarded by the registry, including the slots whose voyage has been removed
+        private int liveSlots = 0; // Guarded by the registry
+
+        private Table(int capacity) {
+            keys = new long[capacity];
+            voyages = new Bus[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * @param id ID of a voyage.
+         * @return Slot of the ID, or the empty slot that ends its probe sequence.
+         */
+        private int find(int id) {
+            long key = (id & 0xFFFFFFFFL) | USED;
+            int hash = id * 0x9E3779B9; // Fibonacci hashing, spreads consecutive IDs
+            for (int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask) {
+                long found = (long) KEYS.getAcquire(keys, slot);
+                if (found == key || found == 0) {
+                    return slot;
+                }
+            }
+        }
+
+        private Bus get(int id) {
+            int slot = find(id);
+            return (Bus) VOYAGES.getAcquire(voyages, slot); // Null for an empty slot
+        }
+    }
+
+    /**
+     * Looks up a voyage.
+     *
+     * @param id ID of the voyage.
+     * @return The voyage, null if there is no voyage with the given ID.
+     */
+    public Bus get(int id) {
+        while (true) {
+            Bus[][] pages = this.pages;
+            Bus[] page = pageOf(pages, id);
+            if (page != null) {
+                return (Bus) VOYAGES.getAcquire(page, id & (PAGE_SIZE - 1));
+            }
+            Table table = this.table;
+            Bus voyage = table == null ? null : table.get(id);
+            if (voyage != null || pages == this.pages) {
+                return voyage;
+            }
+            // A page has been allocated since, the voyage may have moved into it
+        }
+    }
+
+    /**
+     * Checks whether there is a voyage with the given ID.
+     *
+     * @param id ID of the voyage.
+     * @return true if the voyage exists, false otherwise.
+     */
+    public boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Registers a voyage unless there is already one with the same ID.
+     *
+     * @param id     ID of the voyage.
+     * @param voyage The voyage.
+     * @return The voyage that is already registered with the ID, null if the given voyage has been registered.
+     */
+    public synchronized Bus putIfAbsent(int id, Bus voyage) {
+        Bus existing = get(id);
+        if (existing != null) {
+            return existing;
+        }
+        Bus[] page = pageOf(id);
+        if (page == null && shouldAllocatePage(id >> PAGE_SHIFT)) {
+            page = allocatePage(id >> PAGE_SHIFT);
+        }
+        if (page != null) {
+            VOYAGES.setRelease(page, id & (PAGE_SIZE - 1), voyage);
+            pagedSize++;
+        } else {
+            putInTable(id, voyage);
+        }
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes a voyage.
+     *
+     * @param id ID of the voyage.
+     * @return The removed voyage, null if there is no voyage with the given ID.
+     */
+    public synchronized Bus remove(int id) {
+        Bus voyage = get(id);
+        if (voyage != null) {
+            removeExisting(id);
+        }
+        return voyage;
+    }
+
+    /**
+     * Removes a voyage if it is still registered with its ID.
+     *
+     * @param id     ID of the voyage.
+     * @param voyage The voyage.
+     * @return true if the voyage is removed, false if the ID belongs to another voyage or to none.
+     */
+    public synchronized boolean remove(int id, Bus voyage) {
+        if (voyage == null || get(id) != voyage) {
+            return false;
+        }
+        removeExisting(id);
+        return true;
+    }
+
+    private void removeExisting(int id) {
+        Bus[] page = pageOf(id);
+        if (page != null) {
+            VOYAGES.setRelease(page, id & (PAGE_SIZE - 1), (Bus) null);
+            pagedSize--;
+        } else {
+            Table table = this.table;
+            VOYAGES.setRelease(table.voyages, table.find(id), (Bus) null);
+            table.liveSlots--;
+        }
+        size--;
+    }
+
+    /**
+     * @return Number of voyages.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if there are no voyages, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visits the voyages in ascending ID order. Voyages that are added or removed during the visit may or may not be visited.
+     *
+     * @param action Action to perform on every voyage.
+     */
+    public void forEach(Consumer<? super Bus> action) {
+        Bus[][] pages = this.pages;
+        int[] tableKeys = sortedTableKeys();
+        int next = 0;
+        for (int pageIndex = 0; pageIndex < pages.length; pageIndex++) {
+            Bus[] page = pages[pageIndex];
+            if (page == null) {
+                continue;
+            }
+            int pageStart = pageIndex << PAGE_SHIFT;
+            while (next < tableKeys.length && tableKeys[next] < pageStart) { // Including the negative IDs before the first page
+                acceptFromTable(tableKeys[next++], pages, action);
+            }
+            for (int slot = 0; slot < PAGE_SIZE; slot++) {
+                Bus voyage = (Bus) VOYAGES.getAcquire(page, slot);
+                if (voyage != null) {
+                    action.accept(voyage);
+                }
+            }
+        }
+        while (next < tableKeys.length) {
+            acceptFromTable(tableKeys[next++], pages, action);
+        }
+    }
+
+    /**
+     * Visits a voyage of the sorted table keys, unless it belongs to one of the visited pages, where it has moved since the
+     * keys were sorted and where it is visited instead.
+     */
+    private void acceptFromTable(int id, Bus[][] pages, Consumer<? super Bus> action) {
+        if (pageOf(pages, id) == null) {
+            Bus voyage = get(id);
+            if (voyage != null) {
+                action.accept(voyage);
+            }
+        }
+    }
+
+    /**
+     * @return IDs of the table in ascending order, including the IDs whose voyage has been removed since they were sorted.
+     */
+    private int[] sortedTableKeys() {
+        int[] keys = sortedTableKeys;
+        if (keys != null) {
+            return keys;
+        }
+        synchronized (this) {
+            if (sortedTableKeys == null) {
+                Table table = this.table;
+                int[] sorted = new int[table.liveSlots];
+                int count = 0;
+                for (int slot = 0; slot < table.keys.length; slot++) {
+                    if (table.voyages[slot] != null) {
+                        sorted[count++] = (int) table.keys[slot];
+                    }
+                }
+                Arrays.sort(sorted);
+                sortedTableKeys = sorted;
+            }
+            return sortedTableKeys;
+        }
+    }
+
+    /**
+     * @param id ID of a voyage.
+     * @return The allocated page of the ID, null if there is none.
+     */
+    private Bus[] pageOf(int id) {
+        return pageOf(pages, id);
+    }
+
+    private static Bus[] pageOf(Bus[][] pages, int id) {
+        int pageIndex = id >> PAGE_SHIFT;
+        return pageIndex >= 0 && pageIndex < pages.length ? pages[pageIndex] : null;
+    }
+
+    /**
+     * Decides whether a new page is worth allocating, which is when the pages would still be a quarter full on average and the
+     * page is not much further away than the allocated ones, so that the array of pages stays small.
+     *
+     * @param pageIndex Index of the page, negative for negative IDs.
+     * @return true if the page should be allocated, false if the ID should go to the table.
+     */
+    private boolean shouldAllocatePage(int pageIndex) {
+        if (pageIndex < 0) {
+            return false;
+        }
+        if (pageIndex < MIN_PAGES) {
+            return true;
+        }
+        return pageIndex <= 2 * allocatedPages && 4L * (pagedSize + 1) >= (long) (allocatedPages + 1) * PAGE_SIZE;
+    }
+
+    /**
+     * Allocates a page, moves the voyages of the table that belong to it into it, and publishes it. The voyages are removed
+     * from the table only after the page is published, so a concurrent lookup finds them in one or the other.
+     *
+     * @param pageIndex Index of the page.
+     * @return The page.
+     */
+    private Bus[] allocatePage(int pageIndex) {
+        Bus[] page = new Bus[PAGE_SIZE];
+        Table table = this.table;
+        int[] movedSlots = new int[table == null ? 0 : Math.min(table.liveSlots, PAGE_SIZE)];
+        int moved = 0;
+        if (movedSlots.length > 0) {
+            if (table.keys.length <= PAGE_SIZE) { // Scanning the table is cheaper than probing every ID of the page
+                for (int slot = 0; slot < table.keys.length; slot++) {
+                    int id = (int) table.keys[slot];
+                    if (table.voyages[slot] != null && id >> PAGE_SHIFT == pageIndex) {
+                        movedSlots[moved++] = slot;
+                    }
+                }
+            } else {
+                for (int id = pageIndex << PAGE_SHIFT, end = id + PAGE_SIZE; id < end && moved < movedSlots.length; id++) {
+                    int slot = table.find(id);
+                    if (table.voyages[slot] != null) {
+                        movedSlots[moved++] = slot;
+                    }
+                }
+            }
+            for (int i = 0; i < moved; i++) {
+                page[(int) table.keys[movedSlots[i]] & (PAGE_SIZE - 1)] = table.voyages[movedSlots[i]];
+            }
+        }
+        Bus[][] grown = Arrays.copyOf(pages, Math.max(pages.length, Integer.highestOneBit(pageIndex) * 2));
+        grown[pageIndex] = page;
+        pages = grown; // Volatile write, publishes the page with the voyages moved into it
+        allocatedPages++;
+        pagedSize += moved;
+        for (int i = 0; i < moved; i++) {
+            VOYAGES.setRelease(table.voyages, movedSlots[i], (Bus) null);
+        }
+        if (moved > 0) {
+            table.liveSlots -= moved;
+            sortedTableKeys = null;
+        }
+        return page;
+    }
+
+    private void putInTable(int id, Bus voyage) {
+        Table table = this.table;
+        if (table == null || 2 * (table.usedSlots + 1) > table.keys.length) {
+            table = rebuildTable(table);
+        }
+        int slot = table.find(id);
+        VOYAGES.setRelease(table.voyages, slot, voyage); // Before the key, so that a reader that finds the key finds the voyage
+        if ((long) KEYS.getAcquire(table.keys, slot) == 0) {
+            KEYS.setRelease(table.keys, slot, (id & 0xFFFFFFFFL) | USED);
+            table.usedSlots++;
+        }
+        table.liveSlots++;
+        sortedTableKeys = null;
+    }
+
+    /**
+     * Copies the live voyages of the table into a new table with room for at least as many more, and publishes it.
+     *
+     * @param old The table, null if there is none yet.
+     * @return The new table.
+     */
+    private Table rebuildTable(Table old) {
+        int live = old == null ? 0 : old.liveSlots;
+        int capacity = MIN_TABLE_CAPACITY;
+        while (capacity < 4 * (live + 1)) {
+            capacity *= 2;
+        }
+        Table table = new Table(capacity);
+        if (old != null) {
+            for (int slot = 0; slot < old.keys.length; slot++) {
+                Bus voyage = old.voyages[slot];
+                if (voyage != null) {
+                    int newSlot = table.find((int) old.keys[slot]);
+                    table.keys[newSlot] = old.keys[slot];
+                    table.voyages[newSlot] = voyage;
+                }
+            }
+        }
+        table.usedSlots = live;
+        table.liveSlots = live;
+        this.table = table; // Volatile write, publishes the copied slots
+        return table;
+    }
+}